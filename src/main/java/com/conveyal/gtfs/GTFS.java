@@ -8,6 +8,8 @@ import com.conveyal.gtfs.loader.JdbcGtfsSnapshotter;
 import com.conveyal.gtfs.loader.SnapshotResult;
 import com.conveyal.gtfs.util.InvalidNamespaceException;
 import com.conveyal.gtfs.validator.FeedValidatorCreator;
+import com.conveyal.gtfs.validator.ValidationOptions;
+import com.conveyal.gtfs.validator.ValidationProfile;
 import com.conveyal.gtfs.validator.ValidationResult;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.io.Files;
@@ -29,6 +31,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 
 import static com.conveyal.gtfs.util.Util.ensureValidNamespace;
 
@@ -108,6 +111,19 @@ public abstract class GTFS {
         return result;
     }
 
+    /**
+     * Validate a feed that has been loaded into the database, running only the checks in the given profile.
+     */
+    public static ValidationResult validate (
+        String feedId,
+        DataSource dataSource,
+        ValidationProfile profile,
+        FeedValidatorCreator... additionalValidators
+    ) {
+        Feed feed = new Feed(dataSource, feedId);
+        return feed.validate(new ValidationOptions().profile(profile), additionalValidators);
+    }
+
     /**
      * Deletes all tables for the specified feed. Simply put, this is a "drop schema" SQL statement called on the feed's
      * namespace.
@@ -223,6 +239,16 @@ public abstract class GTFS {
             printHelp(options);
             return;
         }
+        ValidationProfile profile;
+        String profileName = cmd.getOptionValue("profile", ValidationProfile.FULL.name());
+        try {
+            profile = ValidationProfile.valueOf(profileName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOG.error("Unknown validation profile '{}', must be one of {}.", profileName,
+                Arrays.toString(ValidationProfile.values()));
+            printHelp(options);
+            return;
+        }
         boolean storeResults = cmd.hasOption("json");
         // Object mapper and directory used for writing load or validation results to file if required.
         ObjectMapper mapper = null;
@@ -244,9 +270,16 @@ public abstract class GTFS {
 
         // Record the unique identifier of the newly loaded feed
         FeedLoadResult loadResult = null;
+        Feed loadedFeed = null;
         if (cmd.hasOption("load")) {
             String filePath = cmd.getOptionValue("load");
-            loadResult = load(filePath, dataSource);
+            JdbcGtfsLoader loader = new JdbcGtfsLoader(filePath, dataSource);
+            // If the feed being loaded is also to be validated, validate its trips as their stop times are loaded.
+            if (cmd.hasOption("validate") && cmd.getOptionValue("validate") == null) {
+                loader.validateTripsWhileLoading(profile);
+            }
+            loadResult = loader.loadTables();
+            loadedFeed = loader.getFeed();
             if (storeResults) {
                 File loadResultFile = new File(directory, String.format("%s-load.json", loadResult.uniqueIdentifier));
                 LOG.info("Storing load result at {}", loadResultFile.getAbsolutePath());
@@ -266,7 +299,9 @@ public abstract class GTFS {
             }
             if (feedToValidate != null) {
                 LOG.info("Validating feed with unique identifier {}", feedToValidate);
-                ValidationResult validationResult = validate (feedToValidate, dataSource);
+                ValidationResult validationResult = loadResult != null && feedToValidate.equals(loadResult.uniqueIdentifier)
+                    ? loadedFeed.validate(new ValidationOptions().profile(profile))
+                    : validate(feedToValidate, dataSource, profile);
                 if (storeResults) {
                     File validationResultFile = new File(directory, String.format("%s-validation.json", feedToValidate));
                     LOG.info("Storing validation result at {}", validationResultFile.getAbsolutePath());
@@ -352,6 +387,10 @@ public abstract class GTFS {
                 .longOpt("validate").hasArg().optionalArg(true)
                 .argName("namespace")
                 .desc("validate the specified feed. defaults to the feed loaded with the --load option").build());
+        options.addOption(Option.builder()
+                .longOpt("profile").hasArg()
+                .argName("profile")
+                .desc("checks to run when validating: fast, standard or full (the default)").build());
         options.addOption(Option.builder()
                 .longOpt("snapshot").hasArg()
                 .argName("namespace")
@@ -353,12 +353,12 @@ public class GTFSFeed implements Cloneable, Closeable {
      * to simply retrieve the stop times from the stop_times map.
      */
     public void findPatterns () {
-        PatternFinder patternFinder = new PatternFinder();
-        // Iterate over trips and process each trip and its stop times.
-        for (Trip trip : this.trips.values()) {
-            Iterable<StopTime> orderedStopTimesForTrip = this.getOrderedStopTimesForTrip(trip.trip_id);
-            patternFinder.processTrip(trip, orderedStopTimesForTrip);
-        }
+        // Process each trip and its stop times, with the trips on each route processed in parallel. MapDB maps can be
+        // read from several threads at once.
+        PatternFinder patternFinder = PatternFinder.findPatternsByRoute(
+            this.trips.values(),
+            this::getOrderedStopTimesForTrip
+        );
         Map<TripPatternKey, Pattern> patternObjects = patternFinder.createPatternObjects(this.stops, null);
         this.patterns.putAll(patternObjects.values().stream()
                 .collect(Collectors.toMap(Pattern::getId, pattern -> pattern)));
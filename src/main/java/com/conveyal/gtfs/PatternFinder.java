@@ -3,6 +3,7 @@ package com.conveyal.gtfs;
 import com.conveyal.gtfs.error.NewGTFSError;
 import com.conveyal.gtfs.error.NewGTFSErrorType;
 import com.conveyal.gtfs.error.SQLErrorStorage;
+import com.conveyal.gtfs.loader.TripStopTimes;
 import com.conveyal.gtfs.model.Pattern;
 import com.conveyal.gtfs.model.PatternStop;
 import com.conveyal.gtfs.model.ShapePoint;
@@ -11,8 +12,9 @@ import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
 import com.conveyal.gtfs.validator.service.GeoUtils;
 import com.google.common.collect.HashMultimap;
-import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateList;
 import org.locationtech.jts.geom.LineString;
@@ -21,6 +23,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -29,6 +32,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.conveyal.gtfs.util.Util.human;
@@ -45,11 +49,44 @@ public class PatternFinder {
 
     private static final Logger LOG = LoggerFactory.getLogger(PatternFinder.class);
 
-    // A multi-map that groups trips together by their sequence of stops
-    private Multimap<TripPatternKey, Trip> tripsForPattern = LinkedHashMultimap.create();
+    // The stop IDs seen so far, interned to ints so that pattern keys can be compared as arrays of ints.
+    private final TripPatternKey.StopIds stopIds = new TripPatternKey.StopIds();
+
+    // Groups trips together by their sequence of stops, in order of the first trip on each pattern. Only the key of
+    // the first trip on each pattern is kept, with the stop times from which the pattern stops will be built.
+    private final Map<TripPatternKey, PatternTrips> tripsForPattern = new LinkedHashMap<>();
+
+    // Reused to build the key of each trip, and only copied when the trip is the first one on a new pattern.
+    private final TripPatternKey tripKey = new TripPatternKey(null, stopIds);
 
     private int nTripsProcessed = 0;
 
+    /**
+     * The trips on one pattern. Only their IDs are kept, and their shape IDs to detect patterns with several shapes,
+     * plus the first trip which gives the pattern its route, direction and name, and the distribution of their travel
+     * and dwell times.
+     */
+    private static class PatternTrips {
+        final Trip exemplarTrip;
+        // The position of the exemplar trip among all the trips processed, used to order patterns found in parallel.
+        final int exemplarTripOrdinal;
+        final List<String> tripIds = new ArrayList<>();
+        final Set<String> shapeIds = new HashSet<>();
+        final PatternHopStats hopStats;
+
+        PatternTrips (Trip exemplarTrip, int exemplarTripOrdinal, int nStops) {
+            this.exemplarTrip = exemplarTrip;
+            this.exemplarTripOrdinal = exemplarTripOrdinal;
+            this.hopStats = new PatternHopStats(nStops);
+        }
+
+        void addTrip (Trip trip, TripPatternKey key) {
+            tripIds.add(trip.trip_id);
+            shapeIds.add(trip.shape_id);
+            hopStats.addTrip(key);
+        }
+    }
+
     /**
      * Bin all trips by the sequence of stops they visit.
      * @return A map from a list of stop IDs to a list of Trip IDs that visit those stops in that sequence.
@@ -66,39 +103,170 @@ public class PatternFinder {
 //    }
 
     public void processTrip(Trip trip, Iterable<StopTime> orderedStopTimes) {
+        processTrip(trip, orderedStopTimes, nTripsProcessed);
+    }
+
+    /**
+     * @param tripOrdinal the position of the trip among all the trips in the feed, which determines the order of the
+     *                    patterns (see {@link #findPatternsByRoute}).
+     */
+    private void processTrip(Trip trip, Iterable<StopTime> orderedStopTimes, int tripOrdinal) {
         if (++nTripsProcessed % 100000 == 0) {
             LOG.info("trip {}", human(nTripsProcessed));
         }
         // No need to scope the route ID here, patterns are built within the context of a single feed.
         // Create a key that might already be in the map (by semantic equality)
-        TripPatternKey key = new TripPatternKey(trip.route_id);
+        tripKey.reset(trip.route_id);
         for (StopTime st : orderedStopTimes) {
-            key.addStopTime(st);
+            tripKey.addStopTime(st);
         }
         // Add the current trip to the map, possibly extending an existing list of trips on this pattern.
-        tripsForPattern.put(key, trip);
+        addTrip(tripKey, trip, tripOrdinal);
+    }
+
+    /**
+     * Same as {@link #processTrip(Trip, Iterable)} for a trip whose stop times have been read into columns.
+     */
+    public void processTrip(Trip trip, TripStopTimes stopTimes) {
+        int tripOrdinal = nTripsProcessed;
+        if (++nTripsProcessed % 100000 == 0) {
+            LOG.info("trip {}", human(nTripsProcessed));
+        }
+        tripKey.reset(trip.route_id);
+        for (int i = 0; i < stopTimes.size; i++) {
+            tripKey.addStopTime(stopTimes, i);
+        }
+        addTrip(tripKey, trip, tripOrdinal);
+    }
+
+    private void addTrip(TripPatternKey key, Trip trip, int tripOrdinal) {
+        PatternTrips patternTrips = tripsForPattern.get(key);
+        if (patternTrips == null) {
+            patternTrips = new PatternTrips(trip, tripOrdinal, key.size());
+            // The key passed in may be reused for the next trip, so keep a (trimmed) copy.
+            tripsForPattern.put(key.copy(stopIds), patternTrips);
+        }
+        patternTrips.addTrip(trip, key);
+    }
+
+    /**
+     * Add all the trips grouped by another PatternFinder (e.g. one that processed a separate batch of trips on another
+     * thread) to this one. Entries are added in the other finder's insertion order, so merging finders in the order their
+     * trips were read yields exactly the same patterns, in the same order, as processing all the trips on one finder.
+     */
+    public void merge(PatternFinder other) {
+        for (Map.Entry<TripPatternKey, PatternTrips> entry : other.tripsForPattern.entrySet()) {
+            PatternTrips otherTrips = entry.getValue();
+            PatternTrips patternTrips = tripsForPattern.get(entry.getKey());
+            if (patternTrips == null) {
+                // The other finder interned its stop IDs separately.
+                tripsForPattern.put(entry.getKey().copy(stopIds), otherTrips);
+            } else {
+                patternTrips.tripIds.addAll(otherTrips.tripIds);
+                patternTrips.shapeIds.addAll(otherTrips.shapeIds);
+                patternTrips.hopStats.merge(otherTrips.hopStats);
+            }
+        }
+        nTripsProcessed += other.nTripsProcessed;
+    }
+
+    /**
+     * Find the patterns of all the given trips, grouping the trips by route and processing the routes in parallel on
+     * the common fork-join pool. Patterns never span routes, as the route is part of the pattern key, so each route
+     * can be processed separately. The patterns are then ordered by the position of their first trip in the supplied
+     * trips, so they are the same, in the same order, as if the trips had all been processed in turn on one finder.
+     *
+     * The common pool is shared by every parallel stream in the JVM and has one thread fewer than there are processors
+     * (the calling thread also takes part). Other parallel work started at the same time will compete for its threads,
+     * and stop time lookups that block (e.g. on a remote database) will hold up that other work too.
+     * @param orderedStopTimesForTrip supplies the stop times of a trip given its ID, and must be safe to call from
+     *                                several threads at once. It is called on the threads of the common pool.
+     */
+    public static PatternFinder findPatternsByRoute(
+        Iterable<Trip> trips,
+        Function<String, Iterable<StopTime>> orderedStopTimesForTrip
+    ) {
+        // Group the trips by route, in order of the first trip on each route, remembering the position of each trip.
+        Map<String, List<Trip>> tripsForRoute = new LinkedHashMap<>();
+        Map<String, TIntList> tripOrdinalsForRoute = new HashMap<>();
+        int tripOrdinal = 0;
+        for (Trip trip : trips) {
+            tripsForRoute.computeIfAbsent(trip.route_id, routeId -> new ArrayList<>()).add(trip);
+            tripOrdinalsForRoute.computeIfAbsent(trip.route_id, routeId -> new TIntArrayList()).add(tripOrdinal++);
+        }
+        LOG.info("Finding patterns of {} trips on {} routes in parallel.", human(tripOrdinal), tripsForRoute.size());
+        List<PatternFinder> finderForRoute = tripsForRoute.entrySet().parallelStream().map(entry -> {
+            PatternFinder routeFinder = new PatternFinder();
+            TIntList tripOrdinals = tripOrdinalsForRoute.get(entry.getKey());
+            List<Trip> routeTrips = entry.getValue();
+            for (int t = 0; t < routeTrips.size(); t++) {
+                Trip trip = routeTrips.get(t);
+                routeFinder.processTrip(trip, orderedStopTimesForTrip.apply(trip.trip_id), tripOrdinals.get(t));
+            }
+            return routeFinder;
+        }).collect(Collectors.toList());
+        PatternFinder patternFinder = new PatternFinder();
+        for (PatternFinder routeFinder : finderForRoute) patternFinder.merge(routeFinder);
+        // Order the patterns by their first trip, rather than by route.
+        List<Map.Entry<TripPatternKey, PatternTrips>> entries = new ArrayList<>(patternFinder.tripsForPattern.entrySet());
+        entries.sort(Comparator.comparingInt(entry -> entry.getValue().exemplarTripOrdinal));
+        patternFinder.tripsForPattern.clear();
+        for (Map.Entry<TripPatternKey, PatternTrips> entry : entries) {
+            patternFinder.tripsForPattern.put(entry.getKey(), entry.getValue());
+        }
+        return patternFinder;
+    }
+
+    /**
+     * @return the distribution of travel and dwell times across all the trips on the pattern with the given key, as
+     * returned by {@link #createPatternObjects}.
+     */
+    public PatternHopStats getHopStats(TripPatternKey key) {
+        return tripsForPattern.get(key).hopStats;
     }
 
     /**
      * Once all trips have been processed, call this method to produce the final Pattern objects representing all the
      * unique sequences of stops encountered. Returns map of patterns to their keys so that downstream functions can
      * make use of trip pattern keys for constructing pattern stops or other derivative objects.
+     *
+     * The patterns of each route are created and named in parallel on the common fork-join pool, which is shared with
+     * every other parallel stream in the JVM (see {@link #findPatternsByRoute}). This work only reads the supplied
+     * stops and never blocks, so it does not hold up the pool's threads for longer than it needs them.
      */
     public Map<TripPatternKey, Pattern> createPatternObjects(Map<String, Stop> stopById, SQLErrorStorage errorStorage) {
-        // Make pattern ID one-based to avoid any JS type confusion between an ID of zero vs. null value.
-        int nextPatternId = 1;
-        // Create an in-memory list of Patterns because we will later rename them before inserting them into storage.
-        // Use a LinkedHashMap so we can retrieve the entrySets later in the order of insertion.
+        List<Map.Entry<TripPatternKey, PatternTrips>> entries = new ArrayList<>(tripsForPattern.entrySet());
+        // Patterns never span routes, so they can be created and named separately for each route, in parallel.
+        Map<String, TIntList> patternIndexesForRoute = new HashMap<>();
+        for (int p = 0; p < entries.size(); p++) {
+            String routeId = entries.get(p).getKey().routeId;
+            patternIndexesForRoute.computeIfAbsent(routeId, r -> new TIntArrayList()).add(p);
+        }
+        Pattern[] patternArray = new Pattern[entries.size()];
+        LOG.info("Generating unique names for patterns on {} routes", patternIndexesForRoute.size());
+        patternIndexesForRoute.values().parallelStream().forEach(patternIndexes -> {
+            List<Pattern> routePatterns = new ArrayList<>(patternIndexes.size());
+            for (int p : patternIndexes.toArray()) {
+                TripPatternKey key = entries.get(p).getKey();
+                PatternTrips trips = entries.get(p).getValue();
+                Pattern pattern = new Pattern(key.getStopIds(), trips.exemplarTrip, trips.tripIds, null);
+                // Overwrite long UUID with sequential integer pattern ID, in order of the first trip on each pattern
+                // whichever thread creates it. Make pattern ID one-based to avoid any JS type confusion between an ID
+                // of zero vs. null value.
+                pattern.pattern_id = Integer.toString(p + 1);
+                // FIXME: Should associated shapes be a single entry?
+                pattern.associatedShapes = trips.shapeIds;
+                patternArray[p] = pattern;
+                routePatterns.add(pattern);
+            }
+            // Name patterns before storing in SQL database.
+            renamePatterns(routePatterns, stopById);
+        });
+        // Use a LinkedHashMap so we can retrieve the entrySets later in the order of insertion. Errors are stored in
+        // the same order, once all the patterns have been created.
         Map<TripPatternKey, Pattern> patterns = new LinkedHashMap<>();
-        // TODO assign patterns sequential small integer IDs (may include route)
-        for (TripPatternKey key : tripsForPattern.keySet()) {
-            Collection<Trip> trips = tripsForPattern.get(key);
-            Pattern pattern = new Pattern(key.stops, trips, null);
-            // Overwrite long UUID with sequential integer pattern ID
-            pattern.pattern_id = Integer.toString(nextPatternId++);
-            // FIXME: Should associated shapes be a single entry?
-            pattern.associatedShapes = new HashSet<>();
-            trips.stream().forEach(trip -> pattern.associatedShapes.add(trip.shape_id));
+        for (int p = 0; p < patternArray.length; p++) {
+            Pattern pattern = patternArray[p];
             if (pattern.associatedShapes.size() > 1 && errorStorage != null) {
                 // Store an error if there is more than one shape per pattern. Note: error storage is null if called via
                 // MapDB implementation.
@@ -108,11 +276,9 @@ public class PatternFinder {
                         NewGTFSErrorType.MULTIPLE_SHAPES_FOR_PATTERN)
                             .setBadValue(pattern.associatedShapes.toString()));
             }
-            patterns.put(key, pattern);
+            patterns.put(entries.get(p).getKey(), pattern);
         }
-        // Name patterns before storing in SQL database.
-        renamePatterns(patterns.values(), stopById);
-        LOG.info("Total patterns: {}", tripsForPattern.keySet().size());
+        LOG.info("Total patterns: {}", tripsForPattern.size());
         return patterns;
     }
 
@@ -122,7 +288,8 @@ public class PatternFinder {
      * Some validators already cache a map of all the stops. There's probably a cleaner way to do this.
      */
     public static void renamePatterns(Collection<Pattern> patterns, Map<String, Stop> stopById) {
-        LOG.info("Generating unique names for patterns");
+        // This is called once per route by createPatternObjects, which logs once for all routes.
+        LOG.debug("Generating unique names for {} patterns", patterns.size());
 
         Map<String, PatternNamingInfo> namingInfoForRoute = new HashMap<>();
 
@@ -0,0 +1,143 @@
+package com.conveyal.gtfs;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.Arrays;
+
+import static com.conveyal.gtfs.model.Entity.INT_MISSING;
+
+/**
+ * Distributions of the travel time to each stop of a pattern (from the previous stop) and the dwell time at each stop,
+ * across all the trips on the pattern. Rather than keeping the times of every trip, each distribution is an exact
+ * histogram counting how many trips have each time, which stays small because trips on the same pattern mostly share
+ * the same few times. The histograms of every stop are held in a single map of primitives to keep the overhead per
+ * pattern low, and histograms built from separate batches of trips can be merged.
+ */
+public class PatternHopStats {
+
+    private static final int TRAVEL_TIME = 0;
+    private static final int DWELL_TIME = 1;
+
+    private final int nStops;
+
+    // The number of trips with each time, keyed on the stop index, the kind of time and the time (see key()).
+    private final TLongIntMap tripCounts = new TLongIntHashMap();
+
+    // The distributions computed from the histograms, cached until more times are recorded.
+    private TimeDistribution[][] distributions;
+
+    public PatternHopStats (int nStops) {
+        this.nStops = nStops;
+    }
+
+    /**
+     * Record the times of one trip on the pattern. Travel times are measured from the last stop before each stop with a
+     * departure time, so a missing time at one stop does not make the travel time to the next stop missing.
+     */
+    public void addTrip (TripPatternKey trip) {
+        distributions = null;
+        int lastValidDeparture = trip.getDepartureTime(0);
+        for (int i = 0; i < nStops; i++) {
+            int arrival = trip.getArrivalTime(i);
+            int departure = trip.getDepartureTime(i);
+            if (i > 0) {
+                int prevDeparture = trip.getDepartureTime(i - 1);
+                if (prevDeparture != INT_MISSING) lastValidDeparture = prevDeparture;
+                if (arrival != INT_MISSING && lastValidDeparture != INT_MISSING) {
+                    tripCounts.adjustOrPutValue(key(i, TRAVEL_TIME, arrival - lastValidDeparture), 1, 1);
+                }
+            }
+            if (arrival != INT_MISSING && departure != INT_MISSING) {
+                tripCounts.adjustOrPutValue(key(i, DWELL_TIME, departure - arrival), 1, 1);
+            }
+        }
+    }
+
+    /** Add the times recorded for another batch of trips on the same pattern. */
+    public void merge (PatternHopStats other) {
+        distributions = null;
+        other.tripCounts.forEachEntry((key, count) -> {
+            tripCounts.adjustOrPutValue(key, count, count);
+            return true;
+        });
+    }
+
+    /**
+     * Pack the stop index, kind of time and time into a long, such that keys sort by stop, then kind, then time. The
+     * time is offset so that negative times (from bad data) sort before positive ones.
+     */
+    private static long key (int stopIndex, int kind, int time) {
+        return ((long) (stopIndex * 2 + kind) << 32) | ((long) time - Integer.MIN_VALUE);
+    }
+
+    /**
+     * @return the distribution of the travel time to each stop (from the previous stop) and the dwell time at each
+     * stop, indexed by [stop][kind] where kind is 0 for travel time and 1 for dwell time.
+     */
+    private TimeDistribution[][] summarize () {
+        TimeDistribution[][] distributions = new TimeDistribution[nStops][2];
+        long[] keys = tripCounts.keys();
+        Arrays.sort(keys);
+        int start = 0;
+        while (start < keys.length) {
+            int stopAndKind = (int) (keys[start] >>> 32);
+            int end = start;
+            int count = 0;
+            while (end < keys.length && (int) (keys[end] >>> 32) == stopAndKind) {
+                count += tripCounts.get(keys[end++]);
+            }
+            TimeDistribution distribution = new TimeDistribution();
+            distribution.count = count;
+            distribution.p10 = percentile(keys, start, end, count, 0.1);
+            distribution.median = percentile(keys, start, end, count, 0.5);
+            distribution.p90 = percentile(keys, start, end, count, 0.9);
+            distributions[stopAndKind / 2][stopAndKind % 2] = distribution;
+            start = end;
+        }
+        for (TimeDistribution[] stopDistributions : distributions) {
+            for (int kind = 0; kind < 2; kind++) {
+                if (stopDistributions[kind] == null) stopDistributions[kind] = new TimeDistribution();
+            }
+        }
+        return distributions;
+    }
+
+    /** @return the time at the given percentile (nearest rank) among the sorted keys of one histogram. */
+    private int percentile (long[] sortedKeys, int start, int end, int count, double fraction) {
+        int rank = Math.max(1, (int) Math.ceil(fraction * count));
+        int seen = 0;
+        for (int k = start; k < end; k++) {
+            seen += tripCounts.get(sortedKeys[k]);
+            if (seen >= rank) return (int) ((sortedKeys[k] & 0xFFFFFFFFL) + Integer.MIN_VALUE);
+        }
+        throw new IllegalStateException("Histogram counts do not add up.");
+    }
+
+    /** @return the travel time distributions, indexed by stop. The travel time to the first stop is always missing. */
+    public TimeDistribution[] getTravelTimes () {
+        return getDistributions(TRAVEL_TIME);
+    }
+
+    /** @return the dwell time distributions, indexed by stop. */
+    public TimeDistribution[] getDwellTimes () {
+        return getDistributions(DWELL_TIME);
+    }
+
+    private TimeDistribution[] getDistributions (int kind) {
+        if (distributions == null) distributions = summarize();
+        TimeDistribution[] result = new TimeDistribution[nStops];
+        for (int i = 0; i < nStops; i++) result[i] = distributions[i][kind];
+        return result;
+    }
+
+    /** The distribution of one kind of time at one stop of a pattern, in seconds. */
+    public static class TimeDistribution {
+        /** The number of trips with a known time, 0 if none had one in which case the percentiles are INT_MISSING. */
+        public int count = 0;
+        public int p10 = INT_MISSING;
+        public int median = INT_MISSING;
+        public int p90 = INT_MISSING;
+    }
+
+}
@@ -1,12 +1,13 @@
 package com.conveyal.gtfs;
 
+import com.conveyal.gtfs.loader.PatternSignatures;
+import com.conveyal.gtfs.loader.TripStopTimes;
 import com.conveyal.gtfs.model.StopTime;
-import gnu.trove.list.TDoubleList;
-import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TDoubleArrayList;
-import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static com.conveyal.gtfs.model.Entity.INT_MISSING;
@@ -15,36 +16,137 @@ import static com.conveyal.gtfs.model.Entity.INT_MISSING;
  * Used as a map key when grouping trips by stop pattern. Note that this includes the routeId, so the same sequence of
  * stops on two different routes makes two different patterns.
  * These objects are not intended for use outside the grouping process.
+ *
+ * A key is built for every trip in the feed but only kept for the first trip on each pattern, so it is kept compact:
+ * stop IDs are interned to int indexes (see {@link StopIds}) and the fields used in the equality check (stop, pickup
+ * type and drop-off type at each stop) are packed into a single int array, whose hash is computed only once. The
+ * remaining fields hold the times etc. of the first trip on the pattern, from which the pattern stops are built.
  */
 public class TripPatternKey {
 
+    // Number of ints per stop in the packed equality fields: stop index, pickup type and drop-off type.
+    private static final int FIELDS_PER_STOP = 3;
+
     public String routeId;
-    public List<String> stops = new ArrayList<>();
-    public TIntList pickupTypes = new TIntArrayList();
-    public TIntList dropoffTypes = new TIntArrayList();
-    // Note, the lists below are not used in the equality check.
-    public TIntList arrivalTimes = new TIntArrayList();
-    public TIntList departureTimes = new TIntArrayList();
-    public TIntList timepoints = new TIntArrayList();
-    public TIntList continuous_pickup = new TIntArrayList();
-    public TIntList continuous_drop_off = new TIntArrayList();
-    public TDoubleList shapeDistances = new TDoubleArrayList();
+    private final StopIds stopIds;
+
+    // Number of stops in the pattern.
+    private int size;
+    // The equality fields of each stop, FIELDS_PER_STOP ints per stop.
+    private int[] packedStops;
+    // Computed on demand, and reset whenever a stop is added.
+    private int hash;
+    private boolean hashComputed;
+
+    // Note, the fields below are not used in the equality check.
+    private int[] arrivalTimes;
+    private int[] departureTimes;
+    private int[] timepoints;
+    private int[] continuousPickups;
+    private int[] continuousDropOffs;
+    private double[] shapeDistances;
 
+    /**
+     * Create a key with its own set of interned stop IDs. Keys sharing the same {@link StopIds} compare faster, see
+     * {@link #TripPatternKey(String, StopIds)}.
+     */
     public TripPatternKey (String routeId) {
+        this(routeId, new StopIds());
+    }
+
+    /**
+     * @param stopIds the stop IDs interned so far, shared by all the keys created during one grouping process.
+     */
+    public TripPatternKey (String routeId, StopIds stopIds) {
+        this(routeId, stopIds, 16);
+    }
+
+    private TripPatternKey (String routeId, StopIds stopIds, int capacity) {
+        this.routeId = routeId;
+        this.stopIds = stopIds;
+        packedStops = new int[capacity * FIELDS_PER_STOP];
+        arrivalTimes = new int[capacity];
+        departureTimes = new int[capacity];
+        timepoints = new int[capacity];
+        continuousPickups = new int[capacity];
+        continuousDropOffs = new int[capacity];
+        shapeDistances = new double[capacity];
+    }
+
+    /** Empty this key so that it can be reused for another trip, without reallocating its arrays. */
+    public void reset (String routeId) {
         this.routeId = routeId;
+        size = 0;
+        hashComputed = false;
     }
 
     public void addStopTime (StopTime st) {
-        stops.add(st.stop_id);
-        pickupTypes.add(resolvePickupOrDropOffType(st.pickup_type));
-        dropoffTypes.add(resolvePickupOrDropOffType(st.drop_off_type));
+        int i = addStop(st.stop_id, st.pickup_type, st.drop_off_type);
         // Note, the items listed below are not used in the equality check.
-        arrivalTimes.add(st.arrival_time);
-        departureTimes.add(st.departure_time);
-        timepoints.add(st.timepoint);
-        shapeDistances.add(st.shape_dist_traveled);
-        continuous_pickup.add(st.continuous_pickup);
-        continuous_drop_off.add(st.continuous_drop_off);
+        arrivalTimes[i] = st.arrival_time;
+        departureTimes[i] = st.departure_time;
+        timepoints[i] = st.timepoint;
+        shapeDistances[i] = st.shape_dist_traveled;
+        continuousPickups[i] = st.continuous_pickup;
+        continuousDropOffs[i] = st.continuous_drop_off;
+    }
+
+    /**
+     * Add the stop time at index i of a columnar trip, equivalent to calling {@link #addStopTime(StopTime)} with the
+     * corresponding StopTime object.
+     */
+    public void addStopTime (TripStopTimes stopTimes, int i) {
+        String stopId = stopTimes.getStop(i) == null ? null : stopTimes.getStop(i).stop_id;
+        int s = addStop(stopId, stopTimes.pickupTypes[i], stopTimes.dropOffTypes[i]);
+        // Note, the items listed below are not used in the equality check.
+        arrivalTimes[s] = stopTimes.arrivalTimes[i];
+        departureTimes[s] = stopTimes.departureTimes[i];
+        timepoints[s] = stopTimes.timepoints[i];
+        shapeDistances[s] = stopTimes.shapeDistTraveled[i];
+        continuousPickups[s] = stopTimes.continuousPickups[i];
+        continuousDropOffs[s] = stopTimes.continuousDropOffs[i];
+    }
+
+    /** Append the equality fields of a stop, growing the arrays as needed. @return the index of the new stop. */
+    private int addStop (String stopId, int pickupType, int dropOffType) {
+        if (size == arrivalTimes.length) grow();
+        int p = size * FIELDS_PER_STOP;
+        packedStops[p] = stopIds.intern(stopId);
+        packedStops[p + 1] = resolvePickupOrDropOffType(pickupType);
+        packedStops[p + 2] = resolvePickupOrDropOffType(dropOffType);
+        hashComputed = false;
+        return size++;
+    }
+
+    private void grow () {
+        int capacity = Math.max(arrivalTimes.length * 2, 4);
+        packedStops = Arrays.copyOf(packedStops, capacity * FIELDS_PER_STOP);
+        arrivalTimes = Arrays.copyOf(arrivalTimes, capacity);
+        departureTimes = Arrays.copyOf(departureTimes, capacity);
+        timepoints = Arrays.copyOf(timepoints, capacity);
+        continuousPickups = Arrays.copyOf(continuousPickups, capacity);
+        continuousDropOffs = Arrays.copyOf(continuousDropOffs, capacity);
+        shapeDistances = Arrays.copyOf(shapeDistances, capacity);
+    }
+
+    /**
+     * @return a copy of this key with arrays trimmed to its number of stops, whose stop IDs are interned in the given
+     * set of stop IDs (which may be the same as this key's). Used to keep a key that is being reused (see
+     * {@link #reset(String)}), or to move keys between grouping processes.
+     */
+    public TripPatternKey copy (StopIds targetStopIds) {
+        TripPatternKey copy = new TripPatternKey(routeId, targetStopIds, size);
+        for (int i = 0; i < size; i++) {
+            int p = i * FIELDS_PER_STOP;
+            copy.addStop(stopIds.get(packedStops[p]), packedStops[p + 1], packedStops[p + 2]);
+        }
+        System.arraycopy(arrivalTimes, 0, copy.arrivalTimes, 0, size);
+        System.arraycopy(departureTimes, 0, copy.departureTimes, 0, size);
+        System.arraycopy(timepoints, 0, copy.timepoints, 0, size);
+        System.arraycopy(continuousPickups, 0, copy.continuousPickups, 0, size);
+        System.arraycopy(continuousDropOffs, 0, copy.continuousDropOffs, 0, size);
+        System.arraycopy(shapeDistances, 0, copy.shapeDistances, 0, size);
+        return copy;
     }
 
     /**
@@ -57,6 +159,69 @@ public class TripPatternKey {
         return pickupOrDropOffType == INT_MISSING ? 0 : pickupOrDropOffType;
     }
 
+    /** @return the number of stops in this pattern. */
+    public int size () {
+        return size;
+    }
+
+    /** @return the ID of the stop at index i, or null if the stop time had no stop ID. */
+    public String getStopId (int i) {
+        return stopIds.get(packedStops[i * FIELDS_PER_STOP]);
+    }
+
+    /** @return the IDs of the stops in this pattern, in order. */
+    public List<String> getStopIds () {
+        List<String> ids = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) ids.add(getStopId(i));
+        return ids;
+    }
+
+    public int getPickupType (int i) {
+        return packedStops[i * FIELDS_PER_STOP + 1];
+    }
+
+    public int getDropOffType (int i) {
+        return packedStops[i * FIELDS_PER_STOP + 2];
+    }
+
+    public int getArrivalTime (int i) {
+        return arrivalTimes[i];
+    }
+
+    public int getDepartureTime (int i) {
+        return departureTimes[i];
+    }
+
+    public int getTimepoint (int i) {
+        return timepoints[i];
+    }
+
+    public int getContinuousPickup (int i) {
+        return continuousPickups[i];
+    }
+
+    public int getContinuousDropOff (int i) {
+        return continuousDropOffs[i];
+    }
+
+    public double getShapeDistance (int i) {
+        return shapeDistances[i];
+    }
+
+    /**
+     * @return the signature of this pattern as stored in the patterns table, equal for keys that are equal (see
+     * {@link PatternSignatures}).
+     */
+    public String getSignature () {
+        int[] pickupTypes = new int[size];
+        int[] dropOffTypes = new int[size];
+        for (int i = 0; i < size; i++) {
+            pickupTypes[i] = getPickupType(i);
+            dropOffTypes[i] = getDropOffType(i);
+        }
+        return PatternSignatures.signature(routeId, getStopIds(), pickupTypes, dropOffTypes);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -64,21 +229,81 @@ public class TripPatternKey {
 
         TripPatternKey that = (TripPatternKey) o;
 
-        if (dropoffTypes != null ? !dropoffTypes.equals(that.dropoffTypes) : that.dropoffTypes != null) return false;
-        if (pickupTypes != null ? !pickupTypes.equals(that.pickupTypes) : that.pickupTypes != null) return false;
+        if (size != that.size) return false;
+        if (hashCode() != that.hashCode()) return false;
         if (routeId != null ? !routeId.equals(that.routeId) : that.routeId != null) return false;
-        if (stops != null ? !stops.equals(that.stops) : that.stops != null) return false;
-
+        for (int i = 0; i < size; i++) {
+            int p = i * FIELDS_PER_STOP;
+            if (packedStops[p + 1] != that.packedStops[p + 1]) return false;
+            if (packedStops[p + 2] != that.packedStops[p + 2]) return false;
+            if (stopIds == that.stopIds) {
+                if (packedStops[p] != that.packedStops[p]) return false;
+            } else {
+                // Keys from different grouping processes must compare the stop IDs themselves.
+                String stopId = stopIds.get(packedStops[p]);
+                String thatStopId = that.stopIds.get(that.packedStops[p]);
+                if (stopId != null ? !stopId.equals(thatStopId) : thatStopId != null) return false;
+            }
+        }
         return true;
     }
 
+    /**
+     * The hash is based on the stop IDs rather than their interned indexes, so that it is consistent with equals() for
+     * keys using different sets of interned stop IDs.
+     */
     @Override
     public int hashCode() {
-        int result = routeId != null ? routeId.hashCode() : 0;
-        result = 31 * result + (stops != null ? stops.hashCode() : 0);
-        result = 31 * result + (pickupTypes != null ? pickupTypes.hashCode() : 0);
-        result = 31 * result + (dropoffTypes != null ? dropoffTypes.hashCode() : 0);
-        return result;
+        if (!hashComputed) {
+            int result = routeId != null ? routeId.hashCode() : 0;
+            for (int i = 0; i < size; i++) {
+                int p = i * FIELDS_PER_STOP;
+                result = 31 * result + stopIds.hashCodeOf(packedStops[p]);
+                result = 31 * result + packedStops[p + 1];
+                result = 31 * result + packedStops[p + 2];
+            }
+            hash = result;
+            hashComputed = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Interns stop IDs as small int indexes, so that patterns can be stored and compared as arrays of ints. One
+     * instance is shared by all the keys created while grouping the trips of a feed.
+     */
+    public static class StopIds {
+
+        private static final int NULL_STOP_ID = -1;
+
+        private final TObjectIntMap<String> indexForStopId = new TObjectIntHashMap<>(1000, 0.5f, NULL_STOP_ID);
+        private final List<String> stopIds = new ArrayList<>();
+
+        /** @return the index of the stop ID, assigning it the next index if it has not been seen before. */
+        public int intern (String stopId) {
+            if (stopId == null) return NULL_STOP_ID;
+            int index = indexForStopId.get(stopId);
+            if (index == NULL_STOP_ID) {
+                index = stopIds.size();
+                indexForStopId.put(stopId, index);
+                stopIds.add(stopId);
+            }
+            return index;
+        }
+
+        /** @return the stop ID with the given index, or null for the index of a null stop ID. */
+        public String get (int index) {
+            return index == NULL_STOP_ID ? null : stopIds.get(index);
+        }
+
+        private int hashCodeOf (int index) {
+            // Strings cache their own hash codes.
+            return index == NULL_STOP_ID ? 0 : stopIds.get(index).hashCode();
+        }
+
+        public int size () {
+            return stopIds.size();
+        }
     }
 
 }
@@ -53,13 +53,14 @@ public enum NewGTFSErrorType {
     SERVICE_UNUSED(Priority.MEDIUM, "A service code was defined, but is never referenced by any trips."),
     SERVICE_WITHOUT_DAYS_OF_WEEK(Priority.MEDIUM, "A service defined in calendar.txt should be active on at least one day of the week. Otherwise, it should be omitted from this file."),
     SHAPE_DIST_TRAVELED_NOT_INCREASING(Priority.MEDIUM, "Shape distance traveled must increase with stop times."),
-    SHAPE_MISSING_COORDINATE(Priority.MEDIUM, "???"),
+    SHAPE_MISSING_COORDINATE(Priority.MEDIUM, "A shape point is missing its latitude or longitude."),
     SHAPE_REVERSED(Priority.MEDIUM, "A shape appears to be intended for vehicles running the opposite direction on the route."),
     STOP_DESCRIPTION_SAME_AS_NAME(Priority.LOW, "The description of a stop is identical to its name, so does not add any information."),
     STOP_GEOGRAPHIC_OUTLIER(Priority.MEDIUM, "This stop is located very far from the middle 90% of stops in this feed."),
     STOP_LOW_POPULATION_DENSITY(Priority.MEDIUM, "A stop is located in a geographic area with very low human population density."),
     STOP_NAME_MISSING(Priority.MEDIUM, "A stop does not have a name."),
     STOP_TIME_UNUSED(Priority.LOW, "This stop time allows neither pickup nor drop off and is not a timepoint, so it serves no purpose and should be removed from trip."),
+    STOP_TOO_FAR_FROM_SHAPE(Priority.MEDIUM, "A trip serves a stop that is far from the shape of the trip."),
     STOP_UNUSED(Priority.MEDIUM, "This stop is not referenced by any trips."),
     TABLE_IN_SUBDIRECTORY(Priority.HIGH, "Rather than being at the root of the zip file, a table was nested in a subdirectory."),
     TABLE_MISSING_COLUMN_HEADERS(Priority.HIGH, "Table is missing column headers."),
@@ -1,5 +1,6 @@
 package com.conveyal.gtfs.error;
 
+import com.conveyal.gtfs.model.Entity;
 import com.conveyal.gtfs.storage.StorageException;
 import com.conveyal.gtfs.util.InvalidNamespaceException;
 import org.apache.commons.dbutils.DbUtils;
@@ -11,9 +12,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static com.conveyal.gtfs.loader.JDBCTableReader.SQL_STATE_UNDEFINED_TABLE;
 import static com.conveyal.gtfs.util.Util.ensureValidNamespace;
 
 /**
@@ -21,6 +27,10 @@ import static com.conveyal.gtfs.util.Util.ensureValidNamespace;
  * Currently there's only one implementation, which uses SQL tables.
  * We used to store the errors in plain old Lists, and could make an alternative implementation to do so.
  * We may need to in order to output JSON reports.
+ *
+ * The public methods are synchronized so that a single instance (and its single connection) can be shared by several
+ * validators running on separate threads. The exception is {@link #storeErrorsFromQuery}, which uses a connection
+ * supplied by the caller and only synchronizes while reserving error IDs.
  */
 public class SQLErrorStorage {
 
@@ -59,7 +69,7 @@ public class SQLErrorStorage {
         createPreparedStatements();
     }
 
-    public void storeError (NewGTFSError error) {
+    public synchronized void storeError (NewGTFSError error) {
         try {
             // Insert one row for the error itself
             insertError.setInt(1, errorId);
@@ -88,16 +98,80 @@ public class SQLErrorStorage {
         }
     }
 
-    public void storeErrors (Set<NewGTFSError> errors) {
+    public synchronized void storeErrors (Set<NewGTFSError> errors) {
         for (NewGTFSError error : errors) {
             storeError(error);
         }
     }
 
+    /**
+     * Store one error for every row returned by a query, using a single insert ... select so that the rows never leave
+     * the database. The query is evaluated on the supplied connection rather than the one shared by this storage, so
+     * several validators on separate threads can run their queries at the same time. Only reserving the IDs of the new
+     * errors is synchronized: they are numbered consecutively after those already stored, in the order of the query.
+     * The new errors are committed on the supplied connection before this method returns.
+     * @param connection a connection to the database holding this storage's tables, used only by the calling thread.
+     * @param violationsSql a select statement returning the columns error_number (counting from one), line_number,
+     *                      entity_id, entity_sequence and bad_value, e.g. from SQLValidationRule#getViolationsSql.
+     * @return the number of errors stored, which is zero if one of the tables queried does not exist.
+     */
+    public int storeErrorsFromQuery (
+        Connection connection,
+        NewGTFSErrorType errorType,
+        Class<? extends Entity> entityType,
+        String violationsSql
+    ) {
+        try (Statement statement = connection.createStatement()) {
+            // Hold the violations in a temporary table until IDs have been reserved for them, so the query (which may
+            // scan a whole table) is evaluated only once and without holding the lock.
+            statement.execute(String.format("create temp table violations on commit drop as %s", violationsSql));
+            ResultSet countResult = statement.executeQuery("select count(*) from violations");
+            countResult.next();
+            int violationCount = countResult.getInt(1);
+            if (violationCount == 0) {
+                connection.commit();
+                return 0;
+            }
+            String sql = String.format("insert into %serrors (error_id, error_type, entity_type, line_number, " +
+                "entity_id, entity_sequence, bad_value) select ? + error_number - 1, ?, ?, line_number, entity_id, " +
+                "entity_sequence, bad_value from violations order by error_number", tablePrefix);
+            try (PreparedStatement insertStatement = connection.prepareStatement(sql)) {
+                insertStatement.setInt(1, reserveErrorIds(violationCount));
+                insertStatement.setString(2, errorType.name());
+                insertStatement.setObject(3, entityType == null ? null : entityType.getSimpleName());
+                int storedCount = insertStatement.executeUpdate();
+                connection.commit();
+                return storedCount;
+            }
+        } catch (SQLException ex) {
+            // Optional tables may not exist. The failed statement aborts the transaction, so roll it back.
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackException) {
+                LOG.error("Could not roll back after failing to store {} errors.", errorType, rollbackException);
+            }
+            if (SQL_STATE_UNDEFINED_TABLE.equals(ex.getSQLState())) {
+                LOG.info("Skipping {} check, a table it needs does not exist.", errorType);
+                return 0;
+            }
+            throw new StorageException(ex);
+        }
+    }
+
+    /**
+     * Reserve a range of consecutive error IDs for errors that are inserted without passing through this storage.
+     * @return the first ID in the range.
+     */
+    private synchronized int reserveErrorIds (int count) {
+        int firstId = errorId;
+        errorId += count;
+        return firstId;
+    }
+
     /**
      * Commits any outstanding error inserts and returns the error count via a SQL query.
      */
-    public int getErrorCount () {
+    public synchronized int getErrorCount () {
         try {
             // Ensure any outstanding inserts are committed so that count is accurate.
             this.commit();
@@ -112,10 +186,122 @@ public class SQLErrorStorage {
         }
     }
 
+    /**
+     * Commits any outstanding error inserts and returns the number of errors of the given type via a SQL query.
+     */
+    public synchronized int getErrorCount (NewGTFSErrorType errorType) {
+        try {
+            this.commit();
+            PreparedStatement statement = connection.prepareStatement(
+                String.format("select count(*) from %serrors where error_type = ?", tablePrefix));
+            statement.setString(1, errorType.name());
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1);
+        } catch (SQLException ex) {
+            throw new StorageException(ex);
+        }
+    }
+
+    /**
+     * Delete the stored errors of the given types (along with their error_info), for example before revalidating some
+     * entities. The deletion is committed immediately.
+     * @param entityIds if not null, only delete errors whose entity_id is one of these values.
+     * @return the number of errors deleted.
+     */
+    public synchronized int deleteErrors (Collection<NewGTFSErrorType> errorTypes, Collection<String> entityIds) {
+        return deleteErrors(errorTypes, null, entityIds);
+    }
+
+    /**
+     * Delete the stored errors of the given types (along with their error_info) as {@link #deleteErrors(Collection,
+     * Collection)} does, only deleting those registered on the given entity types if entityTypes is not null. This is
+     * needed when entity IDs are not unique across tables, e.g. a trip and a stop may have the same ID.
+     * @param entityTypes if not null, only delete errors whose entity_type is one of these values.
+     */
+    public synchronized int deleteErrors (
+        Collection<NewGTFSErrorType> errorTypes,
+        Collection<String> entityTypes,
+        Collection<String> entityIds
+    ) {
+        try {
+            this.commit();
+            List<String> conditions = new ArrayList<>();
+            conditions.add("error_type = any(?)");
+            if (entityTypes != null) conditions.add("entity_type = any(?)");
+            if (entityIds != null) conditions.add("entity_id = any(?)");
+            String whereClause = String.join(" and ", conditions);
+            PreparedStatement deleteInfo = connection.prepareStatement(String.format(
+                "delete from %serror_info where error_id in (select error_id from %serrors where %s)",
+                tablePrefix, tablePrefix, whereClause));
+            PreparedStatement deleteErrors = connection.prepareStatement(
+                String.format("delete from %serrors where %s", tablePrefix, whereClause));
+            Object[] errorTypeNames = errorTypes.stream().map(Enum::name).toArray();
+            for (PreparedStatement statement : new PreparedStatement[] {deleteInfo, deleteErrors}) {
+                int parameterIndex = 1;
+                statement.setArray(parameterIndex++, connection.createArrayOf("text", errorTypeNames));
+                if (entityTypes != null) {
+                    statement.setArray(parameterIndex++, connection.createArrayOf("text", entityTypes.toArray()));
+                }
+                if (entityIds != null) {
+                    statement.setArray(parameterIndex, connection.createArrayOf("text", entityIds.toArray()));
+                }
+            }
+            deleteInfo.executeUpdate();
+            int deletedCount = deleteErrors.executeUpdate();
+            connection.commit();
+            LOG.info("Deleted {} errors.", deletedCount);
+            return deletedCount;
+        } catch (SQLException ex) {
+            throw new StorageException(ex);
+        }
+    }
+
+    /**
+     * @return the ID that will be given to the next error stored. Errors stored one after another have consecutive IDs,
+     * so this can be used to find the errors stored by a particular piece of code.
+     */
+    public synchronized int getNextErrorId () {
+        return errorId;
+    }
+
+    /**
+     * Delete the errors whose IDs fall in the given ranges (along with their error_info), e.g. those stored by
+     * validators whose results have to be discarded. Unlike {@link #deleteErrors}, this does not commit, so it can be
+     * used part way through loading a table.
+     * @param firstIds the first error ID in each range.
+     * @param endIds the error ID following the last one in each range.
+     * @return the number of errors deleted.
+     */
+    public synchronized int deleteErrorsInRanges (int[] firstIds, int[] endIds) {
+        try {
+            insertError.executeBatch();
+            insertInfo.executeBatch();
+            String rangeCondition = "error_id in (select generate_series(first_id, end_id - 1) " +
+                "from unnest(?::integer[], ?::integer[]) as ranges (first_id, end_id))";
+            PreparedStatement deleteInfo = connection.prepareStatement(
+                String.format("delete from %serror_info where %s", tablePrefix, rangeCondition));
+            PreparedStatement deleteErrors = connection.prepareStatement(
+                String.format("delete from %serrors where %s", tablePrefix, rangeCondition));
+            Integer[] firstIdObjects = Arrays.stream(firstIds).boxed().toArray(Integer[]::new);
+            Integer[] endIdObjects = Arrays.stream(endIds).boxed().toArray(Integer[]::new);
+            for (PreparedStatement statement : new PreparedStatement[] {deleteInfo, deleteErrors}) {
+                statement.setArray(1, connection.createArrayOf("integer", firstIdObjects));
+                statement.setArray(2, connection.createArrayOf("integer", endIdObjects));
+            }
+            deleteInfo.executeUpdate();
+            int deletedCount = deleteErrors.executeUpdate();
+            LOG.info("Deleted {} errors.", deletedCount);
+            return deletedCount;
+        } catch (SQLException ex) {
+            throw new StorageException(ex);
+        }
+    }
+
     /**
      * This executes any remaining inserts and commits the transaction.
      */
-    private void commit() {
+    private synchronized void commit() {
         try {
             // Execute any remaining batch inserts and commit the transaction.
             insertError.executeBatch();
@@ -130,7 +316,7 @@ public class SQLErrorStorage {
      * This executes any remaining inserts, commits the transaction, and closes the connection permanently.
      * commitAndClose() should only be called when access to SQLErrorStorage is no longer needed.
      */
-    public void commitAndClose() {
+    public synchronized void commitAndClose() {
         LOG.info("Committing errors and closing SQL connection.");
         this.commit();
         // Close the connection permanently (should be called only after errorStorage instance no longer needed).
@@ -9,6 +9,7 @@ import com.conveyal.gtfs.graphql.fetchers.PolylineFetcher;
 import com.conveyal.gtfs.graphql.fetchers.RowCountFetcher;
 import com.conveyal.gtfs.graphql.fetchers.SQLColumnFetcher;
 import com.conveyal.gtfs.graphql.fetchers.SourceObjectFetcher;
+import com.conveyal.gtfs.loader.DateField;
 import graphql.schema.Coercing;
 import graphql.schema.GraphQLList;
 import graphql.schema.GraphQLObjectType;
@@ -599,7 +600,12 @@ public class GraphQLGtfsSchema {
                     // (i.e., nested types that typically would only be nested under another entity and only make sense
                     // with the entire set -- fares -> fare rules, trips -> stop times, patterns -> pattern stops/shapes)
                     .type(new GraphQLList(GraphQLString))
-                    .dataFetcher(new SQLColumnFetcher<String>("service_dates", "service_id", "service_date"))
+                    // Dates are stored with the SQL date type, but are exposed in the GTFS date format (YYYYMMDD).
+                    // Namespaces validated before the column became a date still store them as YYYYMMDD strings.
+                    .dataFetcher(new SQLColumnFetcher<String>("service_dates", "service_id", "service_date",
+                        date -> date instanceof java.sql.Date
+                            ? ((java.sql.Date) date).toLocalDate().format(DateField.GTFS_DATE_FORMATTER)
+                            : date.toString()))
                     .build())
             .field(newFieldDefinition()
                     .name("trips")
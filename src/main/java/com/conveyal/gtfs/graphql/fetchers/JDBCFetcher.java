@@ -293,9 +293,12 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
             String tripsTable = String.format("%s.trips", namespace);
             fromTables.add(tripsTable);
             String date = getDateArgument(graphQLQueryArguments);
-            // Gather all service IDs that run on the provided date.
+            // Gather all service IDs that run on the provided date. The date argument is converted to the SQL date type
+            // of the service_date column, so that the (service_date, service_id) index can be used. Namespaces validated
+            // before the column became a date store YYYYMMDD strings, which the cast to date converts (the cast has no
+            // effect on a date column, so it does not prevent the index from being used).
             fromTables.add(String.format(
-                    "(select distinct service_id from %s.service_dates where service_date = ?) as unique_service_ids_in_operation",
+                    "(select distinct service_id from %s.service_dates where service_date::date = to_date(?, 'YYYYMMDD')) as unique_service_ids_in_operation",
                     namespace)
             );
             // Add date to beginning of parameters list (it is used to pre-select a table in the from clause before any
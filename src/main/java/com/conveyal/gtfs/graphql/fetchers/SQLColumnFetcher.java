@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * This wraps an SQL row fetcher, extracting only a single column of the specified type.
@@ -22,14 +23,29 @@ public class SQLColumnFetcher<T> implements DataFetcher<List<T>> {
 
     private final JDBCFetcher jdbcFetcher;
 
+    /** Converts the value read from the database to the type exposed through GraphQL. */
+    private final Function<Object, T> valueConverter;
+
     /**
      * Constructor for tables that don't need any restriction by a where clause based on the enclosing entity.
      * These would typically be at the topmost level, directly inside a feed rather than nested in some GTFS entity type.
      */
     public SQLColumnFetcher(String tableName, String parentJoinField, String columnName) {
+        this(tableName, parentJoinField, columnName, value -> (T) value);
+    }
+
+    /**
+     * @param valueConverter applied to each non-null column value, e.g. to format a date column as a GTFS date string.
+     */
+    public SQLColumnFetcher(
+        String tableName,
+        String parentJoinField,
+        String columnName,
+        Function<Object, T> valueConverter
+    ) {
         this.columnName = columnName;
         this.jdbcFetcher = new JDBCFetcher(tableName, parentJoinField);
-
+        this.valueConverter = valueConverter;
     }
 
     @Override
@@ -37,7 +53,8 @@ public class SQLColumnFetcher<T> implements DataFetcher<List<T>> {
         List<T> result = new ArrayList<>();
         // Ideally we'd only fetch one column in the wrapped row fetcher.
         for (Map<String, Object> row : jdbcFetcher.get(environment)) {
-            result.add((T)row.get(columnName));
+            Object value = row.get(columnName);
+            result.add(value == null ? null : valueConverter.apply(value));
         }
         return result;
     }
@@ -0,0 +1,67 @@
+package com.conveyal.gtfs.loader;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Records the keys of the trips, patterns, routes, stops and services that have been created, modified or deleted
+ * since a feed was last validated, so that only the affected parts of the feed need to be revalidated (see
+ * {@link Feed#validateChanges(ChangedEntities)}). {@link JdbcTableWriter} fills one of these in as it writes entities.
+ * Deleted entities are recorded too, so that the errors tied to them can be removed.
+ */
+public class ChangedEntities {
+
+    public final Set<String> tripIds = new HashSet<>();
+    public final Set<String> patternIds = new HashSet<>();
+    public final Set<String> routeIds = new HashSet<>();
+    public final Set<String> stopIds = new HashSet<>();
+    public final Set<String> serviceIds = new HashSet<>();
+
+    /**
+     * Record that the entity with the given key value has changed. The kind of entity is determined by the name of the
+     * key field, so this can be called with the key of any table: changes to other kinds of entity are ignored.
+     */
+    public void record (String keyFieldName, String value) {
+        if (value == null) return;
+        switch (keyFieldName) {
+            case "trip_id": tripIds.add(value); break;
+            case "pattern_id": patternIds.add(value); break;
+            // The route type determines the maximum speed of the route's trips.
+            case "route_id": routeIds.add(value); break;
+            case "stop_id": stopIds.add(value); break;
+            case "service_id": serviceIds.add(value); break;
+            default: // Changes to other tables do not affect the validation of individual trips.
+        }
+    }
+
+    /** Add all the changes recorded by another instance (e.g. by another table writer) to this one. */
+    public void addAll (ChangedEntities other) {
+        tripIds.addAll(other.tripIds);
+        patternIds.addAll(other.patternIds);
+        routeIds.addAll(other.routeIds);
+        stopIds.addAll(other.stopIds);
+        serviceIds.addAll(other.serviceIds);
+    }
+
+    public boolean isEmpty () {
+        return tripIds.isEmpty() && patternIds.isEmpty() && routeIds.isEmpty() && stopIds.isEmpty() &&
+            serviceIds.isEmpty();
+    }
+
+    /**
+     * Changes to stops or services feed into checks that span the whole feed (e.g. duplicate or misplaced stops, the
+     * number of days each service is active, overlapping trips in a block), which cannot be recomputed from a subset of
+     * the entities.
+     * @return true if these changes can only be validated by revalidating the whole feed.
+     */
+    public boolean requireFullValidation () {
+        return !stopIds.isEmpty() || !serviceIds.isEmpty();
+    }
+
+    @Override
+    public String toString () {
+        return String.format("%d trips, %d patterns, %d routes, %d stops, %d services",
+            tripIds.size(), patternIds.size(), routeIds.size(), stopIds.size(), serviceIds.size());
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.storage.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collections;
+
+import static com.conveyal.gtfs.loader.JdbcGtfsLoader.POSTGRES_NULL_TEXT;
+import static com.conveyal.gtfs.loader.JdbcGtfsLoader.copyFromFile;
+
+/**
+ * Writes rows into a table that is derived from the feed during validation (e.g. services or service_dates). On
+ * PostgreSQL, rows are written to a temporary text file which is then streamed into the table with a single COPY
+ * command, which is much faster than inserting many rows one by one. Other databases fall back on batched inserts.
+ *
+ * Values may be Strings, Integers, LocalDates (stored in a column of SQL type date) or null. Call {@link #finish()} once
+ * all rows have been written, then {@link #close()} to release the temporary file. Like {@link BatchTracker}, this
+ * does not commit the transaction.
+ */
+public class DerivedTableWriter implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DerivedTableWriter.class);
+
+    private final Connection connection;
+    private final String tableName;
+    private final int nColumns;
+    private final boolean postgresText;
+
+    // Only one of these pairs is used, depending on whether we are writing to PostgreSQL.
+    private File tempTextFile;
+    private PrintStream textFileStream;
+    private BatchTracker batchTracker;
+    private PreparedStatement insertStatement;
+
+    private int rowCount = 0;
+
+    public DerivedTableWriter (Connection connection, String tableName, int nColumns) throws SQLException {
+        this.connection = connection;
+        this.tableName = tableName;
+        this.nColumns = nColumns;
+        postgresText = connection.getMetaData().getDatabaseProductName().equals("PostgreSQL");
+        if (postgresText) {
+            try {
+                tempTextFile = File.createTempFile(tableName, "text");
+                LOG.info("Writing {} via temporary text file at {}", tableName, tempTextFile.getAbsolutePath());
+                textFileStream = new PrintStream(
+                    new BufferedOutputStream(new FileOutputStream(tempTextFile)), false, StandardCharsets.UTF_8.name()
+                );
+            } catch (IOException e) {
+                throw new StorageException(e);
+            }
+        } else {
+            String placeholders = String.join(", ", Collections.nCopies(nColumns, "?"));
+            insertStatement = connection.prepareStatement(
+                String.format("insert into %s values (%s)", tableName, placeholders)
+            );
+            batchTracker = new BatchTracker(tableName, insertStatement);
+        }
+    }
+
+    /** Add one row to the table. The number of values must match the number of columns given to the constructor. */
+    public void writeRow (Object... values) throws SQLException {
+        if (values.length != nColumns) {
+            throw new IllegalArgumentException(
+                String.format("Expected %d values for table %s but got %d.", nColumns, tableName, values.length)
+            );
+        }
+        if (postgresText) {
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) line.append('\t');
+                line.append(toPostgresText(values[i]));
+            }
+            textFileStream.println(line);
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                Object value = values[i];
+                if (value instanceof LocalDate) value = java.sql.Date.valueOf((LocalDate) value);
+                insertStatement.setObject(i + 1, value);
+            }
+            batchTracker.addBatch();
+        }
+        rowCount++;
+    }
+
+    /**
+     * Load any rows that have not yet been sent to the database.
+     * @return the total number of rows written.
+     */
+    public int finish () throws SQLException {
+        if (postgresText) {
+            textFileStream.close();
+            try {
+                copyFromFile(connection, tempTextFile, tableName);
+            } catch (IOException e) {
+                throw new StorageException(e);
+            }
+            LOG.info("Copied {} {} records", rowCount, tableName);
+        } else {
+            batchTracker.executeRemaining();
+        }
+        return rowCount;
+    }
+
+    /** Delete the temporary text file, if any. */
+    @Override
+    public void close () {
+        if (textFileStream != null) textFileStream.close();
+        if (tempTextFile != null) tempTextFile.delete();
+    }
+
+    /**
+     * Convert a value to the PostgreSQL text format, escaping the characters that have special meaning to COPY. Dates
+     * are written in ISO format, which PostgreSQL accepts regardless of its DateStyle setting.
+     */
+    private static String toPostgresText (Object value) {
+        if (value == null) return POSTGRES_NULL_TEXT;
+        String string = value.toString();
+        if (value instanceof String) {
+            string = string.replace("\\", "\\\\")
+                .replace("\t", "\\t")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r");
+        }
+        return string;
+    }
+
+}
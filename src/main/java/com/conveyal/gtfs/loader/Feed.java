@@ -12,8 +12,17 @@ import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.VALIDATOR_FAILED;
 
@@ -24,6 +33,12 @@ public class Feed {
 
     private static final Logger LOG = LoggerFactory.getLogger(Feed.class);
 
+    /**
+     * Upper bound on the number of feed validators run at once in parallel validation mode. Each running validator
+     * holds at least one pooled connection, so the data source must allow at least this many connections.
+     */
+    private static final int MAX_VALIDATOR_THREADS = Runtime.getRuntime().availableProcessors();
+
     private final DataSource dataSource;
 
     // The unique database schema name for this particular feed, including the separator charater (dot).
@@ -40,25 +55,53 @@ public class Feed {
     public final TableReader<Trip>          trips;
     public final TableReader<StopTime>      stopTimes;
 
+    // Shared in-memory copy of the smaller tables, created on demand and released when validation finishes.
+    private FeedCache cache;
+
+    // The validator that received the stop times of each trip while this feed was loaded, if any, which has yet to
+    // complete (see JdbcGtfsLoader#validateTripsWhileLoading).
+    private NewTripTimesValidator tripTimesValidatedDuringLoad;
+
     /**
      * Create a feed that reads tables over a JDBC connection. The connection should already be set to the right
      * schema within the database.
      * @param tablePrefix the unique prefix for the table (may be null for no prefix)
      */
     public Feed (DataSource dataSource, String tablePrefix) {
+        this(dataSource, tablePrefix, JDBCTableReader.DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Create a feed whose table readers each cache up to the given number of entities looked up by ID (see
+     * {@link JDBCTableReader}). Only use a non-zero cache size if the feed's tables will not be changed while it is in
+     * use, or call {@link #clearEntityCaches} after changing them.
+     * @param tablePrefix the unique prefix for the table (may be null for no prefix)
+     * @param entityCacheSize the maximum number of entities cached by each table reader, zero to disable caching
+     */
+    public Feed (DataSource dataSource, String tablePrefix, int entityCacheSize) {
         this.dataSource = dataSource;
         // Ensure separator dot is present
         if (tablePrefix != null && !tablePrefix.endsWith(".")) tablePrefix += ".";
         this.tablePrefix = tablePrefix == null ? "" : tablePrefix;
-        agencies = new JDBCTableReader(Table.AGENCY, dataSource, tablePrefix, EntityPopulator.AGENCY);
-        fareAttributes = new JDBCTableReader(Table.FARE_ATTRIBUTES, dataSource, tablePrefix, EntityPopulator.FARE_ATTRIBUTE);
-        frequencies = new JDBCTableReader(Table.FREQUENCIES, dataSource, tablePrefix, EntityPopulator.FREQUENCY);
-        calendars = new JDBCTableReader(Table.CALENDAR, dataSource, tablePrefix, EntityPopulator.CALENDAR);
-        calendarDates = new JDBCTableReader(Table.CALENDAR_DATES, dataSource, tablePrefix, EntityPopulator.CALENDAR_DATE);
-        routes = new JDBCTableReader(Table.ROUTES, dataSource, tablePrefix, EntityPopulator.ROUTE);
-        stops = new JDBCTableReader(Table.STOPS, dataSource, tablePrefix, EntityPopulator.STOP);
-        trips = new JDBCTableReader(Table.TRIPS, dataSource, tablePrefix, EntityPopulator.TRIP);
-        stopTimes = new JDBCTableReader(Table.STOP_TIMES, dataSource, tablePrefix, EntityPopulator.STOP_TIME);
+        agencies = new JDBCTableReader(Table.AGENCY, dataSource, tablePrefix, EntityPopulator.AGENCY, entityCacheSize);
+        fareAttributes = new JDBCTableReader(
+            Table.FARE_ATTRIBUTES, dataSource, tablePrefix, EntityPopulator.FARE_ATTRIBUTE, entityCacheSize
+        );
+        frequencies = new JDBCTableReader(
+            Table.FREQUENCIES, dataSource, tablePrefix, EntityPopulator.FREQUENCY, entityCacheSize
+        );
+        calendars = new JDBCTableReader(
+            Table.CALENDAR, dataSource, tablePrefix, EntityPopulator.CALENDAR, entityCacheSize
+        );
+        calendarDates = new JDBCTableReader(
+            Table.CALENDAR_DATES, dataSource, tablePrefix, EntityPopulator.CALENDAR_DATE, entityCacheSize
+        );
+        routes = new JDBCTableReader(Table.ROUTES, dataSource, tablePrefix, EntityPopulator.ROUTE, entityCacheSize);
+        stops = new JDBCTableReader(Table.STOPS, dataSource, tablePrefix, EntityPopulator.STOP, entityCacheSize);
+        trips = new JDBCTableReader(Table.TRIPS, dataSource, tablePrefix, EntityPopulator.TRIP, entityCacheSize);
+        stopTimes = new JDBCTableReader(
+            Table.STOP_TIMES, dataSource, tablePrefix, EntityPopulator.STOP_TIME, entityCacheSize
+        );
     }
 
     /**
@@ -67,13 +110,46 @@ public class Feed {
      * which this method will instantiate and run after the standard validation checks have been completed.
      * 
      * TODO check whether validation has already occurred, overwrite results.
-     * TODO allow validation within feed loading process, so the same connection can be used, and we're certain loaded
-     *   data is 100% visible. That would also avoid having to reconnect the error storage to the DB.
+     * The stop times of each trip can also be validated as they are loaded, see
+     * {@link JdbcGtfsLoader#validateTripsWhileLoading}.
      */
     public ValidationResult validate (FeedValidatorCreator... additionalValidators) {
+        return validate(new ValidationOptions(), additionalValidators);
+    }
+
+    /**
+     * Run the standard validation checks (and any additional validators) for this feed with the given options.
+     *
+     * In parallel mode, the validate() phase of the feed validators runs concurrently. The feed validators only read
+     * from the entity tables and do not depend on one another, so each one runs on a bounded thread pool, reading
+     * through its own pooled connections and sharing the (synchronized) error storage. The complete() phase always runs
+     * in order on the calling thread, because some validators write derived tables that others may rely upon. Parallel
+     * mode also validates the trips within {@link NewTripTimesValidator} in batches on a pool of worker threads.
+     *
+     * When cached results are reused (see {@link ValidationResultCache}), the errors and derived tables are copied from
+     * the namespace where they were computed and no validators are run. When they are not, the results of this
+     * validation are cached for later reuse. Results are only cached (and reused) for profiles that rebuild the derived
+     * tables, because cached results include those tables.
+     */
+    public ValidationResult validate (ValidationOptions options, FeedValidatorCreator... additionalValidators) {
+        try {
+            return runValidators(options, additionalValidators);
+        } finally {
+            // Release the cached entities, they are only needed while the validators are running. They may have been
+            // loaded even if no validator runs, e.g. by trips validated while the feed was loaded.
+            releaseCache();
+        }
+    }
+
+    private ValidationResult runValidators (ValidationOptions options, FeedValidatorCreator... additionalValidators) {
+        ValidationProfile profile = options.getProfile();
+        boolean runInParallel = options.isRunInParallel();
+        boolean reuseCachedResults = options.isReuseCachedResults();
         long validationStartTime = System.currentTimeMillis();
+        LOG.info("Validating feed with the {} profile.", profile);
         // Create an empty validation result that will have its fields populated by certain validators.
         ValidationResult validationResult = new ValidationResult();
+        validationResult.profile = profile;
         // Error tables should already be present from the initial load.
         // Reconnect to the existing error tables.
         SQLErrorStorage errorStorage;
@@ -90,34 +166,48 @@ public class Feed {
             new ParentStationValidator(this, errorStorage),
             new FaresValidator(this, errorStorage),
             new FrequencyValidator(this, errorStorage),
-            new TimeZoneValidator(this, errorStorage),
-            new NewTripTimesValidator(this, errorStorage),
-            new NamesValidator(this, errorStorage)
+            new TimeZoneValidator(this, errorStorage)
         );
+        // Stop times are usually by far the largest table, so the fast profile does not read them.
+        if (profile.checkStopTimes) {
+            feedValidators.add(getTripTimesValidator(profile, runInParallel, errorStorage));
+        }
+        feedValidators.add(new NamesValidator(this, errorStorage));
         // Create additional validators specified in this method's args and add to list of feed validators to run.
         for (FeedValidatorCreator creator : additionalValidators) {
             if (creator != null) feedValidators.add(creator.create(this, errorStorage));
         }
+        // Feeds stored in the root schema are not registered in the feeds table, so their results cannot be cached.
+        String namespace = tablePrefix.isEmpty() ? null : tablePrefix.substring(0, tablePrefix.length() - 1);
+        boolean useCache = reuseCachedResults && namespace != null && profile.rebuildDerivedTables;
+        String validatorFingerprint = ValidationResultCache.fingerprint(profile, feedValidators);
+        if (useCache) {
+            ValidationResult cachedResult = copyCachedResult(namespace, validatorFingerprint, errorStorage);
+            if (cachedResult != null) {
+                cachedResult.validationTime = System.currentTimeMillis() - validationStartTime;
+                LOG.info("Reused cached validation results in {} milliseconds.", cachedResult.validationTime);
+                return cachedResult;
+            }
+        }
 
-        for (FeedValidator feedValidator : feedValidators) {
-            String validatorName = feedValidator.getClass().getSimpleName();
-            try {
-                LOG.info("Running {}.", validatorName);
-                int errorCountBefore = errorStorage.getErrorCount();
-                feedValidator.validate();
-                LOG.info("{} found {} errors.", validatorName, errorStorage.getErrorCount() - errorCountBefore);
-            } catch (Exception e) {
-                // store an error if the validator fails
-                // FIXME: should the exception be stored?
-                String badValue = String.join(":", validatorName, e.toString());
-                errorStorage.storeError(NewGTFSError.forFeed(VALIDATOR_FAILED, badValue));
-                LOG.error("{} failed.", validatorName);
-                LOG.error(e.toString());
-                e.printStackTrace();
+        // Entity validators all receive their rows from a single scan of each table.
+        feedValidators = fuseEntityValidators(feedValidators, errorStorage);
+        List<ValidatorMetrics> validatorMetrics = new ArrayList<>();
+        for (FeedValidator feedValidator : feedValidators) validatorMetrics.add(new ValidatorMetrics(feedValidator));
+        if (runInParallel) {
+            runValidatorsInParallel(feedValidators, errorStorage, validatorMetrics);
+        } else {
+            for (int i = 0; i < feedValidators.size(); i++) {
+                runValidator(feedValidators.get(i), errorStorage, validatorMetrics.get(i), true);
             }
         }
         // Signal to all validators that validation is complete and allow them to report on results / status.
-        for (FeedValidator feedValidator : feedValidators) {
+        List<ValidatorMetrics> componentMetrics = new ArrayList<>();
+        for (int i = 0; i < feedValidators.size(); i++) {
+            FeedValidator feedValidator = feedValidators.get(i);
+            ValidatorMetrics metrics = validatorMetrics.get(i);
+            long heapBytesBefore = ValidatorMetrics.resetPeakHeapUsage();
+            long completeStartTime = System.currentTimeMillis();
             try {
                 feedValidator.complete(validationResult);
             } catch (Exception e) {
@@ -125,11 +215,27 @@ public class Feed {
                 errorStorage.storeError(NewGTFSError.forFeed(VALIDATOR_FAILED, badValue));
                 LOG.error("Validator failed completion stage.", e);
             }
+            metrics.completeMillis = System.currentTimeMillis() - completeStartTime;
+            metrics.completePeakHeapDeltaBytes = ValidatorMetrics.getPeakHeapUsage() - heapBytesBefore;
+            metrics.rowsScanned = feedValidator.getRowsScanned();
+            metrics.errorCount = feedValidator.getErrorsRegistered();
+            LOG.info("{} took {} + {} milliseconds, read {} rows and found {} errors.", metrics.validatorName,
+                metrics.validateMillis, metrics.completeMillis, metrics.rowsScanned, metrics.errorCount);
+            for (ValidatorMetrics component : feedValidator.getComponentMetrics()) {
+                LOG.info("  {} took {} + {} milliseconds, read {} rows and found {} errors.", component.validatorName,
+                    component.validateMillis, component.completeMillis, component.rowsScanned, component.errorCount);
+                componentMetrics.add(component);
+            }
         }
+        // The validators run on behalf of others are listed after all the validators run directly.
+        validatorMetrics.addAll(componentMetrics);
+        validationResult.validatorMetrics = validatorMetrics;
         // Total validation errors accounts for errors found during both loading and validation. Otherwise, this value
         // may be confusing if it reads zero but there were a number of data type or referential integrity errors found
         // during feed loading stage.
         int totalValidationErrors = errorStorage.getErrorCount();
+        // Do not cache results that depend on a validator having failed, e.g. due to a transient database problem.
+        boolean validatorsSucceeded = errorStorage.getErrorCount(VALIDATOR_FAILED) == 0;
         LOG.info("Errors found during load stage: {}", errorCountBeforeValidation);
         LOG.info("Errors found by validators: {}", totalValidationErrors - errorCountBeforeValidation);
         errorStorage.commitAndClose();
@@ -141,10 +247,230 @@ public class Feed {
         validationResult.errorCount = totalValidationErrors;
         validationResult.validationTime = totalValidationTime;
 
+        if (useCache && validatorsSucceeded) {
+            ValidationResultCache.store(dataSource, namespace, validatorFingerprint, validationResult);
+        }
         // FIXME: Validation result date and int[] fields need to be set somewhere.
         return validationResult;
     }
 
+    /**
+     * @return the validator that received the stop times of each trip while this feed was loaded, if it ran the same
+     * checks, or otherwise a new validator that will read the stop times back from the database. Any results of
+     * validating trips with other checks while loading are discarded.
+     */
+    private NewTripTimesValidator getTripTimesValidator (
+        ValidationProfile profile,
+        boolean runInParallel,
+        SQLErrorStorage errorStorage
+    ) {
+        NewTripTimesValidator loadedTripsValidator = tripTimesValidatedDuringLoad;
+        // The trip validators can only be completed once.
+        tripTimesValidatedDuringLoad = null;
+        if (loadedTripsValidator != null) {
+            if (loadedTripsValidator.getProfile() == profile) {
+                loadedTripsValidator.resumeAfterLoading(errorStorage);
+                return loadedTripsValidator;
+            }
+            loadedTripsValidator.discardLoadedTrips(errorStorage);
+        }
+        return new NewTripTimesValidator(this, errorStorage, runInParallel, profile);
+    }
+
+    /** Record the validator that received the stop times of each trip while this feed was being loaded. */
+    void setTripTimesValidatedDuringLoad (NewTripTimesValidator tripTimesValidator) {
+        this.tripTimesValidatedDuringLoad = tripTimesValidator;
+    }
+
+    /**
+     * Copy the cached results of validating another copy of this feed, if there are any, closing the error storage if
+     * they are found. If copying fails, the feed is left as it was and can be validated as usual.
+     * @return the cached validation result, or null if the validators must be run.
+     */
+    private ValidationResult copyCachedResult (String namespace, String fingerprint, SQLErrorStorage errorStorage) {
+        ValidationResult cachedResult = null;
+        try {
+            cachedResult = ValidationResultCache.copyCachedResult(dataSource, namespace, fingerprint);
+        } catch (StorageException e) {
+            LOG.warn("Could not reuse cached validation results, validating feed.", e);
+        }
+        if (cachedResult != null) errorStorage.commitAndClose();
+        return cachedResult;
+    }
+
+    /**
+     * Revalidate only the parts of this feed affected by the given changes (typically recorded by a
+     * {@link JdbcTableWriter} as entities are edited), rather than running every validator over the whole feed. The
+     * affected trips are those changed or deleted directly and those on changed patterns or routes (whose route type
+     * determines the maximum speed of their trips). Only the checks concerning individual trips are rerun on them,
+     * replacing the errors previously stored for them. Checks that span the whole feed, and the summary statistics in
+     * {@link ValidationResult}, are only updated by {@link #validate}.
+     *
+     * @return false, having done nothing, if the changes can only be validated by validating the whole feed (see
+     * {@link ChangedEntities#requireFullValidation()}).
+     */
+    public boolean validateChanges (ChangedEntities changes) {
+        if (changes.requireFullValidation()) {
+            LOG.info("Changes to {} require the whole feed to be validated.", changes);
+            return false;
+        }
+        if (changes.isEmpty()) return true;
+        long validationStartTime = System.currentTimeMillis();
+        // The feed no longer matches the file it was loaded from, so its results must not be reused for that file.
+        if (!tablePrefix.isEmpty()) {
+            ValidationResultCache.invalidate(dataSource, tablePrefix.substring(0, tablePrefix.length() - 1));
+        }
+        SQLErrorStorage errorStorage;
+        Set<String> tripIds;
+        try {
+            errorStorage = new SQLErrorStorage(dataSource.getConnection(), tablePrefix, false);
+            tripIds = findTripsToRevalidate(changes);
+        } catch (SQLException | InvalidNamespaceException ex) {
+            throw new StorageException(ex);
+        }
+        FeedValidator tripTimesValidator = new NewTripTimesValidator(this, errorStorage, tripIds);
+        runValidator(tripTimesValidator, errorStorage, new ValidatorMetrics(tripTimesValidator), false);
+        try {
+            tripTimesValidator.complete(new ValidationResult());
+        } catch (Exception e) {
+            String badValue = String.join(":", tripTimesValidator.getClass().getSimpleName(), e.toString());
+            errorStorage.storeError(NewGTFSError.forFeed(VALIDATOR_FAILED, badValue));
+            LOG.error("Validator failed completion stage.", e);
+        }
+        errorStorage.commitAndClose();
+        releaseCache();
+        LOG.info("Revalidated {} trips affected by changes to {} in {} milliseconds.", tripIds.size(), changes,
+            System.currentTimeMillis() - validationStartTime);
+        return true;
+    }
+
+    /**
+     * @return the IDs of the trips that were changed directly, that belong to a changed pattern or route, or that no
+     * longer exist but still have trip-level errors stored (e.g. trips removed along with their pattern or route).
+     * Only errors registered on trips and stop times are considered, as the same error types are registered on other
+     * tables (e.g. CONDITIONALLY_REQUIRED on stops) when the feed is loaded.
+     */
+    private Set<String> findTripsToRevalidate (ChangedEntities changes) throws SQLException {
+        Set<String> tripIds = new HashSet<>(changes.tripIds);
+        String sql = String.format(
+            "select trip_id from %strips where pattern_id = any(?) or route_id = any(?) " +
+            "union select entity_id from %serrors as errors where error_type = any(?) and entity_type = any(?) " +
+            "and entity_id is not null " +
+            "and not exists (select 1 from %strips as trips where trips.trip_id = errors.entity_id)",
+            tablePrefix, tablePrefix, tablePrefix
+        );
+        try (Connection connection = getConnection(); PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setArray(1, connection.createArrayOf("text", changes.patternIds.toArray()));
+            statement.setArray(2, connection.createArrayOf("text", changes.routeIds.toArray()));
+            Object[] errorTypeNames = NewTripTimesValidator.TRIP_LEVEL_ERROR_TYPES.stream().map(Enum::name).toArray();
+            statement.setArray(3, connection.createArrayOf("text", errorTypeNames));
+            Object[] entityTypeNames = NewTripTimesValidator.TRIP_LEVEL_ENTITY_TYPES.toArray();
+            statement.setArray(4, connection.createArrayOf("text", entityTypeNames));
+            LOG.debug("{}", statement);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) tripIds.add(resultSet.getString(1));
+            }
+        }
+        return tripIds;
+    }
+
+    /**
+     * @return the in-memory cache of stops, routes, trips, calendars and agencies shared by all validators. It is
+     * created the first time it is requested and released when {@link #validate} returns.
+     */
+    public synchronized FeedCache getCache () {
+        if (cache == null) cache = new FeedCache(this);
+        return cache;
+    }
+
+    /**
+     * Drop the reference to the in-memory cache so the entities it holds can be garbage collected. It will be
+     * reloaded if requested again.
+     */
+    public synchronized void releaseCache () {
+        cache = null;
+    }
+
+    /**
+     * Replace all the {@link EntityValidator}s in the supplied list with a single {@link EntityScanValidator} that runs
+     * them all, in the position of the first of them. The relative order of the other validators is unchanged.
+     */
+    private List<FeedValidator> fuseEntityValidators (List<FeedValidator> feedValidators, SQLErrorStorage errorStorage) {
+        List<EntityValidator> entityValidators = new ArrayList<>();
+        List<FeedValidator> fusedValidators = new ArrayList<>();
+        for (FeedValidator feedValidator : feedValidators) {
+            if (feedValidator instanceof EntityValidator) {
+                if (entityValidators.isEmpty()) {
+                    fusedValidators.add(new EntityScanValidator(this, errorStorage, entityValidators));
+                }
+                entityValidators.add((EntityValidator) feedValidator);
+            } else {
+                fusedValidators.add(feedValidator);
+            }
+        }
+        return fusedValidators;
+    }
+
+    /**
+     * Run the validate() phase of a single feed validator, storing a VALIDATOR_FAILED error if it throws an exception.
+     * @param metrics     records the time taken by this phase.
+     * @param measureHeap whether to record the peak heap use of this phase, which is only meaningful when no other
+     *                    validators are running at the same time.
+     */
+    private void runValidator (
+        FeedValidator feedValidator,
+        SQLErrorStorage errorStorage,
+        ValidatorMetrics metrics,
+        boolean measureHeap
+    ) {
+        String validatorName = feedValidator.getClass().getSimpleName();
+        long heapBytesBefore = measureHeap ? ValidatorMetrics.resetPeakHeapUsage() : 0;
+        long validateStartTime = System.currentTimeMillis();
+        try {
+            LOG.info("Running {}.", validatorName);
+            feedValidator.validate();
+            LOG.info("{} found {} errors.", validatorName, feedValidator.getErrorsRegistered());
+        } catch (Exception e) {
+            // store an error if the validator fails
+            // FIXME: should the exception be stored?
+            String badValue = String.join(":", validatorName, e.toString());
+            errorStorage.storeError(NewGTFSError.forFeed(VALIDATOR_FAILED, badValue));
+            LOG.error("{} failed.", validatorName);
+            LOG.error(e.toString());
+            e.printStackTrace();
+        }
+        metrics.validateMillis = System.currentTimeMillis() - validateStartTime;
+        if (measureHeap) metrics.validatePeakHeapDeltaBytes = ValidatorMetrics.getPeakHeapUsage() - heapBytesBefore;
+    }
+
+    /**
+     * Run the validate() phase of all the supplied feed validators on a bounded thread pool, and block until they have
+     * all finished. Validator failures are recorded in the error storage by {@link #runValidator}.
+     * @param validatorMetrics the metrics for each validator, in the same order as the validators.
+     */
+    private void runValidatorsInParallel (
+        List<FeedValidator> feedValidators,
+        SQLErrorStorage errorStorage,
+        List<ValidatorMetrics> validatorMetrics
+    ) {
+        int nThreads = Math.max(1, Math.min(feedValidators.size(), MAX_VALIDATOR_THREADS));
+        LOG.info("Running {} validators on {} threads.", feedValidators.size(), nThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < feedValidators.size(); i++) {
+                FeedValidator feedValidator = feedValidators.get(i);
+                ValidatorMetrics metrics = validatorMetrics.get(i);
+                futures.add(executor.submit(() -> runValidator(feedValidator, errorStorage, metrics, false)));
+            }
+            for (Future<?> future : futures) future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     /**
      * @return a JDBC connection to the database underlying this Feed.
      */
@@ -152,4 +478,16 @@ public class Feed {
         return dataSource.getConnection();
     }
 
+    /**
+     * Forget the entities the table readers of this feed have cached when looking them up by ID (see
+     * {@link JDBCTableReader#get}), so that later lookups read the current rows.
+     */
+    public void clearEntityCaches () {
+        for (TableReader<?> reader : Lists.newArrayList(
+            agencies, calendars, calendarDates, fareAttributes, frequencies, routes, stops, trips, stopTimes
+        )) {
+            if (reader instanceof JDBCTableReader) ((JDBCTableReader<?>) reader).clearCache();
+        }
+    }
+
 }
@@ -0,0 +1,238 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.model.Agency;
+import com.conveyal.gtfs.model.Calendar;
+import com.conveyal.gtfs.model.Entity;
+import com.conveyal.gtfs.model.Route;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.Trip;
+import com.conveyal.gtfs.storage.StorageException;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds the comparatively small tables of a feed (stops, routes, trips, calendars and agencies) in memory, so that all
+ * the validators can share one copy rather than each of them reading the same rows back out of the database. Each table
+ * is loaded the first time it is requested. All getters are thread safe and return unmodifiable collections, which
+ * allows validators running in parallel to share a single cache. Once a table is loaded, reading it does not require
+ * taking a lock, so the per-row lookups made by trip validators on many threads do not contend.
+ *
+ * Stops are held in an indexed list, so they can be referred to by a compact int index (see {@link #getStopIndex}).
+ * Lookups by ID follow the same convention as the maps previously built by individual validators: if an ID appears
+ * more than once (a duplicate that was already reported during loading) the last row read wins.
+ *
+ * A cache can also be restricted to some of the feed's trips (e.g. those being revalidated after edits), in which case
+ * it only holds those trips, their routes and the stops they visit, looked up by ID rather than read in full.
+ */
+public class FeedCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FeedCache.class);
+
+    /** Value returned by {@link #getStopIndex} for stop IDs that do not exist in the feed. */
+    public static final int NO_STOP_INDEX = -1;
+
+    private final Feed feed;
+
+    // If not null, only these trips and the stops and routes they refer to are cached.
+    private final Collection<String> tripIds;
+
+    // The lists are volatile and are assigned after their companion maps, so a thread that sees a non-null list will
+    // also see the fully built map.
+    private volatile List<Stop> stops;
+    private TObjectIntMap<String> stopIndexForId;
+    private volatile List<Route> routes;
+    private Map<String, Route> routeById;
+    private volatile List<Trip> trips;
+    private Map<String, Trip> tripById;
+    private List<Calendar> calendars;
+    private List<Agency> agencies;
+
+    // Distances between stops, shared by all threads. Only referenced by this cache, so they are released with it.
+    private volatile HopDistanceCache hopDistances;
+
+    public FeedCache (Feed feed) {
+        this(feed, null);
+    }
+
+    /**
+     * @param tripIds if not null, only these trips, their routes and the stops they visit are cached. Calendars and
+     *                agencies are not restricted.
+     */
+    public FeedCache (Feed feed, Collection<String> tripIds) {
+        this.feed = feed;
+        this.tripIds = tripIds;
+    }
+
+    /** @return all the stops in the feed, in the order they were read from the database. */
+    public List<Stop> getStops () {
+        if (stops == null) loadStops();
+        return stops;
+    }
+
+    private synchronized void loadStops () {
+        if (stops == null) {
+            LOG.info("Caching stops...");
+            List<Stop> stopList = new ArrayList<>();
+            TObjectIntMap<String> indexForId = new TObjectIntHashMap<>(1000, 0.5f, NO_STOP_INDEX);
+            for (Stop stop : tripIds == null ? feed.stops : getByIds(feed.stops, getStopIdsOfTrips())) {
+                indexForId.put(stop.stop_id, stopList.size());
+                stopList.add(stop);
+            }
+            stopIndexForId = indexForId;
+            stops = Collections.unmodifiableList(stopList);
+            LOG.info("Cached {} stops.", stops.size());
+        }
+    }
+
+    /**
+     * @return the position of the stop with the given ID in {@link #getStops()}, or {@link #NO_STOP_INDEX} if there is
+     * no such stop.
+     */
+    public int getStopIndex (String stopId) {
+        getStops();
+        return stopId == null ? NO_STOP_INDEX : stopIndexForId.get(stopId);
+    }
+
+    /** @return the stop with the given ID, or null if there is no such stop. */
+    public Stop getStop (String stopId) {
+        int stopIndex = getStopIndex(stopId);
+        return stopIndex == NO_STOP_INDEX ? null : getStops().get(stopIndex);
+    }
+
+    /**
+     * @return the distances between pairs of stops in {@link #getStops()}, computed as they are requested. The instance
+     * returned is thread safe and shared by all callers.
+     */
+    public HopDistanceCache getHopDistances () {
+        if (hopDistances == null) createHopDistances();
+        return hopDistances;
+    }
+
+    private synchronized void createHopDistances () {
+        if (hopDistances == null) hopDistances = new HopDistanceCache(getStops());
+    }
+
+    /** @return all the routes in the feed, in the order they were read from the database. */
+    public List<Route> getRoutes () {
+        if (routes == null) loadRoutes();
+        return routes;
+    }
+
+    private synchronized void loadRoutes () {
+        if (routes == null) {
+            List<Route> routeList = new ArrayList<>();
+            Map<String, Route> routeMap = new HashMap<>();
+            for (Route route : tripIds == null ? feed.routes : getByIds(feed.routes, getRouteIdsOfTrips())) {
+                routeList.add(route);
+                routeMap.put(route.route_id, route);
+            }
+            routeById = Collections.unmodifiableMap(routeMap);
+            routes = Collections.unmodifiableList(routeList);
+        }
+    }
+
+    public Map<String, Route> getRouteById () {
+        getRoutes();
+        return routeById;
+    }
+
+    /** @return all the trips in the feed, in the order they were read from the database. */
+    public List<Trip> getTrips () {
+        if (trips == null) loadTrips();
+        return trips;
+    }
+
+    private synchronized void loadTrips () {
+        if (trips == null) {
+            LOG.info("Caching trips...");
+            List<Trip> tripList = new ArrayList<>();
+            Map<String, Trip> tripMap = new HashMap<>();
+            for (Trip trip : tripIds == null ? feed.trips : getByIds(feed.trips, tripIds)) {
+                tripList.add(trip);
+                tripMap.put(trip.trip_id, trip);
+            }
+            tripById = Collections.unmodifiableMap(tripMap);
+            trips = Collections.unmodifiableList(tripList);
+            LOG.info("Cached {} trips.", trips.size());
+        }
+    }
+
+    public Map<String, Trip> getTripById () {
+        getTrips();
+        return tripById;
+    }
+
+    public synchronized List<Calendar> getCalendars () {
+        if (calendars == null) {
+            List<Calendar> calendarList = new ArrayList<>();
+            for (Calendar calendar : feed.calendars) calendarList.add(calendar);
+            calendars = Collections.unmodifiableList(calendarList);
+        }
+        return calendars;
+    }
+
+    public synchronized List<Agency> getAgencies () {
+        if (agencies == null) {
+            List<Agency> agencyList = new ArrayList<>();
+            for (Agency agency : feed.agencies) agencyList.add(agency);
+            agencies = Collections.unmodifiableList(agencyList);
+        }
+        return agencies;
+    }
+
+    /** @return the IDs of the routes of the cached trips. */
+    private Set<String> getRouteIdsOfTrips () {
+        Set<String> routeIds = new LinkedHashSet<>();
+        for (Trip trip : getTrips()) if (trip.route_id != null) routeIds.add(trip.route_id);
+        return routeIds;
+    }
+
+    /** @return the IDs of the stops visited by the cached trips, read from their stop times. */
+    private Set<String> getStopIdsOfTrips () {
+        Set<String> stopIds = new LinkedHashSet<>();
+        String sql =
+            String.format("select distinct stop_id from %sstop_times where trip_id = any(?)", feed.tablePrefix);
+        try (
+            Connection connection = feed.getConnection();
+            PreparedStatement statement = connection.prepareStatement(sql)
+        ) {
+            statement.setArray(1, connection.createArrayOf("text", tripIds.toArray()));
+            LOG.debug("{}", statement);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (resultSet.getString(1) != null) stopIds.add(resultSet.getString(1));
+                }
+            }
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+        return stopIds;
+    }
+
+    /** @return the entities of the table with the given IDs, fetched in batches when the table supports it. */
+    private static <T extends Entity> Iterable<T> getByIds (TableReader<T> table, Collection<String> ids) {
+        if (table instanceof JDBCTableReader) return ((JDBCTableReader<T>) table).getMany(ids).values();
+        List<T> entities = new ArrayList<>();
+        for (String id : ids) {
+            T entity = table.get(id);
+            if (entity != null) entities.add(entity);
+        }
+        return entities;
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.model.Stop;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.conveyal.gtfs.util.Util.fastDistance;
+
+/**
+ * Remembers the distance between pairs of stops, identified by their index in the stops held by {@link FeedCache}.
+ * Thousands of trips may follow the same sequence of stops, so validators that measure every hop of every trip would
+ * otherwise compute the same distances over and over. Distances are symmetric, so a hop and its reverse share an entry.
+ *
+ * Instances are thread safe, so the trip validators working on many threads share the single instance held by
+ * {@link FeedCache#getHopDistances()}. Lookups of known distances take no lock.
+ */
+public class HopDistanceCache {
+
+    private final List<Stop> stops;
+    private final Map<Long, Double> distanceForHop = new ConcurrentHashMap<>();
+
+    /**
+     * @param stops the stops referred to by index.
+     */
+    public HopDistanceCache (List<Stop> stops) {
+        this.stops = stops;
+    }
+
+    /** @return the stops referred to by index, to check that a stop index refers to the same table. */
+    public List<Stop> getStops () {
+        return stops;
+    }
+
+    /**
+     * @return the equirectangular approximation to the distance in meters between the two stops (see
+     * {@link com.conveyal.gtfs.util.Util#fastDistance}).
+     */
+    public double getDistanceMeters (int fromStopIndex, int toStopIndex) {
+        int lowerIndex = Math.min(fromStopIndex, toStopIndex);
+        int higherIndex = Math.max(fromStopIndex, toStopIndex);
+        long hop = ((long) lowerIndex << 32) | higherIndex;
+        Double distanceMeters = distanceForHop.get(hop);
+        if (distanceMeters == null) {
+            // Two threads may both compute a missing distance, which is harmless as they get the same result.
+            Stop fromStop = stops.get(lowerIndex);
+            Stop toStop = stops.get(higherIndex);
+            distanceMeters = fastDistance(fromStop.stop_lat, fromStop.stop_lon, toStop.stop_lat, toStop.stop_lon);
+            distanceForHop.put(hop, distanceMeters);
+        }
+        return distanceMeters;
+    }
+
+    /** @return the number of distinct hops whose distance has been computed. */
+    public int size () {
+        return distanceForHop.size();
+    }
+
+}
@@ -11,9 +11,17 @@ import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.lang.reflect.Field;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
@@ -24,6 +32,14 @@ import static java.sql.ResultSet.CLOSE_CURSORS_AT_COMMIT;
  * This wraps a single database table and provides methods to load its rows into Java objects, iterate over the
  * contents of the table, and select individual rows.
  *
+ * Rows can be looked up one at a time with {@link #get} or in batches with {@link #getMany}. By default every lookup
+ * reads the current rows. A reader created with a non-zero cache size instead keeps a bounded cache of the most
+ * recently looked up entities, which is only suitable when the table will not change while the reader is in use:
+ * rows changed in the database after they have been looked up (e.g. by {@link JdbcTableWriter}) will not be seen by
+ * these methods until {@link #clearCache} is called. Cached entities are also shared, every caller looking up the same
+ * ID getting the same instance, so callers must not modify them. Iterating over the table always reads the current
+ * rows.
+ *
  * Created by abyrd on 2017-04-06
  */
 public class JDBCTableReader<T extends Entity> implements TableReader<T> {
@@ -33,6 +49,12 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
     // See https://www.postgresql.org/docs/9.6/static/errcodes-appendix.html
     public static final String SQL_STATE_UNDEFINED_TABLE = "42P01";
 
+    /** The default maximum number of entities kept in the lookup cache of each reader, i.e. no caching. */
+    public static final int DEFAULT_CACHE_SIZE = 0;
+
+    // The number of IDs looked up by each query in getMany. Shorter batches are padded so the statement can be reused.
+    private static final int LOOKUP_BATCH_SIZE = 100;
+
     private final Table specTable;
     private final EntityPopulator<T> entityPopulator;
 
@@ -40,10 +62,39 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
     private final DataSource dataSource;
     private final String qualifiedTableName;
     private final String selectClause;
+    // SQL used to look up entities by ID, built once rather than for every lookup.
+    private final String getSql;
+    private final String getManySql;
+
+    // The most recently looked up entities by ID, in access order. Guarded by this reader's lock.
+    private final LinkedHashMap<String, T> entityCache;
+
     /**
      * @param tablePrefix must not be null, can be empty string, should include any separator character (dot)
      */
     public JDBCTableReader(Table specTable, DataSource dataSource, String tablePrefix, EntityPopulator<T> entityPopulator) {
+        this(specTable, dataSource, tablePrefix, entityPopulator, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param tablePrefix must not be null, can be empty string, should include any separator character (dot)
+     * @param cacheSize   the maximum number of entities looked up by ID to keep in memory, zero to disable caching.
+     *                    Only enable caching if the table will not change while this reader is in use.
+     */
+    public JDBCTableReader(
+        Table specTable,
+        DataSource dataSource,
+        String tablePrefix,
+        EntityPopulator<T> entityPopulator,
+        int cacheSize
+    ) {
+        // Evict the least recently used entity once the cache is full.
+        entityCache = new LinkedHashMap<String, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<String, T> eldest) {
+                return size() > cacheSize;
+            }
+        };
         qualifiedTableName = tablePrefix + specTable.name;
         this.dataSource = dataSource;
         this.entityPopulator = entityPopulator;
@@ -53,6 +104,10 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
         // No entry value defaults to zero, and SQL columns are 1-based.
         columnForName = new TObjectIntHashMap<>();
         selectClause = "select * from " + qualifiedTableName;
+        String keyField = specTable.getKeyFieldName();
+        getSql = String.format("%s where %s = ?", selectClause, keyField);
+        getManySql = String.format("%s where %s in (%s)",
+            selectClause, keyField, String.join(", ", Collections.nCopies(LOOKUP_BATCH_SIZE, "?")));
         // Try-with-resources will automatically close the connection when the try block exits.
         try (Connection connection = dataSource.getConnection()) {
             LOG.info("Connected to {}", qualifiedTableName);
@@ -80,12 +135,107 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
     }
 
     /**
-     * Get a single item from this table by ID.
+     * Get a single item from this table by ID. If there are several items with the ID (e.g. the stop times of a trip)
+     * any one of them is returned. If this reader caches entities, the item may be shared with other callers and must
+     * not be modified.
+     * @return the item, or null if there is no item with the ID.
      */
     @Override
-    public T get (final String id) {
-        // This is slightly less efficient than writing custom code, but code reuse is good.
-        return getUnordered(id).iterator().next();
+    public synchronized T get (final String id) {
+        if (id == null) return null;
+        T entity = entityCache.get(id);
+        if (entity != null) return entity;
+        // Try-with-resources will automatically close the statement and connection when the try block exits.
+        try (
+            Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(getSql)
+        ) {
+            statement.setString(1, id);
+            LOG.debug("{}", statement);
+            try (ResultSet results = statement.executeQuery()) {
+                if (results.next()) entity = populate(results);
+            }
+        } catch (SQLException e) {
+            // Table is just missing, treat it as empty.
+            if (SQL_STATE_UNDEFINED_TABLE.equals(e.getSQLState())) return null;
+            throw new StorageException(e);
+        }
+        if (entity != null) entityCache.put(id, entity);
+        return entity;
+    }
+
+    /**
+     * Get the items from this table with the given IDs, fetching those not in the cache with one query per batch of
+     * IDs rather than one per ID. If there are several items with an ID (e.g. the stop times of a trip) any one of them
+     * is returned. If this reader caches entities, the items may be shared with other callers and must not be modified.
+     * @return the items by ID, in the order of the given IDs. IDs with no item are left out.
+     */
+    public synchronized Map<String, T> getMany (Collection<String> ids) {
+        Map<String, T> entitiesById = new HashMap<>();
+        Set<String> uncachedIdSet = new LinkedHashSet<>();
+        for (String id : ids) {
+            if (id == null || entitiesById.containsKey(id)) continue;
+            T entity = entityCache.get(id);
+            if (entity != null) entitiesById.put(id, entity);
+            else uncachedIdSet.add(id);
+        }
+        List<String> uncachedIds = new ArrayList<>(uncachedIdSet);
+        if (!uncachedIds.isEmpty()) fetchInBatches(uncachedIds, entitiesById);
+        Map<String, T> orderedEntities = new LinkedHashMap<>();
+        for (String id : ids) {
+            T entity = entitiesById.get(id);
+            if (entity != null) orderedEntities.put(id, entity);
+        }
+        return orderedEntities;
+    }
+
+    /**
+     * Fetch the items with the given IDs from the database into the map and the cache, using one connection and one
+     * prepared statement for all the batches of IDs.
+     */
+    private void fetchInBatches (List<String> ids, Map<String, T> entitiesById) {
+        String keyField = specTable.getKeyFieldName();
+        // Try-with-resources will automatically close the statement and connection when the try block exits.
+        try (
+            Connection connection = dataSource.getConnection();
+            PreparedStatement getManyStatement = connection.prepareStatement(getManySql)
+        ) {
+            for (int start = 0; start < ids.size(); start += LOOKUP_BATCH_SIZE) {
+                int end = Math.min(start + LOOKUP_BATCH_SIZE, ids.size());
+                List<String> batch = ids.subList(start, end);
+                for (int i = 0; i < LOOKUP_BATCH_SIZE; i++) {
+                    // Pad the batch by repeating its first ID, which does not change the result.
+                    getManyStatement.setString(i + 1, batch.get(i < batch.size() ? i : 0));
+                }
+                LOG.debug("{}", getManyStatement);
+                try (ResultSet results = getManyStatement.executeQuery()) {
+                    while (results.next()) {
+                        String id = results.getString(keyField);
+                        if (entitiesById.containsKey(id)) continue;
+                        T entity = populate(results);
+                        entitiesById.put(id, entity);
+                        entityCache.put(id, entity);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            if (!SQL_STATE_UNDEFINED_TABLE.equals(e.getSQLState())) throw new StorageException(e);
+            // Table is just missing, treat it as empty.
+        }
+    }
+
+    /** Forget the entities looked up so far, so that later lookups read the current rows of the table. */
+    public synchronized void clearCache () {
+        entityCache.clear();
+    }
+
+    /** Create an entity from the current row of the results. */
+    private T populate (ResultSet results) throws SQLException {
+        T entity = entityPopulator.populate(results, columnForName);
+        // Set the line number on every entity the same way
+        // rather than repeating this statement in each implementation class.
+        entity.id = EntityPopulator.getIntIfPresent(results, "id", columnForName);
+        return entity;
     }
 
     /**
@@ -223,10 +373,7 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
         @Override
         public T next() {
             try {
-                T entity = entityPopulator.populate(results, columnForName);
-                // Set the line number on every entity the same way
-                // rather than repeating this statement in each implementation class.
-                entity.id = EntityPopulator.getIntIfPresent(results, "id", columnForName);
+                T entity = populate(results);
                 hasMoreEntities = results.next();
                 if (!hasMoreEntities) {
                     // No more entities to iterate over. We can close the database connection.
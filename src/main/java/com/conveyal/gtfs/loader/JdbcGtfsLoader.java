@@ -4,6 +4,8 @@ import com.conveyal.gtfs.error.NewGTFSError;
 import com.conveyal.gtfs.error.NewGTFSErrorType;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.storage.StorageException;
+import com.conveyal.gtfs.validator.NewTripTimesValidator;
+import com.conveyal.gtfs.validator.ValidationProfile;
 import com.csvreader.CsvReader;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
@@ -87,11 +89,43 @@ public class JdbcGtfsLoader {
     // Contains references to unique entity IDs during load stage used for referential integrity check.
     private ReferenceTracker referenceTracker = new ReferenceTracker();
 
+    // If not null, the stop times of each trip are validated with this profile as they are loaded.
+    private ValidationProfile tripValidationProfile;
+
+    // The feed being loaded, created on demand.
+    private Feed feed;
+
     public JdbcGtfsLoader(String gtfsFilePath, DataSource dataSource) {
         this.gtfsFilePath = gtfsFilePath;
         this.dataSource = dataSource;
     }
 
+    /**
+     * Validate the stop times of each trip as stop_times.txt is loaded, handing each trip to the trip validators as
+     * soon as its rows have been read, instead of reading the whole table back from the database (ordered by trip) when
+     * the feed is validated. The feed returned by {@link #getFeed()} must then be validated with the same profile to
+     * complete the validation. Errors found in the stop times are stored while the table is loaded, so they are
+     * included in the load result's error counts.
+     *
+     * This only happens when loading into PostgreSQL and when the rows of each trip are contiguous and ordered by
+     * stop_sequence, as in most feeds. Otherwise, any results are discarded and the stop times are read back from the
+     * database when the feed is validated, as usual. Trips are validated in the order they appear in the file rather
+     * than in order of trip ID, so patterns may be numbered differently than when reading the trips back.
+     */
+    public JdbcGtfsLoader validateTripsWhileLoading (ValidationProfile profile) {
+        this.tripValidationProfile = profile;
+        return this;
+    }
+
+    /**
+     * @return the feed loaded by {@link #loadTables()}, which holds on to the results of validating its trips while it
+     * was loaded, if any (see {@link #validateTripsWhileLoading}).
+     */
+    public Feed getFeed () {
+        if (feed == null) feed = new Feed(dataSource, tablePrefix);
+        return feed;
+    }
+
     /**
      * Get SQL string for creating the feed registry table (AKA, the "feeds" table).
      */
@@ -135,6 +169,7 @@ public class JdbcGtfsLoader {
             // retry in a loop.
             // TODO handle the case where we don't want any prefix.
             this.tablePrefix = randomIdString();
+            this.feed = null;
             result.filename = gtfsFilePath;
             result.uniqueIdentifier = tablePrefix;
 
@@ -368,6 +403,19 @@ public class JdbcGtfsLoader {
         // When outputting text, accumulate transformed strings to allow skipping rows when errors are encountered.
         // One extra position in the array for the CSV line number.
         String[] transformedStrings = new String[cleanFields.length + 1];
+        // Validate the stop times of each trip as they are loaded if requested (only from transformed strings).
+        NewTripTimesValidator tripTimesValidator = null;
+        LoadedStopTimesGrouper stopTimesGrouper = null;
+        if (table == Table.STOP_TIMES && postgresText && tripValidationProfile != null) {
+            if (tripValidationProfile.checkStopTimes) {
+                LOG.info("Validating trips as their stop times are loaded.");
+                tripTimesValidator = new NewTripTimesValidator(getFeed(), errorStorage, false, tripValidationProfile);
+                tripTimesValidator.beginValidatingLoadedTrips();
+                stopTimesGrouper = new LoadedStopTimesGrouper(
+                    cleanFields, getFeed().getCache(), tripTimesValidator::validateLoadedTrip
+                );
+            }
+        }
         boolean tableHasConditionalRequirements = table.hasConditionalRequirements();
         // Iterate over each record and prepare the record for storage in the table either through batch insert
         // statements or postgres text copy operation.
@@ -442,6 +490,12 @@ public class JdbcGtfsLoader {
                     referenceTracker.checkConditionallyRequiredFields(lineContext)
                 );
             }
+            if (stopTimesGrouper != null && !addLoadedStopTime(stopTimesGrouper, transformedStrings)) {
+                LOG.info("Stop times are not grouped by trip, they will be validated once they are loaded.");
+                tripTimesValidator.discardLoadedTrips(errorStorage);
+                tripTimesValidator = null;
+                stopTimesGrouper = null;
+            }
             if (postgresText) {
                 // Print a new line in the standard postgres text format:
                 // https://www.postgresql.org/docs/9.1/static/sql-copy.html#AEN64380
@@ -462,6 +516,10 @@ public class JdbcGtfsLoader {
             errorStorage.storeError(NewGTFSError.forTable(table, REQUIRED_TABLE_EMPTY));
         }
         csvReader.close();
+        if (stopTimesGrouper != null && !finishLoadedStopTimes(stopTimesGrouper)) {
+            tripTimesValidator.discardLoadedTrips(errorStorage);
+            tripTimesValidator = null;
+        }
 
         // Finalize loading the table, either by copying the pre-validated text file into the database (for Postgres)
         // or inserting any remaining rows (for all others).
@@ -479,9 +537,35 @@ public class JdbcGtfsLoader {
         LOG.info("Committing transaction...");
         connection.commit();
         LOG.info("Done.");
+        // Only once the table and the errors found in it have been committed can the results be used for validation.
+        if (tripTimesValidator != null) getFeed().setTripTimesValidatedDuringLoad(tripTimesValidator);
         return numberOfRecordsLoaded;
     }
 
+    /**
+     * Hand a row of stop_times to the grouper, which passes complete trips to the trip validators.
+     * @return false if the trips can no longer be validated while loading, because the rows are not grouped by trip or
+     * because a validator failed (in which case it will fail again when the feed is validated, and be reported then).
+     */
+    private boolean addLoadedStopTime (LoadedStopTimesGrouper stopTimesGrouper, String[] transformedStrings) {
+        try {
+            return stopTimesGrouper.addRow(transformedStrings);
+        } catch (Exception e) {
+            LOG.error("Could not validate trips while loading.", e);
+            return false;
+        }
+    }
+
+    /** Hand the last trip to the trip validators, with the same semantics as {@link #addLoadedStopTime}. */
+    private boolean finishLoadedStopTimes (LoadedStopTimesGrouper stopTimesGrouper) {
+        try {
+            return stopTimesGrouper.finish();
+        } catch (Exception e) {
+            LOG.error("Could not validate trips while loading.", e);
+            return false;
+        }
+    }
+
     /**
      * Method that uses the PostgreSQL-specific copy from file command to load csv data into a table on the provided
      * connection. NOTE: This method does not commit the transaction or close the connection.
@@ -102,6 +102,7 @@ public class JdbcGtfsSnapshotter {
             // FIXME: Find some place to store errors encountered on copy for patterns and pattern stops.
             copy(Table.PATTERNS, true);
             copy(Table.PATTERN_STOP, true);
+            addPatternSignatures();
             // see method comments fo why different logic is needed for this table
             result.scheduleExceptions = createScheduleExceptionsTable();
             result.shapes = copy(Table.SHAPES, true);
@@ -129,6 +130,24 @@ public class JdbcGtfsSnapshotter {
         return result;
     }
 
+    /**
+     * Compute the signatures of the copied patterns, which are not spec fields and so are not copied (see
+     * {@link PatternSignatures}). Failing to do so does not prevent editing the snapshot.
+     */
+    private void addPatternSignatures () {
+        try {
+            PatternSignatures.addSignatures(connection, tablePrefix);
+            connection.commit();
+        } catch (SQLException e) {
+            LOG.error("Could not compute pattern signatures.", e);
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackException) {
+                LOG.error("Could not roll back after failing to compute pattern signatures.", rollbackException);
+            }
+        }
+    }
+
     /**
      * This is the main table copy method that wraps a call to Table#createSqlTableFrom and creates indexes for
      * the table.
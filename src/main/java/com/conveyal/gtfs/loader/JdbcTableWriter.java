@@ -29,12 +29,15 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -54,6 +57,10 @@ public class JdbcTableWriter implements TableWriter {
     private static final ObjectMapper mapper = new ObjectMapper();
     private final Connection connection;
     private static final String RECONCILE_STOPS_ERROR_MSG = "Changes to trip pattern stops must be made one at a time if pattern contains at least one trip.";
+    // Keys of the entities written through this writer, so that only the affected parts of the feed need revalidating.
+    private final ChangedEntities changedEntities = new ChangedEntities();
+    // Whether the patterns table is known to have a signature column, which is only looked up once per writer.
+    private boolean patternSignaturesEnsured = false;
 
     public JdbcTableWriter(Table table, DataSource datasource, String namespace) throws InvalidNamespaceException {
         this(table, datasource, namespace, null);
@@ -136,13 +143,20 @@ public class JdbcTableWriter implements TableWriter {
                     String updatedObject = update(nodeId, node.toString(), false);
                     updatedObjects.add(updatedObject);
                 }
-                if (autoCommit) connection.commit();
+                if (autoCommit) commitChanges();
                 return mapper.writeValueAsString(updatedObjects);
             }
             // Cast JsonNode to ObjectNode to allow mutations (e.g., updating the ID field).
             ObjectNode jsonObject = (ObjectNode) jsonNode;
+            String keyField = specTable.getKeyFieldName();
+            if (!isCreating) {
+                // Record the key value before the update, in case the update changes it.
+                changedEntities.record(keyField, getValueForId(id, keyField, tablePrefix, specTable, connection));
+            }
             // Ensure that the key field is unique and that referencing tables are updated if the value is updated.
             ensureReferentialIntegrity(jsonObject, tablePrefix, specTable, id);
+            // A trip is assigned to the pattern with the same stops as its stop times, which may have changed.
+            if (Table.TRIPS.name.equals(specTable.name)) assignPatternBySignature(jsonObject);
             // Parse the fields/values into a Field -> String map (drops ALL fields not explicitly listed in spec table's
             // fields)
             // Note, this must follow referential integrity check because some tables will modify the jsonObject (e.g.,
@@ -151,6 +165,8 @@ public class JdbcTableWriter implements TableWriter {
             PreparedStatement preparedStatement = createPreparedUpdate(id, isCreating, jsonObject, specTable, connection, false);
             // ID from create/update result
             long newId = handleStatementExecution(preparedStatement, isCreating);
+            JsonNode keyValueNode = jsonObject.get(keyField);
+            if (keyValueNode != null && !keyValueNode.isNull()) changedEntities.record(keyField, keyValueNode.asText());
             // At this point, the transaction was successful (but not yet committed). Now we should handle any update
             // logic that applies to child tables. For example, after saving a trip, we need to store its stop times.
             Set<Table> referencingTables = getReferencingTables(specTable);
@@ -236,7 +252,7 @@ public class JdbcTableWriter implements TableWriter {
                 // If nothing failed up to this point, it is safe to assume there were no problems updating/creating the
                 // main entity and any of its children, so we commit the transaction.
                 LOG.info("Committing transaction.");
-                connection.commit();
+                commitChanges();
             }
             // Add new ID to JSON object.
             jsonObject.put("id", newId);
@@ -245,6 +261,8 @@ public class JdbcTableWriter implements TableWriter {
         } catch (Exception e) {
             LOG.error("Error {} {} entity", isCreating ? "creating" : "updating", specTable.name);
             e.printStackTrace();
+            // The transaction will be rolled back, possibly including the addition of the pattern signature column.
+            patternSignaturesEnsured = false;
             throw e;
         } finally {
             if (autoCommit) {
@@ -270,6 +288,7 @@ public class JdbcTableWriter implements TableWriter {
                 EntityPopulator.PATTERN_STOP
             );
             String patternId = getValueForId(id, "pattern_id", tablePrefix, Table.PATTERNS, connection);
+            changedEntities.record("pattern_id", patternId);
             List<PatternStop> patternStopsToNormalize = new ArrayList<>();
             for (PatternStop patternStop : patternStops.getOrdered(patternId)) {
                 // Update stop times for any pattern stop with matching stop sequence (or for all pattern stops if the list
@@ -279,7 +298,7 @@ public class JdbcTableWriter implements TableWriter {
                 }
             }
             int stopTimesUpdated = updateStopTimesForPatternStops(patternStopsToNormalize);
-            connection.commit();
+            commitChanges();
             return stopTimesUpdated;
         } catch (Exception e) {
             e.printStackTrace();
@@ -684,11 +703,157 @@ public class JdbcTableWriter implements TableWriter {
         } else {
             LOG.info("No inserts to execute. Empty array found in JSON for child table {}", childTableName);
         }
+        if (Table.PATTERN_STOP.name.equals(subTable.name)) {
+            // The pattern's stops (or route) may have changed, so its signature must be recomputed.
+            ensurePatternSignatures();
+            PatternSignatures.updateSignatures(connection, tablePrefix + ".", keyValue);
+        }
         // Return key value in the case that it was updated (the only case for this would be if the shape was referenced
         // by multiple patterns).
         return keyValue;
     }
 
+    /**
+     * Add the signature column to the patterns table if it is missing (see {@link PatternSignatures}). The column is
+     * only looked up the first time this is called on this writer.
+     */
+    private void ensurePatternSignatures() throws SQLException {
+        if (patternSignaturesEnsured) return;
+        PatternSignatures.ensureSignatures(connection, tablePrefix + ".");
+        patternSignaturesEnsured = true;
+    }
+
+    /**
+     * Put a trip on the pattern with the same route, stops and pickup and drop-off types as its stop times, found by
+     * its signature (see {@link PatternSignatures}). This is checked every time a trip is written with its stop times,
+     * as edits to the stop times may move the trip to another pattern. If the trip has no pattern_id, or its pattern
+     * has different stops, the trip's pattern_id is set to the matching pattern, which is created from the trip's stop
+     * times if there is none. A trip on a pattern that has no stops yet (e.g. one just created in the editor) is left
+     * on that pattern.
+     */
+    private void assignPatternBySignature(ObjectNode tripJson) throws SQLException {
+        JsonNode stopTimesNode = tripJson.get(Table.STOP_TIMES.name);
+        // Without stop times there are no stops to match a pattern on.
+        if (stopTimesNode == null || !stopTimesNode.isArray() || stopTimesNode.size() == 0) return;
+        List<JsonNode> stopTimes = new ArrayList<>();
+        boolean allSequenced = true;
+        for (JsonNode stopTime : stopTimesNode) {
+            stopTimes.add(stopTime);
+            if (!stopTime.hasNonNull("stop_sequence")) allSequenced = false;
+        }
+        // Stop times are ordered by stop_sequence if they all have one, otherwise they are taken in the order supplied.
+        if (allSequenced) stopTimes.sort(Comparator.comparingInt(stopTime -> stopTime.get("stop_sequence").asInt()));
+        List<String> stopIds = new ArrayList<>(stopTimes.size());
+        int[] pickupTypes = new int[stopTimes.size()];
+        int[] dropOffTypes = new int[stopTimes.size()];
+        for (int i = 0; i < stopTimes.size(); i++) {
+            JsonNode stopTime = stopTimes.get(i);
+            stopIds.add(stopTime.hasNonNull("stop_id") ? stopTime.get("stop_id").asText() : null);
+            // Missing pickup and drop-off types are regular (0), as when finding patterns.
+            pickupTypes[i] = stopTime.hasNonNull("pickup_type") ? stopTime.get("pickup_type").asInt() : 0;
+            dropOffTypes[i] = stopTime.hasNonNull("drop_off_type") ? stopTime.get("drop_off_type").asInt() : 0;
+        }
+        String routeId = tripJson.hasNonNull("route_id") ? tripJson.get("route_id").asText() : null;
+        String signature = PatternSignatures.signature(routeId, stopIds, pickupTypes, dropOffTypes);
+        ensurePatternSignatures();
+        String currentPatternId = tripJson.hasNonNull("pattern_id") ? tripJson.get("pattern_id").asText() : null;
+        if (currentPatternId != null) {
+            String currentSignature =
+                PatternSignatures.findSignatureWithStops(connection, tablePrefix + ".", currentPatternId);
+            if (currentSignature == null || currentSignature.equals(signature)) return;
+            LOG.info("The stops of trip {} no longer match pattern {}.", tripJson.get("trip_id"), currentPatternId);
+        }
+        String patternId = PatternSignatures.findPatternId(connection, tablePrefix + ".", signature);
+        if (patternId == null) {
+            patternId = createPatternForTrip(tripJson, stopTimes, signature);
+            LOG.info("Created pattern {} for the stops of trip {}.", patternId, tripJson.get("trip_id"));
+        } else {
+            LOG.info("Assigning trip {} to pattern {} with the same stops.", tripJson.get("trip_id"), patternId);
+        }
+        tripJson.put("pattern_id", patternId);
+        changedEntities.record("pattern_id", patternId);
+    }
+
+    /**
+     * Create a pattern with the stops of a trip that matches no existing pattern, taking its default travel and dwell
+     * times and the other pattern stop fields from the trip's stop times.
+     * @param stopTimes the trip's stop times, in order.
+     * @param signature the signature of the trip's route and stops.
+     * @return the ID of the new pattern.
+     */
+    private String createPatternForTrip(ObjectNode tripJson, List<JsonNode> stopTimes, String signature)
+        throws SQLException {
+        String patternId = UUID.randomUUID().toString();
+        String firstStopId = stopTimes.get(0).path("stop_id").asText(null);
+        String lastStopId = stopTimes.get(stopTimes.size() - 1).path("stop_id").asText(null);
+        Map<String, String> stopNames = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+            String.format("select stop_id, stop_name from %s.stops where stop_id in (?, ?)", tablePrefix)
+        )) {
+            statement.setString(1, firstStopId);
+            statement.setString(2, lastStopId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) stopNames.put(resultSet.getString(1), resultSet.getString(2));
+            }
+        }
+        // Named as the pattern finder names patterns it cannot otherwise tell apart.
+        String name = String.format(Locale.US, "%d stops from %s to %s like trip %s", stopTimes.size(),
+            stopNames.getOrDefault(firstStopId, firstStopId), stopNames.getOrDefault(lastStopId, lastStopId),
+            tripJson.path("trip_id").asText(null));
+        JsonNode frequencies = tripJson.get(Table.FREQUENCIES.name);
+        boolean usesFrequencies = frequencies != null && frequencies.isArray() && frequencies.size() > 0;
+        try (PreparedStatement statement = connection.prepareStatement(String.format(
+            "insert into %s.patterns (pattern_id, route_id, name, direction_id, use_frequency, shape_id, %s) " +
+                "values (?, ?, ?, ?, ?, ?, ?)",
+            tablePrefix, PatternSignatures.COLUMN_NAME
+        ))) {
+            statement.setString(1, patternId);
+            statement.setString(2, tripJson.path("route_id").asText(null));
+            statement.setString(3, name);
+            statement.setObject(4, intOrNull(tripJson, "direction_id"), Types.SMALLINT);
+            statement.setInt(5, usesFrequencies ? 1 : 0);
+            statement.setString(6, tripJson.path("shape_id").asText(null));
+            statement.setString(7, signature);
+            statement.executeUpdate();
+        }
+        try (PreparedStatement statement = connection.prepareStatement(String.format(
+            "insert into %s.pattern_stops (pattern_id, stop_sequence, stop_id, default_travel_time, " +
+                "default_dwell_time, drop_off_type, pickup_type, shape_dist_traveled, timepoint, continuous_pickup, " +
+                "continuous_drop_off) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+            tablePrefix
+        ))) {
+            Integer previousDeparture = null;
+            for (int i = 0; i < stopTimes.size(); i++) {
+                JsonNode stopTime = stopTimes.get(i);
+                Integer arrival = intOrNull(stopTime, "arrival_time");
+                Integer departure = intOrNull(stopTime, "departure_time");
+                // Pattern stop sequences are zero-based and consecutive, as required when writing pattern stops.
+                statement.setString(1, patternId);
+                statement.setInt(2, i);
+                statement.setString(3, stopTime.path("stop_id").asText(null));
+                statement.setInt(4, arrival != null && previousDeparture != null ? arrival - previousDeparture : 0);
+                statement.setInt(5, arrival != null && departure != null ? departure - arrival : 0);
+                statement.setObject(6, intOrNull(stopTime, "drop_off_type"), Types.INTEGER);
+                statement.setObject(7, intOrNull(stopTime, "pickup_type"), Types.INTEGER);
+                statement.setObject(8, stopTime.hasNonNull("shape_dist_traveled")
+                    ? stopTime.get("shape_dist_traveled").asDouble() : null, Types.DOUBLE);
+                statement.setObject(9, intOrNull(stopTime, "timepoint"), Types.SMALLINT);
+                statement.setObject(10, intOrNull(stopTime, "continuous_pickup"), Types.SMALLINT);
+                statement.setObject(11, intOrNull(stopTime, "continuous_drop_off"), Types.SMALLINT);
+                statement.addBatch();
+                if (departure != null) previousDeparture = departure;
+                else if (arrival != null) previousDeparture = arrival;
+            }
+            statement.executeBatch();
+        }
+        return patternId;
+    }
+
+    /** @return the value of the given field of a JSON object as an integer, or null if it is missing or null. */
+    private static Integer intOrNull(JsonNode node, String fieldName) {
+        return node.hasNonNull(fieldName) ? node.get(fieldName).asInt() : null;
+    }
+
     /**
      * Delete existing sub-entities for given key value for when an update to the parent entity is made (i.e., the parent
      * entity is not being newly created). Examples of sub-entities include stop times for trips, pattern stops for a
@@ -1194,7 +1359,7 @@ public class JdbcTableWriter implements TableWriter {
                 }
                 results.add(result);
             }
-            if (autoCommit) connection.commit();
+            if (autoCommit) commitChanges();
             LOG.info("Deleted {} {} entities", results.size(), specTable.name);
             return results.size();
         } catch (Exception e) {
@@ -1220,6 +1385,8 @@ public class JdbcTableWriter implements TableWriter {
             // Handle "cascading" delete or constraints on deleting entities that other entities depend on
             // (e.g., keep a calendar from being deleted if trips reference it).
             // FIXME: actually add "cascading"? Currently, it just deletes one level down.
+            String keyField = specTable.getKeyFieldName();
+            changedEntities.record(keyField, getValueForId(id, keyField, tablePrefix, specTable, connection));
             deleteFromReferencingTables(tablePrefix, specTable, id);
             // Next, delete the actual record specified by id.
             PreparedStatement statement = connection.prepareStatement(specTable.generateDeleteSql(tablePrefix));
@@ -1231,7 +1398,7 @@ public class JdbcTableWriter implements TableWriter {
                 LOG.error("Could not delete {} entity with id: {}", specTable.name, id);
                 throw new SQLException("Could not delete entity");
             }
-            if (autoCommit) connection.commit();
+            if (autoCommit) commitChanges();
             // FIXME: change return message based on result value
             return result;
         } catch (Exception e) {
@@ -1246,13 +1413,31 @@ public class JdbcTableWriter implements TableWriter {
         }
     }
 
+    /**
+     * @return the keys of the trips, patterns, stops and services created, updated or deleted through this writer, which
+     * can be passed to {@link Feed#validateChanges(ChangedEntities)}. Changes are recorded as they are written, so they
+     * may include changes that were later rolled back (which at worst causes some unchanged entities to be revalidated).
+     */
+    public ChangedEntities getChangedEntities() {
+        return changedEntities;
+    }
+
     @Override
     public void commit() throws SQLException {
         // FIXME: should this take a connection and commit it?
-        connection.commit();
+        commitChanges();
         connection.close();
     }
 
+    /**
+     * Commit the changes written so far, along with the removal of any cached validation results for this namespace,
+     * which no longer describe the edited feed (see {@link ValidationResultCache}).
+     */
+    private void commitChanges() throws SQLException {
+        ValidationResultCache.invalidate(connection, tablePrefix);
+        connection.commit();
+    }
+
     /**
      * Ensure that database connection closes. This should be called once the table writer is no longer needed.
      */
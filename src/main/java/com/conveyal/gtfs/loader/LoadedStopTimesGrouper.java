@@ -0,0 +1,150 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.model.Entity;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static com.conveyal.gtfs.loader.JdbcGtfsLoader.POSTGRES_NULL_TEXT;
+
+/**
+ * Groups the rows of stop_times.txt into trips as {@link JdbcGtfsLoader} loads them, filling a reusable
+ * {@link TripStopTimes} in the same way as {@link TripStopTimesCursor} and handing each trip to a handler as soon as
+ * its last row has been read. This only works if the rows of each trip are contiguous and in increasing order of
+ * stop_sequence, which is the case in most feeds. As soon as a row shows that they are not, the grouper stops handing
+ * over trips and {@link #addRow} returns false, so the caller can fall back on reading the table back from the
+ * database once it is loaded.
+ *
+ * Rows are supplied in the Postgres text form produced by the loader: values already validated and converted (e.g.
+ * times to seconds since midnight), with {@link JdbcGtfsLoader#POSTGRES_NULL_TEXT} for missing values and the CSV line
+ * number in the first position.
+ */
+class LoadedStopTimesGrouper {
+
+    private final FeedCache feedCache;
+    private final Consumer<TripStopTimes> tripHandler;
+    private final TripStopTimes tripStopTimes;
+
+    // The IDs of the trips that have already been handed over, which must not appear again.
+    private final Set<String> completedTripIds = new HashSet<>();
+    private boolean grouped = true;
+
+    // Positions of the columns in the rows, -1 if the column is not present in the file.
+    private int tripIdColumn = -1;
+    private int stopIdColumn = -1;
+    private int stopSequenceColumn = -1;
+    private int arrivalTimeColumn = -1;
+    private int departureTimeColumn = -1;
+    private int pickupTypeColumn = -1;
+    private int dropOffTypeColumn = -1;
+    private int continuousPickupColumn = -1;
+    private int continuousDropOffColumn = -1;
+    private int timepointColumn = -1;
+    private int shapeDistTraveledColumn = -1;
+
+    /**
+     * @param fields      the fields of the table being loaded, in the order of the values in each row (after the line
+     *                    number).
+     * @param feedCache   used to resolve stop IDs to indexes into the cached stops table.
+     * @param tripHandler receives the stop times of each trip. The same TripStopTimes instance is refilled for every
+     *                    trip, so the handler must copy it if it needs to keep it beyond the call.
+     */
+    LoadedStopTimesGrouper (Field[] fields, FeedCache feedCache, Consumer<TripStopTimes> tripHandler) {
+        this.feedCache = feedCache;
+        this.tripHandler = tripHandler;
+        this.tripStopTimes = new TripStopTimes(feedCache.getStops());
+        for (int f = 0; f < fields.length; f++) {
+            // The first value in each row is the line number.
+            setColumnIndex(fields[f].name, f + 1);
+        }
+    }
+
+    private void setColumnIndex (String columnName, int columnIndex) {
+        switch (columnName) {
+            case "trip_id": tripIdColumn = columnIndex; break;
+            case "stop_id": stopIdColumn = columnIndex; break;
+            case "stop_sequence": stopSequenceColumn = columnIndex; break;
+            case "arrival_time": arrivalTimeColumn = columnIndex; break;
+            case "departure_time": departureTimeColumn = columnIndex; break;
+            case "pickup_type": pickupTypeColumn = columnIndex; break;
+            case "drop_off_type": dropOffTypeColumn = columnIndex; break;
+            case "continuous_pickup": continuousPickupColumn = columnIndex; break;
+            case "continuous_drop_off": continuousDropOffColumn = columnIndex; break;
+            case "timepoint": timepointColumn = columnIndex; break;
+            case "shape_dist_traveled": shapeDistTraveledColumn = columnIndex; break;
+            default: // Other columns are not needed by the trip validators.
+        }
+    }
+
+    /**
+     * Add the next row of the table, handing over the previous trip if this row begins a new one. Rows with no trip_id
+     * are skipped, as they are by {@link TripStopTimesCursor}.
+     * @return false if the rows are not grouped by trip and ordered by stop_sequence, in which case no more trips will
+     * be handed over.
+     */
+    boolean addRow (String[] row) {
+        if (!grouped) return false;
+        String tripId = getString(row, tripIdColumn);
+        if (tripId == null) return true;
+        int stopSequence = getInt(row, stopSequenceColumn);
+        if (!tripId.equals(tripStopTimes.tripId)) {
+            if (tripStopTimes.tripId != null) handOver();
+            if (!completedTripIds.add(tripId)) {
+                // The rows of this trip are not contiguous.
+                grouped = false;
+                return false;
+            }
+            tripStopTimes.reset(tripId);
+        } else if (stopSequence <= tripStopTimes.stopSequences[tripStopTimes.size - 1]) {
+            grouped = false;
+            return false;
+        }
+        int i = tripStopTimes.addRow();
+        tripStopTimes.lineNumbers[i] = getInt(row, 0);
+        tripStopTimes.stopSequences[i] = stopSequence;
+        int stopIndex = feedCache.getStopIndex(getString(row, stopIdColumn));
+        tripStopTimes.stopIndexes[i] = stopIndex == FeedCache.NO_STOP_INDEX ? TripStopTimes.MISSING_STOP : stopIndex;
+        tripStopTimes.arrivalTimes[i] = getInt(row, arrivalTimeColumn);
+        tripStopTimes.departureTimes[i] = getInt(row, departureTimeColumn);
+        tripStopTimes.pickupTypes[i] = getInt(row, pickupTypeColumn);
+        tripStopTimes.dropOffTypes[i] = getInt(row, dropOffTypeColumn);
+        tripStopTimes.continuousPickups[i] = getInt(row, continuousPickupColumn);
+        tripStopTimes.continuousDropOffs[i] = getInt(row, continuousDropOffColumn);
+        tripStopTimes.timepoints[i] = getInt(row, timepointColumn);
+        tripStopTimes.shapeDistTraveled[i] = getDouble(row, shapeDistTraveledColumn);
+        return true;
+    }
+
+    /**
+     * Hand over the last trip, once all the rows have been added.
+     * @return false if the rows were not grouped by trip, in which case the last trip is not handed over.
+     */
+    boolean finish () {
+        if (grouped && tripStopTimes.tripId != null) handOver();
+        return grouped;
+    }
+
+    private void handOver () {
+        tripHandler.accept(tripStopTimes);
+        tripStopTimes.reset(null);
+    }
+
+    private static String getString (String[] row, int column) {
+        if (column < 0 || POSTGRES_NULL_TEXT.equals(row[column])) return null;
+        return row[column];
+    }
+
+    /** Same semantics as EntityPopulator.getIntIfPresent, for values converted by the loader. */
+    private static int getInt (String[] row, int column) {
+        String value = getString(row, column);
+        return value == null ? Entity.INT_MISSING : Integer.parseInt(value);
+    }
+
+    /** Same semantics as EntityPopulator.getDoubleIfPresent, for values converted by the loader. */
+    private static double getDouble (String[] row, int column) {
+        String value = getString(row, column);
+        return value == null ? Entity.DOUBLE_MISSING : Double.parseDouble(value);
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.storage.StorageException;
+import com.google.common.io.BaseEncoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Maintains the pattern_signature column of the patterns table: a hash of the route, the ordered stops and the pickup
+ * and drop-off type at each stop, i.e. the same fields that make two trips fall on the same pattern (see
+ * {@link com.conveyal.gtfs.TripPatternKey}). The column is indexed, so the pattern a new or edited trip belongs to can be
+ * found with a single lookup rather than by finding the patterns of the whole feed again.
+ *
+ * The signature is the MD5 of a canonical text form of those fields, which can be computed both in Java (from a trip)
+ * and by PostgreSQL (from the pattern_stops table), so that signatures of existing patterns can be rebuilt at any time
+ * with a single update. The column is not one of the {@link Table#PATTERNS} spec fields, as clients editing patterns
+ * do not supply it; it is kept up to date by {@link JdbcTableWriter} whenever pattern stops are written.
+ */
+public class PatternSignatures {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PatternSignatures.class);
+
+    public static final String COLUMN_NAME = "pattern_signature";
+
+    // The canonical text form: route ID, then one line per stop with the stop ID, pickup type and drop-off type
+    // separated by tabs. Missing pickup and drop-off types are treated as 0 (regular), as in TripPatternKey.
+    private static final String STOPS_SQL = "string_agg(coalesce(stop_id, '') || chr(9) || coalesce(pickup_type, 0) " +
+        "|| chr(9) || coalesce(drop_off_type, 0), chr(10) order by stop_sequence)";
+
+    /**
+     * @param routeId      the route of the trip or pattern.
+     * @param stopIds      the IDs of the stops, in order.
+     * @param pickupTypes  the pickup type at each stop, with missing values already resolved to 0.
+     * @param dropOffTypes the drop-off type at each stop, with missing values already resolved to 0.
+     * @return the signature of a pattern with the given route and stops.
+     */
+    public static String signature (String routeId, List<String> stopIds, int[] pickupTypes, int[] dropOffTypes) {
+        StringBuilder text = new StringBuilder(routeId == null ? "" : routeId).append('\n');
+        for (int i = 0; i < stopIds.size(); i++) {
+            if (i > 0) text.append('\n');
+            String stopId = stopIds.get(i);
+            text.append(stopId == null ? "" : stopId).append('\t').append(pickupTypes[i]).append('\t')
+                .append(dropOffTypes[i]);
+        }
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            byte[] digest = md5.digest(text.toString().getBytes(StandardCharsets.UTF_8));
+            // Lower case hex, as produced by the PostgreSQL md5 function.
+            return BaseEncoding.base16().lowerCase().encode(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * Add the signature column to the patterns table of the given namespace if it is not already there, computing the
+     * signatures of all its patterns and indexing it. This covers patterns found before the column existed. This looks
+     * up the column in the information schema, so callers making many lookups should only call it once.
+     * @param tablePrefix the namespace, including the separator dot.
+     */
+    public static void ensureSignatures (Connection connection, String tablePrefix) throws SQLException {
+        // Tables without a prefix are in the default schema.
+        String namespace = tablePrefix.isEmpty() ? "public" : tablePrefix.replace(".", "");
+        PreparedStatement columnStatement = connection.prepareStatement(
+            "select 1 from information_schema.columns where table_schema = ? and table_name = 'patterns' " +
+                "and column_name = ?"
+        );
+        columnStatement.setString(1, namespace);
+        columnStatement.setString(2, COLUMN_NAME);
+        boolean columnExists;
+        try (ResultSet resultSet = columnStatement.executeQuery()) {
+            columnExists = resultSet.next();
+        }
+        if (!columnExists) addSignatures(connection, tablePrefix);
+    }
+
+    /**
+     * Add the signature column to the patterns table, compute the signatures of all the patterns from their pattern
+     * stops and index the column.
+     * @param tablePrefix the namespace, including the separator dot.
+     */
+    public static void addSignatures (Connection connection, String tablePrefix) throws SQLException {
+        LOG.info("Computing pattern signatures.");
+        Statement statement = connection.createStatement();
+        statement.execute(String.format("alter table %spatterns add column if not exists %s varchar",
+            tablePrefix, COLUMN_NAME));
+        updateSignatures(connection, tablePrefix, null);
+        statement.execute(String.format("create index if not exists patterns_%s_idx on %spatterns (%s)",
+            COLUMN_NAME, tablePrefix, COLUMN_NAME));
+    }
+
+    /**
+     * Recompute the signature of one pattern from its route and pattern stops, or of all patterns if patternId is
+     * null. The column must already exist.
+     * @param tablePrefix the namespace, including the separator dot.
+     */
+    public static void updateSignatures (Connection connection, String tablePrefix, String patternId)
+        throws SQLException {
+        String patternClause = patternId == null ? "" : " where pattern_id = ?";
+        // Patterns without any stops only have the route in their signature.
+        PreparedStatement routeOnlyStatement = connection.prepareStatement(String.format(
+            "update %spatterns set %s = md5(coalesce(route_id, '') || chr(10))%s",
+            tablePrefix, COLUMN_NAME, patternClause
+        ));
+        PreparedStatement stopsStatement = connection.prepareStatement(String.format(
+            "update %spatterns as p set %s = md5(coalesce(p.route_id, '') || chr(10) || s.stops) " +
+                "from (select pattern_id, %s as stops from %spattern_stops%s group by pattern_id) as s " +
+                "where p.pattern_id = s.pattern_id",
+            tablePrefix, COLUMN_NAME, STOPS_SQL, tablePrefix, patternClause
+        ));
+        if (patternId != null) {
+            routeOnlyStatement.setString(1, patternId);
+            stopsStatement.setString(1, patternId);
+        }
+        routeOnlyStatement.executeUpdate();
+        int updated = stopsStatement.executeUpdate();
+        LOG.info("Updated the signatures of {} patterns.", updated);
+    }
+
+    /**
+     * The signature column must already exist (see {@link #ensureSignatures(Connection, String)}).
+     * @param tablePrefix the namespace, including the separator dot.
+     * @return the ID of a pattern with the given signature (the oldest if there are several), or null if there is none.
+     */
+    public static String findPatternId (Connection connection, String tablePrefix, String signature)
+        throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(String.format(
+            "select pattern_id from %spatterns where %s = ? order by id limit 1", tablePrefix, COLUMN_NAME
+        ))) {
+            statement.setString(1, signature);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    /**
+     * The signature column must already exist (see {@link #ensureSignatures(Connection, String)}).
+     * @param tablePrefix the namespace, including the separator dot.
+     * @return the signature of the pattern with the given ID, or null if there is no such pattern or it does not have
+     * any pattern stops yet (e.g. it has just been created in the editor).
+     */
+    public static String findSignatureWithStops (Connection connection, String tablePrefix, String patternId)
+        throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(String.format(
+            "select %s from %spatterns as p where pattern_id = ? " +
+                "and exists (select 1 from %spattern_stops as s where s.pattern_id = p.pattern_id)",
+            COLUMN_NAME, tablePrefix, tablePrefix
+        ))) {
+            statement.setString(1, patternId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,268 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.error.NewGTFSError;
+import com.conveyal.gtfs.error.NewGTFSErrorType;
+import com.conveyal.gtfs.model.Entity;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A columnar representation of all the stop_times of a single trip, in order of increasing stop_sequence. Each column
+ * is a primitive array indexed by the position of the stop time within the trip, and only the first {@link #size}
+ * elements of each array are meaningful. The arrays are reused from one trip to the next by {@link TripStopTimesCursor},
+ * so consumers must not hold on to them (or to this object) after they finish with a trip; call {@link #copy()} to
+ * obtain an independent instance.
+ *
+ * Rather than holding Stop objects, each stop time refers to its stop by index into a table of stops (normally the stops
+ * held by {@link FeedCache}). Missing values use the same sentinels as the model classes ({@link Entity#INT_MISSING},
+ * {@link Entity#DOUBLE_MISSING}).
+ */
+public class TripStopTimes {
+
+    /** Value of {@link #stopIndexes} for stop times that reference a stop missing from the stop table. */
+    public static final int MISSING_STOP = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    public String tripId;
+    public int size;
+
+    /** The row ID in the stop_times table, which for loaded feeds is the line number in the GTFS CSV file. */
+    public int[] lineNumbers;
+    public int[] stopSequences;
+    public int[] stopIndexes;
+    public int[] arrivalTimes;
+    public int[] departureTimes;
+    public int[] pickupTypes;
+    public int[] dropOffTypes;
+    public int[] continuousPickups;
+    public int[] continuousDropOffs;
+    public int[] timepoints;
+    public double[] shapeDistTraveled;
+
+    private final List<Stop> stopTable;
+
+    // Object representations of this trip, built only if a consumer asks for them.
+    private List<StopTime> stopTimeObjects;
+    private List<Stop> stopObjects;
+
+    /**
+     * @param stopTable the stops referred to by {@link #stopIndexes}.
+     */
+    public TripStopTimes (List<Stop> stopTable) {
+        this(stopTable, INITIAL_CAPACITY);
+    }
+
+    private TripStopTimes (List<Stop> stopTable, int capacity) {
+        this.stopTable = stopTable;
+        lineNumbers = new int[capacity];
+        stopSequences = new int[capacity];
+        stopIndexes = new int[capacity];
+        arrivalTimes = new int[capacity];
+        departureTimes = new int[capacity];
+        pickupTypes = new int[capacity];
+        dropOffTypes = new int[capacity];
+        continuousPickups = new int[capacity];
+        continuousDropOffs = new int[capacity];
+        timepoints = new int[capacity];
+        shapeDistTraveled = new double[capacity];
+    }
+
+    /**
+     * Build a columnar trip from a list of stop time objects and the parallel list of their stops. The supplied stops
+     * list serves as the stop table, so every stop time refers to the stop at the same position.
+     */
+    public static TripStopTimes fromStopTimes (List<StopTime> stopTimes, List<Stop> stops) {
+        TripStopTimes trip = new TripStopTimes(stops, Math.max(1, stopTimes.size()));
+        trip.reset(stopTimes.isEmpty() ? null : stopTimes.get(0).trip_id);
+        for (StopTime stopTime : stopTimes) {
+            int i = trip.addRow();
+            trip.lineNumbers[i] = stopTime.id;
+            trip.stopSequences[i] = stopTime.stop_sequence;
+            trip.stopIndexes[i] = i < stops.size() ? i : MISSING_STOP;
+            trip.arrivalTimes[i] = stopTime.arrival_time;
+            trip.departureTimes[i] = stopTime.departure_time;
+            trip.pickupTypes[i] = stopTime.pickup_type;
+            trip.dropOffTypes[i] = stopTime.drop_off_type;
+            trip.continuousPickups[i] = stopTime.continuous_pickup;
+            trip.continuousDropOffs[i] = stopTime.continuous_drop_off;
+            trip.timepoints[i] = stopTime.timepoint;
+            trip.shapeDistTraveled[i] = stopTime.shape_dist_traveled;
+        }
+        return trip;
+    }
+
+    /** Empty this object so it can be filled with the stop times of another trip, keeping the allocated arrays. */
+    public void reset (String tripId) {
+        this.tripId = tripId;
+        size = 0;
+        stopTimeObjects = null;
+        stopObjects = null;
+    }
+
+    /**
+     * Append an (uninitialized) stop time to the end of this trip, growing the arrays if necessary.
+     * @return the index of the new stop time, whose values the caller should fill in.
+     */
+    public int addRow () {
+        if (size == lineNumbers.length) {
+            int capacity = lineNumbers.length * 2;
+            lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+            stopSequences = Arrays.copyOf(stopSequences, capacity);
+            stopIndexes = Arrays.copyOf(stopIndexes, capacity);
+            arrivalTimes = Arrays.copyOf(arrivalTimes, capacity);
+            departureTimes = Arrays.copyOf(departureTimes, capacity);
+            pickupTypes = Arrays.copyOf(pickupTypes, capacity);
+            dropOffTypes = Arrays.copyOf(dropOffTypes, capacity);
+            continuousPickups = Arrays.copyOf(continuousPickups, capacity);
+            continuousDropOffs = Arrays.copyOf(continuousDropOffs, capacity);
+            timepoints = Arrays.copyOf(timepoints, capacity);
+            shapeDistTraveled = Arrays.copyOf(shapeDistTraveled, capacity);
+        }
+        return size++;
+    }
+
+    /** @return an independent copy of this trip, with arrays trimmed to its size. */
+    public TripStopTimes copy () {
+        TripStopTimes copy = new TripStopTimes(stopTable, Math.max(1, size));
+        copy.reset(tripId);
+        copy.size = size;
+        System.arraycopy(lineNumbers, 0, copy.lineNumbers, 0, size);
+        System.arraycopy(stopSequences, 0, copy.stopSequences, 0, size);
+        System.arraycopy(stopIndexes, 0, copy.stopIndexes, 0, size);
+        System.arraycopy(arrivalTimes, 0, copy.arrivalTimes, 0, size);
+        System.arraycopy(departureTimes, 0, copy.departureTimes, 0, size);
+        System.arraycopy(pickupTypes, 0, copy.pickupTypes, 0, size);
+        System.arraycopy(dropOffTypes, 0, copy.dropOffTypes, 0, size);
+        System.arraycopy(continuousPickups, 0, copy.continuousPickups, 0, size);
+        System.arraycopy(continuousDropOffs, 0, copy.continuousDropOffs, 0, size);
+        System.arraycopy(timepoints, 0, copy.timepoints, 0, size);
+        System.arraycopy(shapeDistTraveled, 0, copy.shapeDistTraveled, 0, size);
+        return copy;
+    }
+
+    /** @return whether {@link #stopIndexes} refer to positions in the given list of stops. */
+    public boolean usesStopTable (List<Stop> stops) {
+        return stopTable == stops;
+    }
+
+    /** @return the stop visited by the stop time at index i, or null if that stop does not exist. */
+    public Stop getStop (int i) {
+        int stopIndex = stopIndexes[i];
+        return stopIndex == MISSING_STOP ? null : stopTable.get(stopIndex);
+    }
+
+    /**
+     * Remove the stop times that reference stops missing from the stop table, shifting the remaining ones down.
+     * @return the number of stop times removed.
+     */
+    public int removeMissingStops () {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (stopIndexes[i] == MISSING_STOP) continue;
+            if (kept != i) {
+                lineNumbers[kept] = lineNumbers[i];
+                stopSequences[kept] = stopSequences[i];
+                stopIndexes[kept] = stopIndexes[i];
+                arrivalTimes[kept] = arrivalTimes[i];
+                departureTimes[kept] = departureTimes[i];
+                pickupTypes[kept] = pickupTypes[i];
+                dropOffTypes[kept] = dropOffTypes[i];
+                continuousPickups[kept] = continuousPickups[i];
+                continuousDropOffs[kept] = continuousDropOffs[i];
+                timepoints[kept] = timepoints[i];
+                shapeDistTraveled[kept] = shapeDistTraveled[i];
+            }
+            kept++;
+        }
+        int removed = size - kept;
+        size = kept;
+        if (removed > 0) {
+            stopTimeObjects = null;
+            stopObjects = null;
+        }
+        return removed;
+    }
+
+    public boolean missingEitherTime (int i) {
+        return arrivalTimes[i] == Entity.INT_MISSING || departureTimes[i] == Entity.INT_MISSING;
+    }
+
+    public boolean missingBothTimes (int i) {
+        return arrivalTimes[i] == Entity.INT_MISSING && departureTimes[i] == Entity.INT_MISSING;
+    }
+
+    /**
+     * If the stop time at index i is missing one of arrival or departure time, copy from the other field.
+     * @return whether one of the times was missing.
+     */
+    public boolean fixMissingTimes (int i) {
+        boolean missing = false;
+        if (arrivalTimes[i] == Entity.INT_MISSING) {
+            arrivalTimes[i] = departureTimes[i];
+            missing = true;
+        }
+        if (departureTimes[i] == Entity.INT_MISSING) {
+            departureTimes[i] = arrivalTimes[i];
+            missing = true;
+        }
+        return missing;
+    }
+
+    /**
+     * Create (but do not store) an error about the stop time at index i. The error identifies the stop time in the same
+     * way as {@link NewGTFSError#forEntity} would for the equivalent StopTime object.
+     */
+    public NewGTFSError errorFor (int i, NewGTFSErrorType errorType) {
+        NewGTFSError error = NewGTFSError.forLine(Table.STOP_TIMES, lineNumbers[i], errorType, null)
+            .setEntityId(tripId);
+        error.entitySequenceNumber = stopSequences[i];
+        return error;
+    }
+
+    /**
+     * @return the stop times of this trip as a list of StopTime objects, for consumers that have not been adapted to
+     * the columnar representation. The list is built on the first call and shared by subsequent callers until this
+     * object is reset. Note that modifications made to the objects are not reflected in the columns.
+     */
+    public List<StopTime> getStopTimeObjects () {
+        if (stopTimeObjects == null) {
+            List<StopTime> stopTimes = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                StopTime stopTime = new StopTime();
+                stopTime.id = lineNumbers[i];
+                stopTime.trip_id = tripId;
+                Stop stop = getStop(i);
+                stopTime.stop_id = stop == null ? null : stop.stop_id;
+                stopTime.stop_sequence = stopSequences[i];
+                stopTime.arrival_time = arrivalTimes[i];
+                stopTime.departure_time = departureTimes[i];
+                stopTime.pickup_type = pickupTypes[i];
+                stopTime.drop_off_type = dropOffTypes[i];
+                stopTime.continuous_pickup = continuousPickups[i];
+                stopTime.continuous_drop_off = continuousDropOffs[i];
+                stopTime.timepoint = timepoints[i];
+                stopTime.shape_dist_traveled = shapeDistTraveled[i];
+                stopTimes.add(stopTime);
+            }
+            stopTimeObjects = Collections.unmodifiableList(stopTimes);
+        }
+        return stopTimeObjects;
+    }
+
+    /** @return the stops visited by this trip, parallel to {@link #getStopTimeObjects()}. */
+    public List<Stop> getStopObjects () {
+        if (stopObjects == null) {
+            List<Stop> stops = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) stops.add(getStop(i));
+            stopObjects = Collections.unmodifiableList(stops);
+        }
+        return stopObjects;
+    }
+
+}
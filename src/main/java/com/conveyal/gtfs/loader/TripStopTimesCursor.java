@@ -0,0 +1,183 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.model.Entity;
+import com.conveyal.gtfs.storage.StorageException;
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Collection;
+
+import static com.conveyal.gtfs.loader.JDBCTableReader.SQL_STATE_UNDEFINED_TABLE;
+import static java.sql.ResultSet.CLOSE_CURSORS_AT_COMMIT;
+import static java.sql.ResultSet.CONCUR_READ_ONLY;
+import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
+
+/**
+ * Scans a feed's stop_times table ordered by trip and stop sequence, reading the columns straight out of the JDBC
+ * ResultSet into a reusable {@link TripStopTimes}, one trip at a time. Unlike iterating over
+ * {@link Feed#stopTimes}, this does not create a StopTime object for every row, which avoids a huge number of
+ * short-lived objects when scanning large feeds.
+ *
+ * Like {@link JDBCTableReader}, optional columns that are absent from the table are treated as missing values, and a
+ * missing stop_times table is treated as an empty one. The cursor holds a connection open until it is closed.
+ */
+public class TripStopTimesCursor implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TripStopTimesCursor.class);
+
+    private final FeedCache feedCache;
+    private Connection connection;
+    private ResultSet results;
+
+    // One-based column indexes, zero if the column is not present in the table.
+    private int idColumn;
+    private int tripIdColumn;
+    private int stopIdColumn;
+    private int stopSequenceColumn;
+    private int arrivalTimeColumn;
+    private int departureTimeColumn;
+    private int pickupTypeColumn;
+    private int dropOffTypeColumn;
+    private int continuousPickupColumn;
+    private int continuousDropOffColumn;
+    private int timepointColumn;
+    private int shapeDistTraveledColumn;
+
+    // The trip ID of the row the ResultSet is positioned on, which has not yet been consumed. Null when exhausted.
+    private String nextTripId;
+    private boolean hasRow;
+
+    /**
+     * @param feedCache used to resolve stop IDs to indexes into the cached stops table.
+     */
+    public TripStopTimesCursor (Feed feed, FeedCache feedCache) {
+        this(feed, feedCache, null);
+    }
+
+    /**
+     * @param feedCache used to resolve stop IDs to indexes into the cached stops table.
+     * @param tripIds if not null, only the stop times of these trips are read.
+     */
+    public TripStopTimesCursor (Feed feed, FeedCache feedCache, Collection<String> tripIds) {
+        this.feedCache = feedCache;
+        Table table = Table.STOP_TIMES;
+        String whereClause = tripIds == null ? "" : String.format(" where %s = any(?)", table.getKeyFieldName());
+        String sql = String.format("select * from %s%s%s order by %s, %s", feed.tablePrefix, table.name, whereClause,
+            table.getKeyFieldName(), table.getOrderFieldName());
+        try {
+            connection = feed.getConnection();
+            PreparedStatement statement =
+                connection.prepareStatement(sql, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY, CLOSE_CURSORS_AT_COMMIT);
+            if (tripIds != null) statement.setArray(1, connection.createArrayOf("text", tripIds.toArray()));
+            // Use a server-side cursor, fetching many rows at once (see JDBCTableReader).
+            statement.setFetchSize(1000);
+            LOG.info(sql);
+            results = statement.executeQuery();
+            ResultSetMetaData metaData = results.getMetaData();
+            for (int c = 1; c <= metaData.getColumnCount(); c++) {
+                setColumnIndex(metaData.getColumnName(c), c);
+            }
+            advance();
+        } catch (SQLException ex) {
+            DbUtils.closeQuietly(connection);
+            if (SQL_STATE_UNDEFINED_TABLE.equals(ex.getSQLState())) {
+                LOG.info("Table {} did not exist, scanning as if it were empty.", table.name);
+                results = null;
+                hasRow = false;
+            } else {
+                throw new StorageException(ex);
+            }
+        }
+    }
+
+    private void setColumnIndex (String columnName, int columnIndex) {
+        switch (columnName) {
+            case "id": idColumn = columnIndex; break;
+            case "trip_id": tripIdColumn = columnIndex; break;
+            case "stop_id": stopIdColumn = columnIndex; break;
+            case "stop_sequence": stopSequenceColumn = columnIndex; break;
+            case "arrival_time": arrivalTimeColumn = columnIndex; break;
+            case "departure_time": departureTimeColumn = columnIndex; break;
+            case "pickup_type": pickupTypeColumn = columnIndex; break;
+            case "drop_off_type": dropOffTypeColumn = columnIndex; break;
+            case "continuous_pickup": continuousPickupColumn = columnIndex; break;
+            case "continuous_drop_off": continuousDropOffColumn = columnIndex; break;
+            case "timepoint": timepointColumn = columnIndex; break;
+            case "shape_dist_traveled": shapeDistTraveledColumn = columnIndex; break;
+            default: // Other columns are not needed by the trip validators.
+        }
+    }
+
+    /**
+     * Move to the next row, skipping over rows with no trip_id (bad references are recorded when the feed is loaded).
+     */
+    private void advance () throws SQLException {
+        do {
+            hasRow = results.next();
+            nextTripId = hasRow && tripIdColumn != 0 ? results.getString(tripIdColumn) : null;
+        } while (hasRow && nextTripId == null);
+    }
+
+    /**
+     * Fill the supplied object with all the stop times of the next trip, replacing its previous contents.
+     * @return false if there are no more trips, in which case the supplied object is left untouched.
+     */
+    public boolean next (TripStopTimes tripStopTimes) {
+        if (!hasRow) return false;
+        try {
+            String tripId = nextTripId;
+            tripStopTimes.reset(tripId);
+            do {
+                int i = tripStopTimes.addRow();
+                tripStopTimes.lineNumbers[i] = getInt(idColumn);
+                tripStopTimes.stopSequences[i] = getInt(stopSequenceColumn);
+                String stopId = stopIdColumn == 0 ? null : results.getString(stopIdColumn);
+                int stopIndex = feedCache.getStopIndex(stopId);
+                tripStopTimes.stopIndexes[i] =
+                    stopIndex == FeedCache.NO_STOP_INDEX ? TripStopTimes.MISSING_STOP : stopIndex;
+                tripStopTimes.arrivalTimes[i] = getInt(arrivalTimeColumn);
+                tripStopTimes.departureTimes[i] = getInt(departureTimeColumn);
+                tripStopTimes.pickupTypes[i] = getInt(pickupTypeColumn);
+                tripStopTimes.dropOffTypes[i] = getInt(dropOffTypeColumn);
+                tripStopTimes.continuousPickups[i] = getInt(continuousPickupColumn);
+                tripStopTimes.continuousDropOffs[i] = getInt(continuousDropOffColumn);
+                tripStopTimes.timepoints[i] = getInt(timepointColumn);
+                tripStopTimes.shapeDistTraveled[i] = getDouble(shapeDistTraveledColumn);
+                advance();
+            } while (hasRow && tripId.equals(nextTripId));
+            return true;
+        } catch (SQLException ex) {
+            close();
+            throw new StorageException(ex);
+        }
+    }
+
+    /** Same semantics as EntityPopulator.getIntIfPresent, but with a pre-resolved column index. */
+    private int getInt (int column) throws SQLException {
+        if (column == 0) return Entity.INT_MISSING;
+        int value = results.getInt(column);
+        return results.wasNull() ? Entity.INT_MISSING : value;
+    }
+
+    /** Same semantics as EntityPopulator.getDoubleIfPresent, but with a pre-resolved column index. */
+    private double getDouble (int column) throws SQLException {
+        if (column == 0) return Entity.DOUBLE_MISSING;
+        double value = results.getDouble(column);
+        return results.wasNull() ? Entity.DOUBLE_MISSING : value;
+    }
+
+    /** Release the database connection. Closing the connection also closes the statement and result set. */
+    @Override
+    public void close () {
+        hasRow = false;
+        DbUtils.closeQuietly(connection);
+        connection = null;
+    }
+
+}
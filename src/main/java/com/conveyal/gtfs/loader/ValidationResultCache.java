@@ -0,0 +1,247 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.storage.StorageException;
+import com.conveyal.gtfs.util.json.JsonManager;
+import com.conveyal.gtfs.validator.FeedValidator;
+import com.conveyal.gtfs.validator.ValidationProfile;
+import com.conveyal.gtfs.validator.ValidationResult;
+import com.google.common.hash.Hashing;
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Remembers where the results of validating each loaded feed are stored, so that when a feed with identical contents
+ * is loaded again (e.g. the same zip file uploaded by different users) its validation results can be copied from the
+ * namespace where they were first computed instead of running all the validators again.
+ *
+ * Entries are keyed on the SHA-1 hash of the feed file recorded in the feeds table and on a fingerprint of the
+ * validators that produced them, and are kept in the validation_results table alongside the feeds table. The copied
+ * results consist of the {@link ValidationResult} (stored as JSON), the errors and error_info tables, the tables derived
+ * by the validators (services, service_dates, service_durations, patterns, pattern_stops and pattern_hop_stats) and the
+ * pattern_id column of the trips table. Snapshots have no hash in the feeds table, so they are never cached: results
+ * are only valid for tables that still match the file they were loaded from, so they are forgotten when the feed is
+ * edited (see {@link #invalidate(Connection, String)}).
+ */
+public class ValidationResultCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ValidationResultCache.class);
+
+    /**
+     * Increment this whenever a change to the validators alters the errors, derived tables or ValidationResult they
+     * produce. Results cached by earlier versions will then no longer be reused.
+     */
+    public static final int VALIDATION_VERSION = 5;
+
+    /** Tables written by the validators, which are copied along with the errors. */
+    private static final String[] DERIVED_TABLES = {
+        "services", "service_dates", "service_durations", "pattern_hop_stats"
+    };
+
+    /** Tables written by the validators with an auto-incrementing id column, so that they can be edited. */
+    private static final String[] DERIVED_EDITOR_TABLES = {"patterns", "pattern_stops"};
+
+    private static final JsonManager<ValidationResult> json = new JsonManager<>(ValidationResult.class);
+
+    /**
+     * @return a hash identifying the validation version, the profile and the classes of the given validators (including
+     * any additional validators supplied by the caller), in the order they are run.
+     */
+    public static String fingerprint (ValidationProfile profile, List<FeedValidator> feedValidators) {
+        String validatorNames = feedValidators.stream()
+            .map(validator -> validator.getClass().getName())
+            .collect(Collectors.joining(","));
+        String versionedNames =
+            String.join(":", Integer.toString(VALIDATION_VERSION), profile.name(), validatorNames);
+        return Hashing.sha1().hashString(versionedNames, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Get SQL string for creating the table of cached validation results.
+     */
+    public static String getCreateCacheSQL () {
+        return "create table if not exists validation_results (sha1 varchar, validator_fingerprint varchar, " +
+            "namespace varchar, validation_result varchar, primary key (sha1, validator_fingerprint))";
+    }
+
+    /**
+     * If a feed with the same contents as the given namespace has already been validated by the same validators, copy
+     * its validation results into the given namespace, replacing any errors and derived tables already there.
+     * @return the cached validation result, or null if there was none (in which case nothing is changed).
+     */
+    public static ValidationResult copyCachedResult (DataSource dataSource, String namespace, String fingerprint) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            Statement statement = connection.createStatement();
+            statement.execute(getCreateCacheSQL());
+            PreparedStatement selectStatement = connection.prepareStatement(
+                "select cached.namespace, cached.validation_result from validation_results as cached " +
+                "join feeds as source on source.namespace = cached.namespace " +
+                "join feeds as target on target.sha1 = cached.sha1 " +
+                "where target.namespace = ? and cached.validator_fingerprint = ? and cached.namespace <> ? " +
+                "and (source.deleted is null or source.deleted = false)"
+            );
+            selectStatement.setString(1, namespace);
+            selectStatement.setString(2, fingerprint);
+            selectStatement.setString(3, namespace);
+            ResultSet resultSet = selectStatement.executeQuery();
+            if (!resultSet.next()) {
+                connection.commit();
+                return null;
+            }
+            String sourceNamespace = resultSet.getString(1);
+            ValidationResult validationResult = json.read(resultSet.getString(2));
+            LOG.info("Copying validation results for {} from {}, which was loaded from the same file.", namespace,
+                sourceNamespace);
+            copyErrors(statement, sourceNamespace, namespace);
+            for (String tableName : DERIVED_TABLES) {
+                copyTable(statement, sourceNamespace, namespace, tableName, false);
+            }
+            for (String tableName : DERIVED_EDITOR_TABLES) {
+                copyTable(statement, sourceNamespace, namespace, tableName, true);
+            }
+            copyTripPatternIds(statement, sourceNamespace, namespace);
+            connection.commit();
+            return validationResult;
+        } catch (SQLException | IOException e) {
+            DbUtils.rollbackAndCloseQuietly(connection);
+            throw new StorageException(e);
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Record that the given namespace holds the results of validating its feed with the given validators, replacing
+     * any previous entry for a feed with the same contents. Namespaces without a hash in the feeds table (e.g.
+     * snapshots) are not recorded.
+     */
+    public static void store (DataSource dataSource, String namespace, String fingerprint, ValidationResult result) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.createStatement().execute(getCreateCacheSQL());
+            PreparedStatement deleteStatement = connection.prepareStatement(
+                "delete from validation_results where validator_fingerprint = ? and sha1 = " +
+                "(select sha1 from feeds where namespace = ?)"
+            );
+            deleteStatement.setString(1, fingerprint);
+            deleteStatement.setString(2, namespace);
+            deleteStatement.executeUpdate();
+            PreparedStatement insertStatement = connection.prepareStatement(
+                "insert into validation_results select sha1, ?, namespace, ? from feeds " +
+                "where namespace = ? and sha1 is not null"
+            );
+            insertStatement.setString(1, fingerprint);
+            insertStatement.setString(2, json.write(result));
+            insertStatement.setString(3, namespace);
+            int inserted = insertStatement.executeUpdate();
+            connection.commit();
+            if (inserted > 0) LOG.info("Cached validation results for {}.", namespace);
+        } catch (SQLException | IOException e) {
+            DbUtils.rollbackAndCloseQuietly(connection);
+            throw new StorageException(e);
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Forget any validation results stored in the given namespace, because its tables no longer match the file it was
+     * loaded from.
+     */
+    public static void invalidate (DataSource dataSource, String namespace) {
+        try (Connection connection = dataSource.getConnection()) {
+            invalidate(connection, namespace);
+            connection.commit();
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * Forget any validation results stored in the given namespace as part of the connection's current transaction
+     * (e.g. one editing the namespace's tables), which the caller must commit.
+     */
+    public static void invalidate (Connection connection, String namespace) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(getCreateCacheSQL());
+        }
+        try (PreparedStatement deleteStatement =
+                 connection.prepareStatement("delete from validation_results where namespace = ?")) {
+            deleteStatement.setString(1, namespace);
+            int deleted = deleteStatement.executeUpdate();
+            if (deleted > 0) LOG.info("Removed cached validation results for {}.", namespace);
+        }
+    }
+
+    /**
+     * Replace the errors in the target namespace with those in the source namespace. Both were loaded from the same
+     * file, so the errors found while loading are identical too and the line numbers and entity IDs still apply.
+     */
+    private static void copyErrors (Statement statement, String sourceNamespace, String targetNamespace)
+        throws SQLException {
+        for (String tableName : new String[] {"error_info", "errors"}) {
+            execute(statement, String.format("delete from %s.%s", targetNamespace, tableName));
+        }
+        for (String tableName : new String[] {"errors", "error_info"}) {
+            execute(statement, String.format("insert into %s.%s select * from %s.%s", targetNamespace, tableName,
+                sourceNamespace, tableName));
+        }
+    }
+
+    /**
+     * Replace a table in the target namespace with a copy of the same table in the source namespace, including its
+     * indexes and primary key.
+     * @param serialId whether to give the copy its own sequence for the id column, so that new rows can be inserted
+     *                 (e.g. by the editor) without reference to the source namespace.
+     */
+    private static void copyTable (Statement statement, String sourceNamespace, String targetNamespace,
+                                   String tableName, boolean serialId) throws SQLException {
+        String sourceTable = String.join(".", sourceNamespace, tableName);
+        String targetTable = String.join(".", targetNamespace, tableName);
+        execute(statement, String.format("drop table if exists %s cascade", targetTable));
+        execute(statement, String.format("create table %s (like %s including indexes)", targetTable, sourceTable));
+        execute(statement, String.format("insert into %s select * from %s", targetTable, sourceTable));
+        if (serialId) {
+            String sequenceName = targetTable + "_id_seq";
+            execute(statement, String.format("create sequence %s owned by %s.id", sequenceName, targetTable));
+            execute(statement, String.format("select setval('%s', coalesce((select max(id) from %s), 0) + 1, false)",
+                sequenceName, targetTable));
+            execute(statement, String.format("alter table %s alter column id set default nextval('%s')", targetTable,
+                sequenceName));
+        }
+    }
+
+    /**
+     * Copy the pattern IDs assigned to trips by the PatternFinderValidator. Trips are matched on their id (i.e. line
+     * number) rather than trip_id, which may not be unique in an invalid feed.
+     */
+    private static void copyTripPatternIds (Statement statement, String sourceNamespace, String targetNamespace)
+        throws SQLException {
+        execute(statement, String.format("alter table %s.trips add column if not exists pattern_id varchar",
+            targetNamespace));
+        execute(statement, String.format("update %s.trips as trips set pattern_id = source.pattern_id " +
+            "from %s.trips as source where trips.id = source.id", targetNamespace, sourceNamespace));
+        execute(statement, String.format("create index if not exists trips_pattern_id_idx on %s.trips (pattern_id)",
+            targetNamespace));
+    }
+
+    private static void execute (Statement statement, String sql) throws SQLException {
+        LOG.info(sql);
+        statement.execute(sql);
+    }
+
+}
@@ -56,6 +56,21 @@ public class Pattern extends Entity {
      * @param patternGeometry
      */
     public Pattern (List<String> orderedStops, Collection<Trip> trips, LineString patternGeometry){
+        this(
+            orderedStops,
+            trips.iterator().next(),
+            trips.stream().map(t -> t.trip_id).collect(Collectors.toList()),
+            patternGeometry
+        );
+    }
+
+    /**
+     * Same as {@link #Pattern(List, Collection, LineString)} for callers that only hold on to the IDs of the trips on
+     * the pattern, besides the exemplar trip.
+     * @param exemplarTrip the trip providing the route, direction and name of the pattern.
+     * @param tripIds the IDs of all the trips on the pattern, including the exemplar trip.
+     */
+    public Pattern (List<String> orderedStops, Trip exemplarTrip, List<String> tripIds, LineString patternGeometry){
 
         // Temporarily make a random ID for the pattern, which might be overwritten in a later step ?
         this.pattern_id = UUID.randomUUID().toString();
@@ -65,13 +80,10 @@ public class Pattern extends Entity {
         this.orderedStops = orderedStops;
 
         // Save the string IDs of the trips on this pattern.
-        this.associatedTrips = trips.stream().map(t -> t.trip_id).collect(Collectors.toList());
+        this.associatedTrips = tripIds;
 
         // In theory all trips could take different paths and be on different routes.
         // Here we're using only the first one as an exemplar.
-        String trip_id = associatedTrips.get(0);
-
-        Trip exemplarTrip = trips.iterator().next();
         this.geometry = patternGeometry;
 
         // feed.getTripGeometry(exemplarTrip.trip_id);
@@ -6,21 +6,31 @@ import java.util.zip.GZIPInputStream;
 
 /**
  * Loads an ESRI ASCII grid containing integers and allows looking up values as booleans (where > 0).
- * This is used for
+ * This is used for detecting stops in unpopulated areas (see MisplacedStopValidator).
+ *
+ * Grids can also be saved to and loaded from a compact binary form, which is how the earth population grid is shipped:
+ * parsing the text of the ASCII grid takes far longer than reading the bits directly. Instances are immutable once
+ * loaded, so a single instance can be shared by any number of threads.
  */
 public class BooleanAsciiGrid {
 
-    int ncols;
-    int nrows;
-    double xllcorner;
-    double yllcorner;
-    double cellsize;
-    double nodata;
+    /** Identifies the binary grid format, and its version. */
+    private static final int BINARY_MAGIC_NUMBER = 0x42475231; // "BGR1"
 
-    BitSet grid;
+    private static final String EARTH_POPULATION_GRID = "gpwv3-quarter-boolean.bin";
 
-    public BooleanAsciiGrid (InputStream inputStream, boolean gzipped) {
+    final int ncols;
+    final int nrows;
+    final double xllcorner;
+    final double yllcorner;
+    final double cellsize;
+
+    /** The cell values, one bit per cell, row by row from the top (northern) edge. Laid out as BitSet.toLongArray. */
+    private final long[] words;
 
+    public BooleanAsciiGrid (InputStream inputStream, boolean gzipped) {
+        AsciiHeader header = new AsciiHeader();
+        BitSet grid = null;
         try {
             if (gzipped) inputStream = new GZIPInputStream(inputStream);
             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
@@ -29,11 +39,11 @@ public class BooleanAsciiGrid {
             for(String line = reader.readLine(); line != null; line = reader.readLine()) {
                 String[] fields = line.trim().split("\\s+"); // split on one or more whitespace characters
                 if (inHeader) {
-                    inHeader = handleHeaderRow(fields);
+                    inHeader = header.handleHeaderRow(fields);
                     if (inHeader) continue;
-                    grid = new BitSet(ncols * nrows);
+                    grid = new BitSet(header.ncols * header.nrows);
                 }
-                if (fields.length != ncols) {
+                if (fields.length != header.ncols) {
                     throw new RuntimeException("Wrong number of data columns: " +  fields.length);
                 }
                 for (String field : fields) {
@@ -41,10 +51,32 @@ public class BooleanAsciiGrid {
                     grid.set(nDataItemsRead++, value > 0);
                 }
             }
-            if (nDataItemsRead != ncols * nrows) throw new RuntimeException("Too few data items: " + nDataItemsRead);
+            if (nDataItemsRead != header.ncols * header.nrows) {
+                throw new RuntimeException("Too few data items: " + nDataItemsRead);
+            }
         } catch (IOException exception) {
             throw new RuntimeException(exception);
         }
+        ncols = header.ncols;
+        nrows = header.nrows;
+        xllcorner = header.xllcorner;
+        yllcorner = header.yllcorner;
+        cellsize = header.cellsize;
+        words = toWords(grid, ncols * nrows);
+    }
+
+    private BooleanAsciiGrid (int ncols, int nrows, double xllcorner, double yllcorner, double cellsize, long[] words) {
+        this.ncols = ncols;
+        this.nrows = nrows;
+        this.xllcorner = xllcorner;
+        this.yllcorner = yllcorner;
+        this.cellsize = cellsize;
+        this.words = words;
+    }
+
+    /** Holds the shared earth population grid, which is only loaded the first time it is requested. */
+    private static class EarthPopulationHolder {
+        static final BooleanAsciiGrid GRID = loadBinaryResource(EARTH_POPULATION_GRID);
     }
 
     /**
@@ -57,47 +89,129 @@ public class BooleanAsciiGrid {
      * and all others a value of zero (since the no data value in the grid is -9999). This was then exported as another
      * ASCII grid file, which zips well. The license for this data set is Creative Commons Attribution.
      * See http://sedac.ciesin.columbia.edu/data/collection/gpw-v3
+     *
+     * The ASCII grid (gpwv3-quarter-boolean.asc) was then converted to the binary resource that is actually loaded,
+     * using the main method of this class. The grid is loaded once and the same instance is returned to every caller.
      */
     public static BooleanAsciiGrid forEarthPopulation() {
-        try {
-            InputStream gridStream = BooleanAsciiGrid.class.getResourceAsStream("gpwv3-quarter-boolean.asc");
-            return new BooleanAsciiGrid(gridStream, false);
-        } catch (Exception ex) {
+        return EarthPopulationHolder.GRID;
+    }
+
+    /** Load a grid in the binary format written by {@link #writeBinary(OutputStream)}. */
+    public static BooleanAsciiGrid readBinary (InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        if (in.readInt() != BINARY_MAGIC_NUMBER) throw new IOException("Not a binary boolean grid.");
+        int ncols = in.readInt();
+        int nrows = in.readInt();
+        double xllcorner = in.readDouble();
+        double yllcorner = in.readDouble();
+        double cellsize = in.readDouble();
+        long[] words = new long[in.readInt()];
+        if (words.length != wordCount(ncols * nrows)) throw new IOException("Wrong number of data words.");
+        for (int i = 0; i < words.length; i++) words[i] = in.readLong();
+        return new BooleanAsciiGrid(ncols, nrows, xllcorner, yllcorner, cellsize, words);
+    }
+
+    /** Save this grid in a binary format that can be loaded much faster than the ASCII grid. */
+    public void writeBinary (OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(BINARY_MAGIC_NUMBER);
+        out.writeInt(ncols);
+        out.writeInt(nrows);
+        out.writeDouble(xllcorner);
+        out.writeDouble(yllcorner);
+        out.writeDouble(cellsize);
+        out.writeInt(words.length);
+        for (long word : words) out.writeLong(word);
+        out.flush();
+    }
+
+    private static BooleanAsciiGrid loadBinaryResource (String resourceName) {
+        try (InputStream gridStream = BooleanAsciiGrid.class.getResourceAsStream(resourceName)) {
+            if (gridStream == null) throw new FileNotFoundException(resourceName);
+            return readBinary(gridStream);
+        } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
     }
 
-    /**
-     * @param fields
-     * @return whether we appear to still be in the header lines of the file
-     */
-    private boolean handleHeaderRow (String[] fields) {
-        if (fields.length != 2) return false;
-        String key = fields[0];
-        if ("ncols".equals(key)) {
-            ncols = Integer.parseInt(fields[1]);
-        } else if ("nrows".equalsIgnoreCase(key)) {
-            nrows = Integer.parseInt(fields[1]);
-        } else if ("xllcorner".equalsIgnoreCase(key)) {
-            xllcorner = Double.parseDouble(fields[1]);
-        } else if ("yllcorner".equalsIgnoreCase(key)) {
-            yllcorner = Double.parseDouble(fields[1]);
-        } else if ("cellsize".equalsIgnoreCase(key)) {
-            cellsize = Double.parseDouble(fields[1]);
-        } else if ("NODATA_value".equalsIgnoreCase(key)) {
-            nodata = Double.parseDouble(fields[1]);
-        } else {
-            return false;
+    private static int wordCount (int nBits) {
+        return (nBits + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /** Copy the bits into a long array of the full grid length (BitSet.toLongArray omits trailing zero words). */
+    private static long[] toWords (BitSet bits, int nBits) {
+        long[] words = new long[wordCount(nBits)];
+        long[] setWords = bits.toLongArray();
+        System.arraycopy(setWords, 0, words, 0, setWords.length);
+        return words;
+    }
+
+    /** Fields of the header rows of an ASCII grid. */
+    private static class AsciiHeader {
+        int ncols;
+        int nrows;
+        double xllcorner;
+        double yllcorner;
+        double cellsize;
+        double nodata;
+
+        /**
+         * @param fields
+         * @return whether we appear to still be in the header lines of the file
+         */
+        private boolean handleHeaderRow (String[] fields) {
+            if (fields.length != 2) return false;
+            String key = fields[0];
+            if ("ncols".equals(key)) {
+                ncols = Integer.parseInt(fields[1]);
+            } else if ("nrows".equalsIgnoreCase(key)) {
+                nrows = Integer.parseInt(fields[1]);
+            } else if ("xllcorner".equalsIgnoreCase(key)) {
+                xllcorner = Double.parseDouble(fields[1]);
+            } else if ("yllcorner".equalsIgnoreCase(key)) {
+                yllcorner = Double.parseDouble(fields[1]);
+            } else if ("cellsize".equalsIgnoreCase(key)) {
+                cellsize = Double.parseDouble(fields[1]);
+            } else if ("NODATA_value".equalsIgnoreCase(key)) {
+                nodata = Double.parseDouble(fields[1]);
+            } else {
+                return false;
+            }
+            return true;
         }
-        return true;
     }
 
+    /**
+     * @return the value of the cell containing the given coordinates, or false if they are outside the grid or not
+     * numbers.
+     */
     public boolean getValueForCoords (double x, double y) {
-        int xCell = (int)((x - xllcorner) / cellsize);
-        int yCell = (int)((y - yllcorner) / cellsize);
-        int index = (nrows - yCell - 1) * ncols + xCell; // Vertical flip
-        if (index < 0 || index > grid.length()) return false;
-        return grid.get(index);
+        // Round down rather than toward zero, so that points just below or left of the grid are not placed in its
+        // first row or column. The comparisons are written so that NaN coordinates are also rejected.
+        double xCell = Math.floor((x - xllcorner) / cellsize);
+        double yCell = Math.floor((y - yllcorner) / cellsize);
+        if (!(xCell >= 0 && xCell < ncols && yCell >= 0 && yCell < nrows)) return false;
+        int index = (nrows - (int) yCell - 1) * ncols + (int) xCell; // Vertical flip
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Convert an ASCII grid to the binary format, e.g. to regenerate the earth population grid resource:
+     * BooleanAsciiGrid gpwv3-quarter-boolean.asc gpwv3-quarter-boolean.bin
+     */
+    public static void main (String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BooleanAsciiGrid input.asc output.bin");
+            System.exit(1);
+        }
+        BooleanAsciiGrid grid;
+        try (InputStream inputStream = new FileInputStream(args[0])) {
+            grid = new BooleanAsciiGrid(inputStream, args[0].endsWith(".gz"));
+        }
+        try (OutputStream outputStream = new FileOutputStream(args[1])) {
+            grid.writeBinary(outputStream);
+        }
     }
 
 }
@@ -5,68 +5,115 @@ import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.util.Util;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Envelope;
-import org.locationtech.jts.index.strtree.STRtree;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.DUPLICATE_STOP;
-import static com.conveyal.gtfs.util.Util.getCoordString;
 
 /**
  * Find stops that are very close together.
+ *
+ * The projected stops are hashed into a uniform grid of cells BUFFER_METERS on a side, so all the stops within
+ * BUFFER_METERS of a given stop are found in the 3x3 block of cells around it. This finds all the duplicates in time
+ * linear in the number of stops (unless very many stops are piled up in the same place).
  */
 public class DuplicateStopsValidator extends FeedValidator {
 
     private static final double BUFFER_METERS = 2.0;
 
+    private static final int NO_STOP = -1;
+
     public DuplicateStopsValidator(Feed feed, SQLErrorStorage errorStorage) {
         super(feed, errorStorage);
     }
 
     @Override
     public void validate () {
-        // Project all stop coordinates and put them in a spatial index
-        HashMap<Stop, Coordinate> projectedCoordinateForStop = new HashMap<>();
-        STRtree stopSpatialIndex = new STRtree();
-        for (Stop stop : feed.stops) {
-            // Only validate point where vehicles stop, excluding logical "parent stations"
-            if (stop.location_type != 0) continue;
+        // Project the coordinates of all points where vehicles stop, excluding logical "parent stations".
+        List<Stop> stops = new ArrayList<>();
+        for (Stop stop : feed.getCache().getStops()) {
+            if (stop.location_type == 0) stops.add(stop);
+        }
+        countRowsScanned(feed.getCache().getStops().size());
+        int nStops = stops.size();
+        double[] xs = new double[nStops];
+        double[] ys = new double[nStops];
+        // The stops in each grid cell form a linked list: the map holds the first stop in the cell, and nextInCell the
+        // following stops, in increasing order of index.
+        TLongIntMap firstStopInCell = new TLongIntHashMap(nStops, 0.5f, Long.MIN_VALUE, NO_STOP);
+        int[] nextInCell = new int[nStops];
+        for (int s = nStops - 1; s >= 0; s--) {
+            Stop stop = stops.get(s);
             Coordinate projectedStopCoordinate = Util.projectLatLonToMeters(stop.stop_lat, stop.stop_lon);
-            stopSpatialIndex.insert(new Envelope(projectedStopCoordinate), stop);
-            projectedCoordinateForStop.put(stop, projectedStopCoordinate);
+            xs[s] = projectedStopCoordinate.x;
+            ys[s] = projectedStopCoordinate.y;
+            long cell = cellKey(cellIndex(xs[s]), cellIndex(ys[s]));
+            nextInCell[s] = firstStopInCell.get(cell);
+            firstStopInCell.put(cell, s);
         }
-        stopSpatialIndex.build();
 
         // Track which stops have already been reported in an error message so we don't report them more than once.
-        Set<Stop> reportedStops = new HashSet<>();
-        projectedCoordinateForStop.forEach((stop, coord) -> {
-            if (reportedStops.contains(stop)) return;
-            Envelope queryEnvelope = new Envelope(coord);
-            queryEnvelope.expandBy(BUFFER_METERS);
-            List<Stop> nearby = (List<Stop>)stopSpatialIndex.query(queryEnvelope).stream()
-                    .filter(s -> !reportedStops.contains(s)).collect(Collectors.toList());
-            // The nearby stops list will include at least one stop, the one for which we're performing the query.
-            // We want to include that one in the referenced entities along with the duplicates.
-            if (nearby.size() > 1) {
-                // TODO including bad_value and info entries - settle on one or the other
-                String badStopIds = nearby.stream().map(Stop::getId).filter(s -> !s.equals(stop.stop_id))
-                        .map(sid -> "stopId=" + sid).collect(Collectors.joining("; "));
-                NewGTFSError error = NewGTFSError.forEntity(stop, DUPLICATE_STOP).setBadValue(badStopIds);
-                int i = 1;
-                for (Stop nearbyStop : nearby) {
-                    error.addInfo("stop_id " + i, nearbyStop.stop_id);
-                    i += 1;
+        BitSet reportedStops = new BitSet(nStops);
+        TIntList nearby = new TIntArrayList();
+        for (int s = 0; s < nStops; s++) {
+            if (reportedStops.get(s)) continue;
+            // Find all the unreported stops within the buffer in each direction, which includes this stop itself.
+            nearby.clear();
+            int cellX = cellIndex(xs[s]);
+            int cellY = cellIndex(ys[s]);
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    int other = firstStopInCell.get(cellKey(cellX + dx, cellY + dy));
+                    for (; other != NO_STOP; other = nextInCell[other]) {
+                        if (reportedStops.get(other)) continue;
+                        if (Math.abs(xs[other] - xs[s]) <= BUFFER_METERS && Math.abs(ys[other] - ys[s]) <= BUFFER_METERS) {
+                            nearby.add(other);
+                        }
+                    }
                 }
-                registerError(error);
-                reportedStops.addAll(nearby);
             }
-        });
+            // We want to include the stop itself in the referenced entities along with the duplicates.
+            if (nearby.size() > 1) {
+                // Report the stops in feed order, whichever cells they were found in.
+                nearby.sort();
+                registerError(duplicateStopError(stops, s, nearby));
+                for (int i = 0; i < nearby.size(); i++) reportedStops.set(nearby.get(i));
+            }
+        }
+    }
+
+    private static NewGTFSError duplicateStopError (List<Stop> stops, int stopIndex, TIntList nearby) {
+        Stop stop = stops.get(stopIndex);
+        // TODO including bad_value and info entries - settle on one or the other
+        String[] badStopIds = new String[nearby.size() - 1];
+        int b = 0;
+        for (int i = 0; i < nearby.size(); i++) {
+            String nearbyStopId = stops.get(nearby.get(i)).stop_id;
+            if (!nearbyStopId.equals(stop.stop_id)) badStopIds[b++] = "stopId=" + nearbyStopId;
+        }
+        NewGTFSError error = NewGTFSError.forEntity(stop, DUPLICATE_STOP)
+            .setBadValue(String.join("; ", Arrays.copyOf(badStopIds, b)));
+        for (int i = 0; i < nearby.size(); i++) {
+            error.addInfo("stop_id " + (i + 1), stops.get(nearby.get(i)).stop_id);
+        }
+        return error;
+    }
+
+    /** @return the index of the grid cell containing the given projected coordinate, along one axis. */
+    private static int cellIndex (double meters) {
+        return (int) Math.floor(meters / BUFFER_METERS);
+    }
+
+    private static long cellKey (int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
     }
 
 }
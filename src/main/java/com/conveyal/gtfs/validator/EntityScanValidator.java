@@ -0,0 +1,147 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.error.NewGTFSError;
+import com.conveyal.gtfs.error.SQLErrorStorage;
+import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.FeedCache;
+import com.conveyal.gtfs.loader.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static com.conveyal.gtfs.error.NewGTFSErrorType.VALIDATOR_FAILED;
+
+/**
+ * Runs any number of {@link EntityValidator}s in a single pass over the feed: each table visited by at least one of
+ * them is read exactly once, and each row is handed to every validator that visits that table, in the order the
+ * validators were supplied. Adding another EntityValidator therefore costs no additional reads. The agencies and stops
+ * are taken from the feed's cache, which is shared with the other validators.
+ *
+ * Tables are scanned in a fixed order (see {@link #SCAN_ORDER}), so validators can rely on e.g. all agencies having
+ * been visited before any stop. As when validators are run one after another, a validator that throws an exception is
+ * recorded as a VALIDATOR_FAILED error and receives no further rows, while the others carry on.
+ */
+public class EntityScanValidator extends FeedValidator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EntityScanValidator.class);
+
+    /** The tables that can be visited by EntityValidators, in the order they are scanned. */
+    public static final Table[] SCAN_ORDER = {
+        Table.AGENCY, Table.STOPS, Table.FARE_ATTRIBUTES
+    };
+
+    private final List<EntityValidator> entityValidators;
+
+    // Validators that have thrown an exception, which are not run again.
+    private final List<EntityValidator> failedValidators = new ArrayList<>();
+
+    // The time each validator has spent handling rows, summed over all the tables it visits.
+    private final Map<EntityValidator, Long> visitNanos = new HashMap<>();
+
+    // The time each validator spent in its complete() phase.
+    private final Map<EntityValidator, Long> completeMillis = new HashMap<>();
+
+    public EntityScanValidator (Feed feed, SQLErrorStorage errorStorage, List<EntityValidator> entityValidators) {
+        super(feed, errorStorage);
+        this.entityValidators = entityValidators;
+    }
+
+    @Override
+    public void validate () {
+        FeedCache feedCache = feed.getCache();
+        for (Table table : SCAN_ORDER) {
+            List<EntityValidator> visitors = new ArrayList<>();
+            for (EntityValidator validator : entityValidators) {
+                if (failedValidators.contains(validator)) continue;
+                if (validator.getVisitedTables().contains(table)) visitors.add(validator);
+            }
+            if (visitors.isEmpty()) continue;
+            LOG.info("Scanning {} for {} validators.", table.name, visitors.size());
+            if (table == Table.AGENCY) {
+                scan(visitors, feedCache.getAgencies(), EntityValidator::visitAgency);
+            } else if (table == Table.STOPS) {
+                scan(visitors, feedCache.getStops(), EntityValidator::visitStop);
+            } else if (table == Table.FARE_ATTRIBUTES) {
+                // Fare attributes are not cached, so they are read straight from the database.
+                scan(visitors, feed.fareAttributes, EntityValidator::visitFareAttribute);
+            }
+        }
+    }
+
+    /**
+     * Hand every row of one table to each of the validators visiting it, recording the rows each of them receives and
+     * the time each of them takes to handle those rows.
+     */
+    private <T> void scan (List<EntityValidator> visitors, Iterable<T> rows, BiConsumer<EntityValidator, T> visit) {
+        long[] nanos = new long[visitors.size()];
+        boolean[] failed = new boolean[visitors.size()];
+        for (T row : rows) {
+            countRowsScanned(1);
+            for (int v = 0; v < visitors.size(); v++) {
+                if (failed[v]) continue;
+                EntityValidator visitor = visitors.get(v);
+                long startTime = System.nanoTime();
+                try {
+                    visit.accept(visitor, row);
+                } catch (Exception e) {
+                    fail(visitor, e);
+                    failed[v] = true;
+                }
+                nanos[v] += System.nanoTime() - startTime;
+                visitor.countRowsScanned(1);
+            }
+        }
+        for (int v = 0; v < visitors.size(); v++) visitNanos.merge(visitors.get(v), nanos[v], Long::sum);
+    }
+
+    /** Record that a validator has failed, as {@link Feed#validate} does for other feed validators. */
+    private void fail (EntityValidator validator, Exception e) {
+        String validatorName = validator.getClass().getSimpleName();
+        registerError(NewGTFSError.forFeed(VALIDATOR_FAILED, String.join(":", validatorName, e.toString())));
+        LOG.error("{} failed.", validatorName, e);
+        failedValidators.add(validator);
+    }
+
+    /** The rows read by the scan are counted here, but the errors are stored by the validators it ran. */
+    @Override
+    public int getErrorsRegistered () {
+        int errorCount = super.getErrorsRegistered();
+        for (EntityValidator validator : entityValidators) errorCount += validator.getErrorsRegistered();
+        return errorCount;
+    }
+
+    /**
+     * Completing the scan means completing each of the validators it ran, except those that failed during the scan.
+     */
+    @Override
+    public void complete (ValidationResult validationResult) {
+        for (EntityValidator validator : entityValidators) {
+            if (failedValidators.contains(validator)) continue;
+            long startTime = System.currentTimeMillis();
+            validator.complete(validationResult);
+            completeMillis.put(validator, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /** @return one row of metrics for each of the validators run by the scan, in the order they were supplied. */
+    @Override
+    public List<ValidatorMetrics> getComponentMetrics () {
+        List<ValidatorMetrics> componentMetrics = new ArrayList<>();
+        for (EntityValidator validator : entityValidators) {
+            ValidatorMetrics metrics = new ValidatorMetrics(validator, this);
+            metrics.validateMillis = TimeUnit.NANOSECONDS.toMillis(visitNanos.getOrDefault(validator, 0L));
+            metrics.completeMillis = completeMillis.getOrDefault(validator, 0L);
+            metrics.rowsScanned = validator.getRowsScanned();
+            metrics.errorCount = validator.getErrorsRegistered();
+            componentMetrics.add(metrics);
+        }
+        return componentMetrics;
+    }
+
+}
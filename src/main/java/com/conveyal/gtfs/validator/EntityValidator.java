@@ -0,0 +1,55 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.error.SQLErrorStorage;
+import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.Table;
+import com.conveyal.gtfs.model.Agency;
+import com.conveyal.gtfs.model.FareAttribute;
+import com.conveyal.gtfs.model.Stop;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A feed validator that checks the rows of some tables one at a time. Rather than reading the tables itself, it
+ * declares which tables it visits and receives their rows through the visit methods. When a feed is validated, all of
+ * its EntityValidators are handed to a single {@link EntityScanValidator}, which reads each table once and dispatches
+ * every row to all the validators that visit that table. Subclasses override the visit methods for the tables they
+ * declare.
+ */
+public abstract class EntityValidator extends FeedValidator {
+
+    private final Set<Table> visitedTables;
+
+    /**
+     * @param visitedTables the tables whose rows this validator should receive, which must be among those scanned by
+     *                      {@link EntityScanValidator}.
+     */
+    public EntityValidator (Feed feed, SQLErrorStorage errorStorage, Table... visitedTables) {
+        super(feed, errorStorage);
+        this.visitedTables = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(visitedTables)));
+    }
+
+    /** @return the tables whose rows this validator should receive. */
+    public Set<Table> getVisitedTables () {
+        return visitedTables;
+    }
+
+    /**
+     * Validate this feed with no other EntityValidators. This only happens when the validator is run on its own,
+     * because when a whole feed is validated the tables are scanned by an {@link EntityScanValidator} instead.
+     */
+    @Override
+    public void validate () {
+        new EntityScanValidator(feed, errorStorage, Collections.singletonList(this)).validate();
+    }
+
+    public void visitAgency (Agency agency) { }
+
+    public void visitStop (Stop stop) { }
+
+    public void visitFareAttribute (FareAttribute fareAttribute) { }
+
+}
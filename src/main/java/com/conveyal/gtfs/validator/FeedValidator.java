@@ -3,6 +3,9 @@ package com.conveyal.gtfs.validator;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * A subtype of validator that can validate the entire feed at once.
  */
@@ -15,4 +18,12 @@ public abstract class FeedValidator extends Validator {
     /** The main extension point. Each subsclass must define this method. */
     public abstract void validate ();
 
+    /**
+     * @return the metrics of each of the validators that this one runs on its behalf, which are reported alongside its
+     * own. Only called once this validator has completed. Most validators do not run any others.
+     */
+    public List<ValidatorMetrics> getComponentMetrics () {
+        return Collections.emptyList();
+    }
+
 }
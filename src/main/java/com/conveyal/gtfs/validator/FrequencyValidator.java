@@ -3,74 +3,64 @@ package com.conveyal.gtfs.validator;
 import com.conveyal.gtfs.error.NewGTFSErrorType;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
-import com.conveyal.gtfs.model.Frequency;
-import com.conveyal.gtfs.model.Route;
-import com.conveyal.gtfs.model.Stop;
-import com.conveyal.gtfs.model.StopTime;
-import com.conveyal.gtfs.model.Trip;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Multimap;
+import com.conveyal.gtfs.loader.Table;
 
-import java.util.Collection;
-import java.util.List;
-
-public class FrequencyValidator extends FeedValidator {
+public class FrequencyValidator extends SQLRuleValidator {
 
     /**
      * Validate frequency entries to ensure that there are no overlapping frequency periods defined for a single trip.
+     * Each frequency (A) is compared by the database with every later frequency (B) for the same trip, and an error is
+     * reported against A for each frequency it overlaps.
      * @param feed
      * @param errorStorage
      */
     public FrequencyValidator(Feed feed, SQLErrorStorage errorStorage) {
         super(feed, errorStorage);
+        // Frequency A is aliased as t and frequency B as b.
+        String overlaps = String.join(" or ",
+            // -- diagrams courtesy of esiroky --
+            // A wraps B.
+            // A: |---------|
+            // B: ___|--|____
+            "(b.start_time >= t.start_time and b.end_time <= t.end_time)",
+            // B wraps A.
+            // A: ___|--|____
+            // B: |---------|
+            "(t.start_time >= b.start_time and t.end_time <= b.end_time)",
+            // A starts during B, but ends after B ends.
+            // A: ____|-----|
+            // B: _|----|____
+            "(t.start_time >= b.start_time and t.start_time < b.end_time)",
+            // B starts during A, but ends after A ends
+            // A: _|----|____
+            // B: ____|-----|
+            "(t.end_time > b.start_time and t.end_time <= b.end_time)"
+        );
+        addRule(SQLValidationRule.forTable(Table.FREQUENCIES, NewGTFSErrorType.FREQUENCY_PERIOD_OVERLAP, overlaps)
+            // Compare each pair of frequencies only once, in the order they appear in the feed.
+            .join(Table.FREQUENCIES, "b", "b.trip_id = t.trip_id and b.id > t.id")
+            .orderBy("t.id, b.id")
+            .setEntityId(frequencyId("t")));
     }
 
-    private ListMultimap<String, Frequency> frequenciesById = ArrayListMultimap.create();
+    /**
+     * @return an SQL expression for the ID of a frequency, in the same form as Frequency#getId, e.g.
+     * trip_08:30:00_to_10:15:00_every_15m00s.
+     */
+    private static String frequencyId (String alias) {
+        return String.join(" || ",
+            alias + ".trip_id",
+            "'_'", gtfsTime(alias + ".start_time"),
+            "'_to_'", gtfsTime(alias + ".end_time"),
+            "'_every_'", String.format("(%s.headway_secs / 60)", alias),
+            "'m'", String.format("lpad((%s.headway_secs %% 60)::text, 2, '0')", alias),
+            "'s'", String.format("(case when %s.exact_times = 1 then '_exact' else '' end)", alias)
+        );
+    }
 
-    @Override
-    public void validate() {
-        // First, collect all frequencies for each trip ID.
-        for (Frequency frequency: feed.frequencies) frequenciesById.put(frequency.trip_id, frequency);
-        // Next iterate over each set of trip-specific frequency periods.
-        for (String tripId : frequenciesById.keySet()) {
-            List<Frequency> frequencies = frequenciesById.get(tripId);
-            if (frequencies.size() <= 1) {
-                // If there are not more than one frequencies defined for the trip, there can be no risk of overlapping
-                // frequency intervals.
-                return;
-            }
-            // Iterate over each frequency and check its period against the others for overlap.
-            for (int i = 0; i < frequencies.size() - 1; i++) {
-                Frequency a = frequencies.get(i);
-                // Iterate over the other frequencies starting with i + 1 to avoid checking against self and re-checking
-                // previous pairs.
-                for (int j = i + 1; j < frequencies.size(); j++) {
-                    Frequency b = frequencies.get(j);
-                    if (
-                        // -- diagrams courtesy of esiroky --
-                        // A wraps B.
-                        // A: |---------|
-                        // B: ___|--|____
-                        b.start_time >= a.start_time && b.end_time <= a.end_time ||
-                        // B wraps A.
-                        // A: ___|--|____
-                        // B: |---------|
-                        a.start_time >= b.start_time && a.end_time <= b.end_time ||
-                        // A starts during B, but ends after B ends.
-                        // A: ____|-----|
-                        // B: _|----|____
-                        a.start_time >= b.start_time && a.start_time < b.end_time ||
-                        // B starts during A, but ends after A ends
-                        // A: _|----|____
-                        // B: ____|-----|
-                        a.end_time > b.start_time && a.end_time <= b.end_time
-                    ) {
-                        registerError(a, NewGTFSErrorType.FREQUENCY_PERIOD_OVERLAP);
-                    }
-                }
-            }
-        }
+    /** @return an SQL expression formatting a number of seconds since midnight as HH:MM:SS. */
+    private static String gtfsTime (String seconds) {
+        return String.format("lpad((%1$s / 3600)::text, 2, '0') || ':' || lpad((%1$s %% 3600 / 60)::text, 2, '0') " +
+            "|| ':' || lpad((%1$s %% 60)::text, 2, '0')", seconds);
     }
 }
@@ -32,10 +32,11 @@ public class MisplacedStopValidator extends FeedValidator {
         // Look for outliers
         DescriptiveStatistics latStats = new DescriptiveStatistics();
         DescriptiveStatistics lonStats = new DescriptiveStatistics();
-        for (Stop stop : feed.stops) {
+        for (Stop stop : feed.getCache().getStops()) {
             latStats.addValue(stop.stop_lat);
             lonStats.addValue(stop.stop_lon);
         }
+        countRowsScanned(latStats.getN());
         double latLoP = latStats.getPercentile(10);
         double latHiP = latStats.getPercentile(90);
         double latRange = latHiP - latLoP;
@@ -69,7 +70,7 @@ public class MisplacedStopValidator extends FeedValidator {
 
         // determine if a stop is in a low population grid cell or is an outlier
         BooleanAsciiGrid populationGrid = BooleanAsciiGrid.forEarthPopulation();
-        for (Stop stop : feed.stops) {
+        for (Stop stop : feed.getCache().getStops()) {
             boolean stopInPopulatedArea = populationGrid.getValueForCoords(stop.stop_lon, stop.stop_lat);
             if (!stopInPopulatedArea) {
                 registerError(stop, STOP_LOW_POPULATION_DENSITY, getCoordString(stop));
@@ -1,22 +1,39 @@
 package com.conveyal.gtfs.validator;
 
+import com.conveyal.gtfs.error.NewGTFSErrorType;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
-import com.conveyal.gtfs.model.Entity;
+import com.conveyal.gtfs.loader.FeedCache;
+import com.conveyal.gtfs.loader.TripStopTimes;
+import com.conveyal.gtfs.loader.TripStopTimesCursor;
 import com.conveyal.gtfs.model.Route;
-import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.CONDITIONALLY_REQUIRED;
+import static com.conveyal.gtfs.error.NewGTFSErrorType.FEED_TRAVEL_TIMES_ROUNDED;
 import static com.conveyal.gtfs.error.NewGTFSErrorType.MISSING_ARRIVAL_OR_DEPARTURE;
 import static com.conveyal.gtfs.error.NewGTFSErrorType.TRIP_TOO_FEW_STOP_TIMES;
 
@@ -32,79 +49,302 @@ public class NewTripTimesValidator extends FeedValidator {
 
     private static final Logger LOG = LoggerFactory.getLogger(NewTripTimesValidator.class);
 
+    /** The number of trips handed to a worker thread at once when validating trips in parallel. */
+    private static final int TRIP_BATCH_SIZE = 1000;
+
+    /**
+     * The types of error registered on individual trips or their stop times (with the trip ID as the entity ID) by
+     * this validator and the trip validators that run when revalidating a subset of trips.
+     */
+    public static final Set<NewGTFSErrorType> TRIP_LEVEL_ERROR_TYPES;
+    static {
+        Set<NewGTFSErrorType> errorTypes =
+            EnumSet.of(TRIP_TOO_FEW_STOP_TIMES, MISSING_ARRIVAL_OR_DEPARTURE, CONDITIONALLY_REQUIRED);
+        errorTypes.addAll(SpeedTripValidator.TRIP_LEVEL_ERROR_TYPES);
+        TRIP_LEVEL_ERROR_TYPES = Collections.unmodifiableSet(errorTypes);
+    }
+
+    /**
+     * The entity types of the errors registered on individual trips or their stop times. Some of the trip-level error
+     * types (e.g. CONDITIONALLY_REQUIRED) are also registered on other tables when the feed is loaded, so errors must
+     * be matched on their entity type as well as their error type to find those concerning trips.
+     */
+    public static final Set<String> TRIP_LEVEL_ENTITY_TYPES = Collections.unmodifiableSet(
+        new HashSet<>(Arrays.asList(Trip.class.getSimpleName(), StopTime.class.getSimpleName()))
+    );
+
     int tripCount = 0;
 
-    // Caching stops and trips gives a massive speed improvement by avoiding database calls.
-    // TODO build this same kind of caching into the table reader class.
-//    ListMultimap<String, ShapePoint> shapeById = MultimapBuilder.treeKeys().arrayListValues().build();
-    Map<String, Stop> stopById = new HashMap<>();
-    Map<String, Trip> tripById = new HashMap<>();
-    Map<String, Route> routeById = new HashMap<>();
+    // Caching stops and trips gives a massive speed improvement by avoiding database calls. These are shared with the
+    // other validators through the feed's cache, except when revalidating a subset of trips.
+    private FeedCache feedCache;
+    private Map<String, Trip> tripById;
+    private Map<String, Route> routeById;
 
     // As an optimization, these validators are fed the stoptimes for each trip to avoid repeated iteration and grouping.
     private final TripValidator[] tripValidators;
 
+    // The speed validator among the trip validators, which is handed the distances between the cached stops.
+    private final SpeedTripValidator speedTripValidator;
+
+    // The time spent by each trip validator (and its accumulators) validating trips, summed over all threads.
+    private final LongAdder[] validateTripNanos;
+
+    // The time spent by each trip validator in its complete() phase.
+    private final long[] completeMillis;
+
+    // The number of worker threads validating batches of trips. If one, all trips are validated on the scanning thread.
+    private final int nThreads;
+
+    // The number of trips handed to a worker thread at once, only changed by tests to exercise merging many batches.
+    private int tripBatchSize = TRIP_BATCH_SIZE;
+
+    // If not null, only these trips are validated, and only with the checks that apply to individual trips.
+    private final Set<String> tripIdsToRevalidate;
+
+    // The checks to run, null when revalidating a subset of trips.
+    private final ValidationProfile profile;
+
+    // Whether the stop times of each trip were handed to this validator while the feed was loaded, in which case they
+    // are not read back from the database when the feed is validated.
+    private boolean tripsValidatedDuringLoad = false;
+
+    // The IDs of the errors stored while validating trips during loading, as ranges of consecutive IDs (alternating
+    // first ID and end ID), so that they can be deleted if those results have to be discarded.
+    private final TIntList loadErrorIdRanges = new TIntArrayList();
+
     public NewTripTimesValidator(Feed feed, SQLErrorStorage errorStorage) {
+        this(feed, errorStorage, false);
+    }
+
+    public NewTripTimesValidator(Feed feed, SQLErrorStorage errorStorage, boolean validateTripsInParallel) {
+        this(feed, errorStorage, validateTripsInParallel, ValidationProfile.FULL);
+    }
+
+    /**
+     * @param validateTripsInParallel if true, trips are grouped on the scanning thread and validated in batches by a pool
+     *                                of worker threads, each batch with its own set of trip validator accumulators.
+     * @param profile                 determines whether trips are compared with their shapes and whether the derived
+     *                                tables are rebuilt.
+     */
+    public NewTripTimesValidator(
+        Feed feed,
+        SQLErrorStorage errorStorage,
+        boolean validateTripsInParallel,
+        ValidationProfile profile
+    ) {
         super(feed, errorStorage);
-        tripValidators = new TripValidator[] {
-            new SpeedTripValidator(feed, errorStorage),
-            new ReferencesTripValidator(feed, errorStorage),
-            new ReversedTripValidator(feed, errorStorage),
-            new ServiceValidator(feed, errorStorage),
-            new PatternFinderValidator(feed, errorStorage)
-        };
+        nThreads = validateTripsInParallel ? Runtime.getRuntime().availableProcessors() : 1;
+        tripIdsToRevalidate = null;
+        this.profile = profile;
+        List<TripValidator> validators = new ArrayList<>();
+        speedTripValidator = new SpeedTripValidator(feed, errorStorage);
+        validators.add(speedTripValidator);
+        validators.add(new ReferencesTripValidator(feed, errorStorage));
+        if (profile.checkShapes) validators.add(new ReversedTripValidator(feed, errorStorage));
+        if (profile.rebuildDerivedTables) {
+            validators.add(new ServiceValidator(feed, errorStorage));
+            validators.add(new PatternFinderValidator(feed, errorStorage));
+        }
+        tripValidators = validators.toArray(new TripValidator[0]);
+        validateTripNanos = newTimers(tripValidators.length);
+        completeMillis = new long[tripValidators.length];
+    }
+
+    /**
+     * Create a validator that revalidates only the given trips (e.g. those affected by edits), replacing any errors
+     * previously stored for them. Only the checks that concern a single trip are run. Checks that need to see every trip
+     * in the feed (unused stops, services, blocks and patterns) are left to the next validation of the whole feed.
+     */
+    public NewTripTimesValidator(Feed feed, SQLErrorStorage errorStorage, Set<String> tripIdsToRevalidate) {
+        super(feed, errorStorage);
+        nThreads = 1;
+        this.tripIdsToRevalidate = tripIdsToRevalidate;
+        this.profile = null;
+        boolean feedTravelTimesRounded = errorStorage.getErrorCount(FEED_TRAVEL_TIMES_ROUNDED) > 0;
+        speedTripValidator = new SpeedTripValidator(feed, errorStorage, feedTravelTimesRounded);
+        tripValidators = new TripValidator[] { speedTripValidator };
+        validateTripNanos = newTimers(tripValidators.length);
+        completeMillis = new long[tripValidators.length];
+    }
+
+    private static LongAdder[] newTimers (int count) {
+        LongAdder[] timers = new LongAdder[count];
+        for (int i = 0; i < count; i++) timers[i] = new LongAdder();
+        return timers;
     }
 
     @Override
     public void validate () {
-        // TODO cache automatically in feed or TableReader object
+        if (tripsValidatedDuringLoad) {
+            LOG.info("The stop times of {} trips were validated while the feed was loaded.", tripCount);
+            return;
+        }
+        cacheEntities();
+        if (tripIdsToRevalidate != null) {
+            LOG.info("Revalidating {} trips.", tripIdsToRevalidate.size());
+            errorStorage.deleteErrors(TRIP_LEVEL_ERROR_TYPES, TRIP_LEVEL_ENTITY_TYPES, tripIdsToRevalidate);
+        }
+        if (nThreads > 1) {
+            validateTripsInParallel();
+        } else {
+            forEachTrip(stopTimesForTrip -> processTrip(stopTimesForTrip, tripValidators));
+        }
+    }
+
+    private void cacheEntities () {
         LOG.info("Cacheing stops, trips, and routes...");
-        for (Stop stop : feed.stops) stopById.put(stop.stop_id, stop);
-        // FIXME: determine a good way to validate shapes without caching them all in memory...
-//        for (ShapePoint shape : feed.shapePoints.getAllOrdered()) shapeById.put(shape.shape_id, shape);
-        for (Trip trip: feed.trips) tripById.put(trip.trip_id, trip);
-        for (Route route: feed.routes) routeById.put(route.route_id, route);
+        // When revalidating a few trips, only the entities they refer to are needed rather than the whole feed's.
+        feedCache = tripIdsToRevalidate == null ? feed.getCache() : new FeedCache(feed, tripIdsToRevalidate);
+        feedCache.getStops();
+        // Shapes are not cached: ReversedTripValidator streams through them once all trips have been seen.
+        tripById = feedCache.getTripById();
+        routeById = feedCache.getRouteById();
+        speedTripValidator.setHopDistances(feedCache.getHopDistances());
         LOG.info("Done.");
-        // Accumulate StopTimes with the same trip_id into a list, then process each trip separately.
-        List<StopTime> stopTimesForTrip = new ArrayList<>();
-        String previousTripId = null;
-        // Order stop times by trip ID and sequence number (i.e. scan through the stops in each trip in order)
-        for (StopTime stopTime : feed.stopTimes.getAllOrdered()) {
-            // All bad references should already be caught elsewhere, this should just be a continue
-            if (stopTime.trip_id == null) continue;
-            if (!stopTime.trip_id.equals(previousTripId) && !stopTimesForTrip.isEmpty()) {
-                processTrip(stopTimesForTrip);
-                stopTimesForTrip.clear();
-            }
-            stopTimesForTrip.add(stopTime);
-            previousTripId = stopTime.trip_id;
+    }
+
+    /**
+     * Prepare to receive the stop times of each trip while the feed is being loaded (see
+     * {@link com.conveyal.gtfs.loader.JdbcGtfsLoader#validateTripsWhileLoading}), instead of reading them back from the
+     * stop_times table when the feed is validated. The stops, routes and trips must already have been loaded.
+     */
+    public void beginValidatingLoadedTrips () {
+        cacheEntities();
+        tripsValidatedDuringLoad = true;
+    }
+
+    /**
+     * Validate the stop times of one trip as it is being loaded (see {@link #beginValidatingLoadedTrips()}). The IDs of
+     * any errors stored are recorded, so that they can be deleted by {@link #discardLoadedTrips(SQLErrorStorage)}.
+     */
+    public void validateLoadedTrip (TripStopTimes stopTimesForTrip) {
+        if (++tripCount % 20_000 == 0) LOG.info("Validating trip {}", tripCount);
+        countRowsScanned(stopTimesForTrip.size);
+        int firstErrorId = errorStorage.getNextErrorId();
+        processTrip(stopTimesForTrip, tripValidators);
+        int endErrorId = errorStorage.getNextErrorId();
+        if (endErrorId == firstErrorId) return;
+        int lastRange = loadErrorIdRanges.size() - 2;
+        if (lastRange >= 0 && loadErrorIdRanges.get(lastRange + 1) == firstErrorId) {
+            // Extend the previous range, as the loader stored no errors in between.
+            loadErrorIdRanges.set(lastRange + 1, endErrorId);
+        } else {
+            loadErrorIdRanges.add(firstErrorId);
+            loadErrorIdRanges.add(endErrorId);
         }
-        if (!stopTimesForTrip.isEmpty()) processTrip(stopTimesForTrip);
     }
 
-    protected static boolean missingEitherTime (StopTime stopTime) {
-        return (stopTime.arrival_time == Entity.INT_MISSING || stopTime.departure_time == Entity.INT_MISSING);
+    /**
+     * Delete the errors stored while validating trips during loading, e.g. because the stop times of the feed turned out
+     * not to be grouped by trip. The trip validators will then only have seen some of the trips, so this validator must
+     * be thrown away and the feed validated with a new one.
+     */
+    public void discardLoadedTrips (SQLErrorStorage errorStorage) {
+        int nRanges = loadErrorIdRanges.size() / 2;
+        LOG.info("Discarding the results of validating {} trips while loading.", tripCount);
+        if (nRanges == 0) return;
+        int[] firstIds = new int[nRanges];
+        int[] endIds = new int[nRanges];
+        for (int r = 0; r < nRanges; r++) {
+            firstIds[r] = loadErrorIdRanges.get(r * 2);
+            endIds[r] = loadErrorIdRanges.get(r * 2 + 1);
+        }
+        errorStorage.deleteErrorsInRanges(firstIds, endIds);
     }
 
-    protected static boolean missingBothTimes(StopTime stopTime) {
-        return (stopTime.arrival_time == Entity.INT_MISSING && stopTime.departure_time == Entity.INT_MISSING);
+    /**
+     * Continue validating a feed whose trips were validated while it was loaded, storing any further errors (e.g. from
+     * the complete() phase) in the given error storage, as the one used while loading is closed once loading finishes.
+     */
+    public void resumeAfterLoading (SQLErrorStorage errorStorage) {
+        this.errorStorage = errorStorage;
+        for (TripValidator tripValidator : tripValidators) tripValidator.errorStorage = errorStorage;
+    }
+
+    /** Set the number of trips validated per batch in parallel mode, so that tests can split small feeds into batches. */
+    void setTripBatchSize (int tripBatchSize) {
+        this.tripBatchSize = tripBatchSize;
+    }
+
+    /** @return whether the stop times of each trip were handed to this validator while the feed was loaded. */
+    public boolean tripsValidatedDuringLoad () {
+        return tripsValidatedDuringLoad;
+    }
+
+    /** @return the checks run by this validator, or null if it only revalidates a subset of the trips. */
+    public ValidationProfile getProfile () {
+        return profile;
+    }
+
+    /**
+     * Scan through all stop times in the feed, ordered by trip ID and stop sequence, reading the stop times of each trip
+     * into columns and handing them to the supplied handler. The same TripStopTimes instance is refilled for every
+     * trip, so the handler must copy it if it needs to keep it beyond the call.
+     */
+    private void forEachTrip (Consumer<TripStopTimes> tripHandler) {
+        TripStopTimes stopTimesForTrip = new TripStopTimes(feedCache.getStops());
+        // Order stop times by trip ID and sequence number (i.e. scan through the stops in each trip in order)
+        try (TripStopTimesCursor cursor = new TripStopTimesCursor(feed, feedCache, tripIdsToRevalidate)) {
+            while (cursor.next(stopTimesForTrip)) {
+                if (++tripCount % 20_000 == 0) LOG.info("Validating trip {}", tripCount);
+                countRowsScanned(stopTimesForTrip.size);
+                tripHandler.accept(stopTimesForTrip);
+            }
+        }
     }
 
     /**
-     * If the StopTime is missing one of arrival or departure time, copy from the other field.
-     * @return whether one of the times was missing.
+     * Group trips into batches on the scanning thread and validate each batch on a worker thread, using a fresh set of
+     * trip validator accumulators per batch. Batches are merged back into the main trip validators in the order they
+     * were read, which keeps results (e.g. pattern IDs) identical to a serial run. The number of batches in flight is
+     * bounded so that the scan cannot get too far ahead of the workers.
      */
-    protected static boolean fixMissingTimes (StopTime stopTime) {
-        boolean missing = false;
-        if (stopTime.arrival_time == Entity.INT_MISSING) {
-            stopTime.arrival_time = stopTime.departure_time;
-            missing = true;
+    private void validateTripsInParallel () {
+        LOG.info("Validating trips on {} threads.", nThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        Deque<Future<TripValidator[]>> pendingBatches = new ArrayDeque<>();
+        try {
+            List<TripStopTimes> batch = new ArrayList<>();
+            forEachTrip(stopTimesForTrip -> {
+                // The cursor reuses its arrays for the next trip, so each batched trip needs its own copy.
+                batch.add(stopTimesForTrip.copy());
+                if (batch.size() >= tripBatchSize) {
+                    pendingBatches.addLast(submitBatch(executor, new ArrayList<>(batch)));
+                    batch.clear();
+                    // Block on the oldest batch if too many are waiting, to bound memory consumption.
+                    if (pendingBatches.size() > nThreads * 2) mergeBatch(pendingBatches.removeFirst());
+                }
+            });
+            if (!batch.isEmpty()) pendingBatches.addLast(submitBatch(executor, batch));
+            while (!pendingBatches.isEmpty()) mergeBatch(pendingBatches.removeFirst());
+        } finally {
+            executor.shutdownNow();
         }
-        if (stopTime.departure_time == Entity.INT_MISSING) {
-            stopTime.departure_time = stopTime.arrival_time;
-            missing = true;
+    }
+
+    private Future<TripValidator[]> submitBatch (ExecutorService executor, List<TripStopTimes> batch) {
+        return executor.submit(() -> {
+            TripValidator[] accumulators = new TripValidator[tripValidators.length];
+            for (int i = 0; i < tripValidators.length; i++) accumulators[i] = tripValidators[i].newAccumulator();
+            for (TripStopTimes stopTimesForTrip : batch) processTrip(stopTimesForTrip, accumulators);
+            return accumulators;
+        });
+    }
+
+    private void mergeBatch (Future<TripValidator[]> pendingBatch) {
+        try {
+            TripValidator[] accumulators = pendingBatch.get();
+            for (int i = 0; i < tripValidators.length; i++) {
+                // Stateless validators return themselves as accumulators, there is nothing to merge.
+                if (accumulators[i] != tripValidators[i]) {
+                    tripValidators[i].mergeAccumulator(accumulators[i]);
+                    tripValidators[i].addCounts(accumulators[i]);
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
         }
-        return missing;
     }
 
     /**
@@ -112,13 +352,14 @@ public class NewTripTimesValidator extends FeedValidator {
      * If has only one or the other, we infer them. If it's missing both we have a problem.
      * @return whether the error is not recoverable because both stoptimes are missing.
      */
-    private boolean fixInitialFinal (StopTime stopTime) {
-        if (missingEitherTime(stopTime)) {
-            registerError(stopTime, MISSING_ARRIVAL_OR_DEPARTURE);
-            fixMissingTimes(stopTime);
-            if (missingEitherTime(stopTime)) {
+    private boolean fixInitialFinal (TripStopTimes stopTimes, int i) {
+        if (stopTimes.missingEitherTime(i)) {
+            registerError(stopTimes.errorFor(i, MISSING_ARRIVAL_OR_DEPARTURE));
+            stopTimes.fixMissingTimes(i);
+            if (stopTimes.missingEitherTime(i)) {
                 //TODO: Is this even needed? Already covered by MISSING_ARRIVAL_OR_DEPARTURE.
-                registerError(stopTime, CONDITIONALLY_REQUIRED, "First and last stop times are required to have both an arrival and departure time.");
+                registerError(stopTimes.errorFor(i, CONDITIONALLY_REQUIRED)
+                    .setBadValue("First and last stop times are required to have both an arrival and departure time."));
                 return true;
             }
         }
@@ -126,15 +367,13 @@ public class NewTripTimesValidator extends FeedValidator {
     }
 
     /**
-     * This validates an ordered list of stopTimes for a single trip.
-     * @param stopTimes must all have the same trip_id and be in order of increasing stop_sequence
+     * This validates the stop times for a single trip, which must be in order of increasing stop_sequence.
+     * @param validators the trip validators (or per-batch accumulators) that will receive this trip.
      */
-    private void processTrip (List<StopTime> stopTimes) {
-        if (++tripCount % 20_000 == 0) LOG.info("Validating trip {}", tripCount);
+    private void processTrip (TripStopTimes stopTimes, TripValidator[] validators) {
         // All stop times have the same trip_id, so we look it up right away.
         // FIXME: gtfs_load error if there are no stop times? / feed=Birnie_Bus_20141105T102949-05_24e99790-211d-4f92-b1d2-147e6f3d5040.zip
-        String tripId = stopTimes.get(0).trip_id;
-        Trip trip = tripById.get(tripId);
+        Trip trip = tripById.get(stopTimes.tripId);
         if (trip == null) {
             // This feed does not contain a trip with the ID specified in these stop_times.
             // This error should already have been caught TODO verify.
@@ -142,36 +381,28 @@ public class NewTripTimesValidator extends FeedValidator {
         }
 
         // Our code should only call this method with non-null stopTimes.
-        if (stopTimes.size() < 2) {
+        if (stopTimes.size < 2) {
             registerError(trip, TRIP_TOO_FEW_STOP_TIMES);
             return;
         }
         boolean hasContinuousBehavior = false;
-        // Make a parallel list of stops based on the stop_times for this trip.
-        // We will remove any stop_times for stops that don't exist in the feed.
-        // We could ask the SQL server to do the join between stop_times and stops, but we want to check references.
-        List<Stop> stops = new ArrayList<>();
-        for (Iterator<StopTime> it = stopTimes.iterator(); it.hasNext(); ) {
-            StopTime stopTime = it.next();
-            if (hasContinuousBehavior(stopTime.continuous_drop_off, stopTime.continuous_pickup)) {
+        for (int i = 0; i < stopTimes.size; i++) {
+            if (hasContinuousBehavior(stopTimes.continuousDropOffs[i], stopTimes.continuousPickups[i])) {
                 hasContinuousBehavior = true;
             }
-            Stop stop = stopById.get(stopTime.stop_id);
-            if (stop == null) {
-                // All bad references should have been recorded at import, we can just remove them from the trips.
-                it.remove();
-            } else {
-                stops.add(stop);
-            }
         }
-        // StopTimes list may have shrunk due to missing stop references.
-        if (stopTimes.size() < 2) return;
+        // Remove any stop_times for stops that don't exist in the feed. All bad references should have been recorded
+        // at import. We could ask the SQL server to do the join between stop_times and stops, but we want to check
+        // references.
+        stopTimes.removeMissingStops();
+        // StopTimes may have shrunk due to missing stop references.
+        if (stopTimes.size < 2) return;
         // Check that first and last stop times are not missing values and repair them.
         // Note that this repair will be seen by the validators but not saved in the database.
-        fixInitialFinal(stopTimes.get(0));
-        fixInitialFinal(stopTimes.get(stopTimes.size() - 1));
+        fixInitialFinal(stopTimes, 0);
+        fixInitialFinal(stopTimes, stopTimes.size - 1);
         // Repair the case where an arrival or departure time is provided, but not both.
-        for (StopTime stopTime : stopTimes) fixMissingTimes(stopTime);
+        for (int i = 0; i < stopTimes.size; i++) stopTimes.fixMissingTimes(i);
         // TODO check characteristics of timepoints
         // All bad references should have been recorded at import and null trip check is handled above, we can just
         // ignore nulls.
@@ -188,21 +419,58 @@ public class NewTripTimesValidator extends FeedValidator {
                 "shape_id is required when a trip has continuous behavior defined."
             );
         }
-        // Pass these same cleaned lists of stop_times and stops into each trip validator in turn.
-        for (TripValidator tripValidator : tripValidators) tripValidator.validateTrip(trip, route, stopTimes, stops);
+        // Pass these same cleaned stop_times into each trip validator in turn.
+        for (int i = 0; i < validators.length; i++) {
+            long startTime = System.nanoTime();
+            validators[i].validateTrip(trip, route, stopTimes);
+            validateTripNanos[i].add(System.nanoTime() - startTime);
+        }
+    }
+
+    /** Include the rows read and errors stored by the trip validators, e.g. while checking shapes. */
+    @Override
+    public long getRowsScanned () {
+        long rowCount = super.getRowsScanned();
+        for (TripValidator tripValidator : tripValidators) rowCount += tripValidator.getRowsScanned();
+        return rowCount;
+    }
+
+    @Override
+    public int getErrorsRegistered () {
+        int errorCount = super.getErrorsRegistered();
+        for (TripValidator tripValidator : tripValidators) errorCount += tripValidator.getErrorsRegistered();
+        return errorCount;
     }
 
     /**
      * Completing this feed validator means completing each of its constituent trip validators.
      */
     public void complete (ValidationResult validationResult) {
-        for (TripValidator tripValidator : tripValidators) {
+        for (int i = 0; i < tripValidators.length; i++) {
+            TripValidator tripValidator = tripValidators[i];
             LOG.info("Running complete stage for {}", tripValidator.getClass().getSimpleName());
+            long startTime = System.currentTimeMillis();
             tripValidator.complete(validationResult);
+            completeMillis[i] = System.currentTimeMillis() - startTime;
             LOG.info("{} finished", tripValidator.getClass().getSimpleName());
         }
     }
 
+    /** @return one row of metrics for each of the trip validators, in the order they receive each trip. */
+    @Override
+    public List<ValidatorMetrics> getComponentMetrics () {
+        List<ValidatorMetrics> componentMetrics = new ArrayList<>();
+        for (int i = 0; i < tripValidators.length; i++) {
+            ValidatorMetrics metrics = new ValidatorMetrics(tripValidators[i], this);
+            metrics.validateMillis = TimeUnit.NANOSECONDS.toMillis(validateTripNanos[i].sum());
+            metrics.completeMillis = completeMillis[i];
+            metrics.rowsScanned = tripValidators[i].getRowsScanned();
+            metrics.errorCount = tripValidators[i].getErrorsRegistered();
+            componentMetrics.add(metrics);
+        }
+        return componentMetrics;
+    }
+
     /**
      * Determine if a trip has continuous behaviour by checking the values that have been defined for continuous drop
      * off and pickup.
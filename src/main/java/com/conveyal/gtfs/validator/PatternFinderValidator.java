@@ -1,12 +1,17 @@
 package com.conveyal.gtfs.validator;
 
 import com.conveyal.gtfs.PatternFinder;
+import com.conveyal.gtfs.PatternHopStats;
+import com.conveyal.gtfs.PatternHopStats.TimeDistribution;
 import com.conveyal.gtfs.TripPatternKey;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.BatchTracker;
+import com.conveyal.gtfs.loader.DerivedTableWriter;
 import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.PatternSignatures;
 import com.conveyal.gtfs.loader.Requirement;
 import com.conveyal.gtfs.loader.Table;
+import com.conveyal.gtfs.loader.TripStopTimes;
 import com.conveyal.gtfs.model.Pattern;
 import com.conveyal.gtfs.model.PatternStop;
 import com.conveyal.gtfs.model.Route;
@@ -17,21 +22,15 @@ import org.apache.commons.dbutils.DbUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.PrintStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static com.conveyal.gtfs.loader.JdbcGtfsLoader.copyFromFile;
 import static com.conveyal.gtfs.model.Entity.INT_MISSING;
 import static com.conveyal.gtfs.model.Entity.setDoubleParameter;
 import static com.conveyal.gtfs.model.Entity.setIntParameter;
@@ -46,9 +45,6 @@ public class PatternFinderValidator extends TripValidator {
     private static final Logger LOG = LoggerFactory.getLogger(PatternFinderValidator.class);
 
     PatternFinder patternFinder;
-    private File tempPatternForTripsTextFile;
-    private PrintStream patternForTripsFileStream;
-    private String tempPatternForTripsTable;
 
     public PatternFinderValidator(Feed feed, SQLErrorStorage errorStorage) {
         super(feed, errorStorage);
@@ -61,15 +57,30 @@ public class PatternFinderValidator extends TripValidator {
         patternFinder.processTrip(trip, stopTimes);
     }
 
+    @Override
+    public void validateTrip (Trip trip, Route route, TripStopTimes stopTimes) {
+        patternFinder.processTrip(trip, stopTimes);
+    }
+
+    @Override
+    public TripValidator newAccumulator () {
+        return new PatternFinderValidator(feed, errorStorage);
+    }
+
+    @Override
+    public void mergeAccumulator (TripValidator accumulator) {
+        patternFinder.merge(((PatternFinderValidator) accumulator).patternFinder);
+    }
+
     /**
      * Store patterns and pattern stops in the database. Also, update the trips table with a pattern_id column.
      */
     @Override
     public void complete(ValidationResult validationResult) {
         LOG.info("Finding patterns...");
-        // FIXME: There may be a better way to handle getting the full list of stops
+        // The stops are already held in the feed's cache, this only indexes them by ID for pattern naming.
         Map<String, Stop> stopById = new HashMap<>();
-        for (Stop stop : feed.stops) {
+        for (Stop stop : feed.getCache().getStops()) {
             stopById.put(stop.stop_id, stop);
         }
         // FIXME In the editor we need patterns to exist separately from and before trips themselves, so me make another table.
@@ -102,51 +113,24 @@ public class PatternFinderValidator extends TripValidator {
             BatchTracker patternTracker = new BatchTracker("pattern", insertPatternStatement);
             PreparedStatement insertPatternStopStatement = connection.prepareStatement(insertPatternStopSql);
             BatchTracker patternStopTracker = new BatchTracker("pattern stop", insertPatternStopStatement);
-            int currentPatternIndex = 0;
             LOG.info("Storing patterns and pattern stops");
-            // If using Postgres, load pattern to trips mapping into temp table for quick updating.
-            boolean postgresText = (connection.getMetaData().getDatabaseProductName().equals("PostgreSQL"));
-            if (postgresText) {
-                // NOTE: temp table name must NOT be prefixed with schema because temp tables are prefixed with their own
-                // connection-unique schema.
-                tempPatternForTripsTable = "pattern_for_trips";
-                tempPatternForTripsTextFile = File.createTempFile(tempPatternForTripsTable, "text");
-                LOG.info("Loading via temporary text file at {}", tempPatternForTripsTextFile.getAbsolutePath());
-                // Create temp table for updating trips with pattern IDs to be dropped at the end of the transaction.
-                String createTempSql = String.format("create temp table %s(trip_id varchar, pattern_id varchar) on commit drop", tempPatternForTripsTable);
-                LOG.info(createTempSql);
-                statement.execute(createTempSql);
-                patternForTripsFileStream = new PrintStream(new BufferedOutputStream(new FileOutputStream(tempPatternForTripsTextFile)));
-            }
             for (Map.Entry<TripPatternKey, Pattern> entry : patterns.entrySet()) {
                 Pattern pattern = entry.getValue();
                 LOG.debug("Batching pattern {}", pattern.pattern_id);
                 TripPatternKey key = entry.getKey();
                 pattern.setStatementParameters(insertPatternStatement, true);
                 patternTracker.addBatch();
-                // Construct pattern stops based on values in trip pattern key.
+                // Construct pattern stops based on values in trip pattern key. Default travel and dwell times are the
+                // median across all trips on the pattern, so that a single unusual trip does not skew them.
                 // FIXME: Use pattern stops table here?
-                int lastValidDeparture = key.departureTimes.get(0);
-                for (int i = 0; i < key.stops.size(); i++) {
-                    int travelTime = 0;
-                    String stopId = key.stops.get(i);
-                    int arrival = key.arrivalTimes.get(i);
-                    if (i > 0) {
-                        int prevDeparture = key.departureTimes.get(i - 1);
-                        // Set travel time for all stops except the first.
-                        if (prevDeparture != INT_MISSING) {
-                            // Update the previous departure if it's not missing. Otherwise, base travel time based on the
-                            // most recent valid departure.
-                            lastValidDeparture = prevDeparture;
-                        }
-                        travelTime = arrival == INT_MISSING || lastValidDeparture == INT_MISSING
-                            ? INT_MISSING
-                            : arrival - lastValidDeparture;
-                    }
-                    int departure = key.departureTimes.get(i);
-                    int dwellTime = arrival == INT_MISSING || departure == INT_MISSING
-                        ? INT_MISSING
-                        : departure - arrival;
+                PatternHopStats hopStats = patternFinder.getHopStats(key);
+                TimeDistribution[] travelTimes = hopStats.getTravelTimes();
+                TimeDistribution[] dwellTimes = hopStats.getDwellTimes();
+                for (int i = 0; i < key.size(); i++) {
+                    String stopId = key.getStopId(i);
+                    // Travel time is zero for the first stop.
+                    int travelTime = i == 0 ? 0 : travelTimes[i].median;
+                    int dwellTime = dwellTimes[i].median;
 
                     insertPatternStopStatement.setString(1, pattern.pattern_id);
                     // Stop sequence is zero-based.
@@ -154,64 +138,25 @@ public class PatternFinderValidator extends TripValidator {
                     insertPatternStopStatement.setString(3, stopId);
                     setIntParameter(insertPatternStopStatement,4, travelTime);
                     setIntParameter(insertPatternStopStatement,5, dwellTime);
-                    setIntParameter(insertPatternStopStatement,6, key.dropoffTypes.get(i));
-                    setIntParameter(insertPatternStopStatement,7, key.pickupTypes.get(i));
-                    setDoubleParameter(insertPatternStopStatement, 8, key.shapeDistances.get(i));
-                    setIntParameter(insertPatternStopStatement,9, key.timepoints.get(i));
-                    setIntParameter(insertPatternStopStatement,10, key.continuous_pickup.get(i));
-                    setIntParameter(insertPatternStopStatement,11, key.continuous_drop_off.get(i));
+                    setIntParameter(insertPatternStopStatement,6, key.getDropOffType(i));
+                    setIntParameter(insertPatternStopStatement,7, key.getPickupType(i));
+                    setDoubleParameter(insertPatternStopStatement, 8, key.getShapeDistance(i));
+                    setIntParameter(insertPatternStopStatement,9, key.getTimepoint(i));
+                    setIntParameter(insertPatternStopStatement,10, key.getContinuousPickup(i));
+                    setIntParameter(insertPatternStopStatement,11, key.getContinuousDropOff(i));
                     patternStopTracker.addBatch();
                 }
-                // Finally, update all trips on this pattern to reference this pattern's ID.
-                String questionMarks = String.join(", ", Collections.nCopies(pattern.associatedTrips.size(), "?"));
-                PreparedStatement updateTripStatement = connection.prepareStatement(
-                        String.format("update %s set pattern_id = ? where trip_id in (%s)", tripsTableName, questionMarks));
-                int oneBasedIndex = 1;
-                updateTripStatement.setString(oneBasedIndex++, pattern.pattern_id);
-                // Prepare each trip in pattern to update trips table.
-                for (String tripId : pattern.associatedTrips) {
-                    if (postgresText) {
-                        // Add line to temp csv file if using postgres.
-                        // No need to worry about null trip IDs because the trips have already been processed.
-                        String[] strings = new String[]{tripId, pattern.pattern_id};
-                        // Print a new line in the standard postgres text format:
-                        // https://www.postgresql.org/docs/9.1/static/sql-copy.html#AEN64380
-                        patternForTripsFileStream.println(String.join("\t", strings));
-                    } else {
-                        // Otherwise, set statement parameter.
-                        updateTripStatement.setString(oneBasedIndex++, tripId);
-                    }
-                }
-                if (!postgresText) {
-                    // Execute trip update statement if not using temp text file.
-                    LOG.info("Updating {} trips with pattern ID {} (%d/%d)", pattern.associatedTrips.size(), pattern.pattern_id, currentPatternIndex, patterns.size());
-                    updateTripStatement.executeUpdate();
-                }
-                currentPatternIndex += 1;
             }
             // Send any remaining prepared statement calls to the database backend.
             patternTracker.executeRemaining();
             patternStopTracker.executeRemaining();
             LOG.info("Done storing patterns and pattern stops.");
-            if (postgresText) {
-                // Finally, copy the pattern for trips text file into a table, create an index on trip IDs, and update
-                // the trips table.
-                LOG.info("Updating trips with pattern IDs");
-                patternForTripsFileStream.close();
-                // Copy file contents into temp pattern for trips table.
-                copyFromFile(connection, tempPatternForTripsTextFile, tempPatternForTripsTable);
-                // Before updating the trips with pattern IDs, index the table on trip_id.
-                String patternForTripsIndexSql = String.format("create index temp_trips_pattern_id_idx on %s (trip_id)", tempPatternForTripsTable);
-                LOG.info(patternForTripsIndexSql);
-                statement.execute(patternForTripsIndexSql);
-                // Finally, execute the update statement.
-                String updateTripsSql = String.format("update %s set pattern_id = %s.pattern_id from %s where %s.trip_id = %s.trip_id", tripsTableName, tempPatternForTripsTable, tempPatternForTripsTable, tripsTableName, tempPatternForTripsTable);
-                LOG.info(updateTripsSql);
-                statement.executeUpdate(updateTripsSql);
-                // Delete temp file. Temp table will be dropped after the transaction is committed.
-                tempPatternForTripsTextFile.delete();
-                LOG.info("Updating trips complete");
+            if (connection.getMetaData().getDatabaseProductName().equals("PostgreSQL")) {
+                // Signatures are computed by the database, see PatternSignatures.
+                PatternSignatures.addSignatures(connection, feed.tablePrefix);
             }
+            updateTripPatternIds(connection, patterns.values());
+            storeHopStats(connection, patterns);
             LOG.info("Creating index on patterns");
             statement.executeUpdate(String.format("alter table %s add primary key (pattern_id)", patternsTableName));
             LOG.info("Creating index on pattern stops");
@@ -221,7 +166,7 @@ public class PatternFinderValidator extends TripValidator {
             statement.execute(String.format("create index trips_pattern_id_idx on %s (pattern_id)", tripsTableName));
             LOG.info("Done indexing.");
             connection.commit();
-        } catch (SQLException | IOException e) {
+        } catch (SQLException e) {
             // Rollback transaction if failure occurs on creating patterns.
             DbUtils.rollbackAndCloseQuietly(connection);
             // This exception will be stored as a validator failure.
@@ -233,5 +178,87 @@ public class PatternFinderValidator extends TripValidator {
 
     }
 
+    /**
+     * Set the pattern_id of every trip on the given patterns with a single set-based update, rather than one update per
+     * pattern. The (trip_id, pattern_id) pairs are first streamed into a staging table in the feed's namespace (with
+     * COPY on PostgreSQL, batched inserts elsewhere), which is dropped again before the transaction is committed.
+     */
+    private void updateTripPatternIds (Connection connection, Collection<Pattern> patterns) throws SQLException {
+        LOG.info("Updating trips with pattern IDs");
+        String tripsTableName = feed.tablePrefix + "trips";
+        String patternForTripsTableName = feed.tablePrefix + "pattern_for_trips";
+        Statement statement = connection.createStatement();
+        statement.execute(String.format("create table %s (trip_id varchar, pattern_id varchar)", patternForTripsTableName));
+        try (DerivedTableWriter patternForTripsWriter = new DerivedTableWriter(connection, patternForTripsTableName, 2)) {
+            for (Pattern pattern : patterns) {
+                // No need to worry about null trip IDs because the trips have already been processed.
+                for (String tripId : pattern.associatedTrips) patternForTripsWriter.writeRow(tripId, pattern.pattern_id);
+            }
+            patternForTripsWriter.finish();
+        }
+        // Before updating the trips with pattern IDs, index the staging table on trip_id.
+        statement.execute(String.format("create index %s_trip_id on %s (trip_id)",
+            patternForTripsTableName.replace(".", "_"), patternForTripsTableName));
+        // Every trip is on a pattern except those without stop times, whose pattern_id remains null either way.
+        String updateTripsSql;
+        if (connection.getMetaData().getDatabaseProductName().equals("PostgreSQL")) {
+            // PostgreSQL performs this as a single hash join.
+            updateTripsSql = String.format(
+                "update %s set pattern_id = p.pattern_id from %s as p where %s.trip_id = p.trip_id",
+                tripsTableName, patternForTripsTableName, tripsTableName
+            );
+        } else {
+            updateTripsSql = String.format(
+                "update %s set pattern_id = (select p.pattern_id from %s as p where p.trip_id = %s.trip_id)",
+                tripsTableName, patternForTripsTableName, tripsTableName
+            );
+        }
+        LOG.info(updateTripsSql);
+        int updatedTrips = statement.executeUpdate(updateTripsSql);
+        statement.execute(String.format("drop table %s", patternForTripsTableName));
+        LOG.info("Updated {} trips with pattern IDs.", updatedTrips);
+    }
+
+    /**
+     * Store the distribution of travel and dwell times at each stop of each pattern, across all the trips on the
+     * pattern, in the pattern_hop_stats table. Stop sequences match those of pattern_stops. Percentiles are null where
+     * no trip had a time.
+     */
+    private void storeHopStats (Connection connection, Map<TripPatternKey, Pattern> patterns) throws SQLException {
+        String hopStatsTableName = feed.tablePrefix + "pattern_hop_stats";
+        String sql = String.format("create table %s (pattern_id varchar, stop_sequence integer, " +
+            "travel_time_count integer, travel_time_p10 integer, travel_time_median integer, travel_time_p90 integer, " +
+            "dwell_time_count integer, dwell_time_p10 integer, dwell_time_median integer, dwell_time_p90 integer, " +
+            "primary key (pattern_id, stop_sequence))", hopStatsTableName);
+        LOG.info(sql);
+        connection.createStatement().execute(sql);
+        try (DerivedTableWriter hopStatsWriter = new DerivedTableWriter(connection, hopStatsTableName, 10)) {
+            for (Map.Entry<TripPatternKey, Pattern> entry : patterns.entrySet()) {
+                PatternHopStats hopStats = patternFinder.getHopStats(entry.getKey());
+                TimeDistribution[] travelTimes = hopStats.getTravelTimes();
+                TimeDistribution[] dwellTimes = hopStats.getDwellTimes();
+                for (int i = 0; i < travelTimes.length; i++) {
+                    hopStatsWriter.writeRow(
+                        entry.getValue().pattern_id,
+                        i,
+                        travelTimes[i].count,
+                        orNull(travelTimes[i].p10),
+                        orNull(travelTimes[i].median),
+                        orNull(travelTimes[i].p90),
+                        dwellTimes[i].count,
+                        orNull(dwellTimes[i].p10),
+                        orNull(dwellTimes[i].median),
+                        orNull(dwellTimes[i].p90)
+                    );
+                }
+            }
+            hopStatsWriter.finish();
+        }
+    }
+
+    private static Integer orNull (int value) {
+        return value == INT_MISSING ? null : value;
+    }
+
 }
 
@@ -2,6 +2,7 @@ package com.conveyal.gtfs.validator;
 
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.TripStopTimes;
 import com.conveyal.gtfs.model.Route;
 import com.conveyal.gtfs.model.ShapePoint;
 import com.conveyal.gtfs.model.Stop;
@@ -46,19 +47,43 @@ public class ReferencesTripValidator extends TripValidator {
         }
     }
 
+    @Override
+    public void validateTrip(Trip trip, Route route, TripStopTimes stopTimes) {
+        if (trip != null) referencedTrips.add(trip.trip_id);
+        if (route != null) referencedRoutes.add(route.route_id);
+        for (int i = 0; i < stopTimes.size; i++) {
+            Stop stop = stopTimes.getStop(i);
+            referencedStops.add(stop.stop_id);
+            if (stop.parent_station != null) referencedStops.add(stop.parent_station);
+        }
+    }
+
+    @Override
+    public TripValidator newAccumulator () {
+        return new ReferencesTripValidator(feed, errorStorage);
+    }
+
+    @Override
+    public void mergeAccumulator (TripValidator accumulator) {
+        ReferencesTripValidator other = (ReferencesTripValidator) accumulator;
+        referencedStops.addAll(other.referencedStops);
+        referencedTrips.addAll(other.referencedTrips);
+        referencedRoutes.addAll(other.referencedRoutes);
+    }
+
     @Override
     public void complete (ValidationResult validationResult) {
-        for (Stop stop : feed.stops) {
+        for (Stop stop : feed.getCache().getStops()) {
             if (!referencedStops.contains(stop.stop_id)) {
                 registerError(stop, STOP_UNUSED, stop.stop_id);
             }
         }
-        for (Trip trip : feed.trips) {
+        for (Trip trip : feed.getCache().getTrips()) {
             if (!referencedTrips.contains(trip.trip_id)) {
                 registerError(trip, TRIP_EMPTY);
             }
         }
-        for (Route route : feed.routes) {
+        for (Route route : feed.getCache().getRoutes()) {
             if (!referencedRoutes.contains(route.route_id)) {
                 registerError(route, ROUTE_UNUSED);
             }
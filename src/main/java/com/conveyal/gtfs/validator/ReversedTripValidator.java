@@ -1,27 +1,74 @@
 package com.conveyal.gtfs.validator;
 
-import com.conveyal.gtfs.error.MissingShapeError;
-import com.conveyal.gtfs.error.ReversedTripShapeError;
+import com.conveyal.gtfs.error.NewGTFSError;
 import com.conveyal.gtfs.error.SQLErrorStorage;
-import com.conveyal.gtfs.error.ShapeMissingCoordinatesError;
 import com.conveyal.gtfs.loader.Feed;
-import com.conveyal.gtfs.model.*;
-import com.conveyal.gtfs.util.Util;
-import com.google.common.collect.Iterables;
-import org.locationtech.jts.geom.Coordinate;
-import org.mapdb.Fun;
+import com.conveyal.gtfs.loader.FeedCache;
+import com.conveyal.gtfs.loader.Table;
+import com.conveyal.gtfs.loader.TripStopTimes;
+import com.conveyal.gtfs.model.Entity;
+import com.conveyal.gtfs.model.Route;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.model.Trip;
+import com.conveyal.gtfs.storage.StorageException;
+import gnu.trove.list.TDoubleList;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import static com.conveyal.gtfs.error.NewGTFSErrorType.SHAPE_MISSING_COORDINATE;
+import static com.conveyal.gtfs.error.NewGTFSErrorType.SHAPE_REVERSED;
+import static com.conveyal.gtfs.error.NewGTFSErrorType.STOP_TOO_FAR_FROM_SHAPE;
+import static com.conveyal.gtfs.loader.JDBCTableReader.SQL_STATE_UNDEFINED_TABLE;
+import static com.conveyal.gtfs.util.Util.METERS_PER_DEGREE_LATITUDE;
+import static com.conveyal.gtfs.util.Util.fastDistance;
+import static java.sql.ResultSet.CLOSE_CURSORS_AT_COMMIT;
+import static java.sql.ResultSet.CONCUR_READ_ONLY;
+import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
 
 /**
- * TODO re-implement as a TripValidator
+ * Check the shapes of trips against the stops they serve: shapes that run in the opposite direction to the trip, stops
+ * that are far from the shape, and shape points that are missing coordinates.
+ *
+ * Shapes can have millions of points, so they are not cached. Instead, while the trips are scanned this validator only
+ * records the distinct sequences of stops served on each shape. When all trips have been seen, the shapes table is read
+ * once ordered by shape_id and shape_pt_sequence, and each shape is checked against its stop sequences as soon as all of
+ * its points have been read. Only one shape's coordinates are held in memory at any time.
  */
 public class ReversedTripValidator extends TripValidator {
 
-    private static Double distanceMultiplier = 1.0;
+    private static final Logger LOG = LoggerFactory.getLogger(ReversedTripValidator.class);
+
+    /**
+     * A shape is considered reversed if the first stop is this many times closer to the end of the shape than to its
+     * start, and the last stop is this many times closer to the start than to the end.
+     */
+    private static final double DISTANCE_MULTIPLIER = 1.0;
+
+    /** Stops further than this from every segment of the shape of a trip that serves them are reported. */
+    private static final double MAX_STOP_DISTANCE_FROM_SHAPE_METERS = 150;
+
+    /**
+     * For each shape_id, the trips using that shape, grouped by the sequence of stops they serve (as indexes into the
+     * stops held by the FeedCache). Insertion ordered, so errors are reported in the order the trips were scanned.
+     */
+    private final Map<String, Map<TIntList, List<Trip>>> tripsForStopSequenceByShape = new HashMap<>();
 
     public ReversedTripValidator(Feed feed, SQLErrorStorage errorStorage) {
         super(feed, errorStorage);
@@ -29,110 +76,191 @@ public class ReversedTripValidator extends TripValidator {
 
     @Override
     public void validateTrip(Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops) {
-        // TODO implement
+        if (trip.shape_id == null) return;
+        FeedCache feedCache = feed.getCache();
+        TIntList stopSequence = new TIntArrayList(stops.size());
+        for (Stop stop : stops) {
+            int stopIndex = feedCache.getStopIndex(stop.stop_id);
+            if (stopIndex != FeedCache.NO_STOP_INDEX) stopSequence.add(stopIndex);
+        }
+        if (stopSequence.isEmpty()) return;
+        addTrip(trip, stopSequence);
     }
 
-    public boolean validate(Feed feed, boolean repair) {
-        boolean isValid = true;
-        int errorLimit = 5000;
-        int missingShapeErrorCount = 0;
-        int missingCoordinatesErrorCount = 0;
-        int reversedTripShapeErrorCount = 0;
-        Map<ShapePoint, List<String>> missingShapesMap = new HashMap<>();
-
-        for(Trip trip : feed.trips) {
-
-            String tripId = trip.trip_id;
-            if (trip.shape_id == null) {
-                isValid = false;
-                if (missingShapeErrorCount < errorLimit) {
-                    // FIXME store MissingShape errors
-                    // feed.errors.add(new MissingShapeError(trip));
-                }
-                missingShapeErrorCount++;
-                continue;
+    @Override
+    public void validateTrip(Trip trip, Route route, TripStopTimes stopTimes) {
+        // Stop times referencing missing stops have already been removed, so all the indexes are valid.
+        if (trip.shape_id == null) return;
+        addTrip(trip, new TIntArrayList(Arrays.copyOf(stopTimes.stopIndexes, stopTimes.size)));
+    }
+
+    private void addTrip (Trip trip, TIntList stopSequence) {
+        tripsForStopSequenceByShape
+            .computeIfAbsent(trip.shape_id, shapeId -> new LinkedHashMap<>())
+            .computeIfAbsent(stopSequence, sequence -> new ArrayList<>())
+            .add(trip);
+    }
+
+    @Override
+    public TripValidator newAccumulator () {
+        return new ReversedTripValidator(feed, errorStorage);
+    }
+
+    @Override
+    public void mergeAccumulator (TripValidator accumulator) {
+        ReversedTripValidator other = (ReversedTripValidator) accumulator;
+        other.tripsForStopSequenceByShape.forEach((shapeId, tripsForStopSequence) -> {
+            Map<TIntList, List<Trip>> merged =
+                tripsForStopSequenceByShape.computeIfAbsent(shapeId, id -> new LinkedHashMap<>());
+            tripsForStopSequence.forEach((stopSequence, trips) ->
+                merged.computeIfAbsent(stopSequence, sequence -> new ArrayList<>()).addAll(trips));
+        });
+    }
+
+    /**
+     * Scan through the shapes table in order, checking each shape used by a trip once all of its points are read.
+     */
+    @Override
+    public void complete (ValidationResult validationResult) {
+        if (tripsForStopSequenceByShape.isEmpty()) return;
+        String sql = String.format("select shape_id, shape_pt_lat, shape_pt_lon from %s%s order by shape_id, %s",
+            feed.tablePrefix, Table.SHAPES.name, Table.SHAPES.getOrderFieldName());
+        try (
+            Connection connection = feed.getConnection();
+            PreparedStatement statement =
+                connection.prepareStatement(sql, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY, CLOSE_CURSORS_AT_COMMIT)
+        ) {
+            // Use a server-side cursor, fetching many rows at once (see JDBCTableReader).
+            statement.setFetchSize(1000);
+            LOG.info(sql);
+            scanShapes(statement);
+        } catch (SQLException ex) {
+            if (SQL_STATE_UNDEFINED_TABLE.equals(ex.getSQLState())) {
+                LOG.info("Table {} did not exist, no shapes to validate.", Table.SHAPES.name);
+            } else {
+                throw new StorageException(ex);
             }
-            String shapeId = trip.shape_id;
-            Iterable<StopTime> stopTimes = feed.stopTimes.getOrdered(tripId);
-            StopTime firstStop = Iterables.get(stopTimes, 0);
-
-            StopTime lastStop = Iterables.getLast(stopTimes);
-
-            ShapePoint firstShape = null; // feed.shape_points.ceilingEntry(Fun.t2(shapeId, null)).getValue();
-            Map.Entry<Fun.Tuple2<String, Integer>, ShapePoint> entry = null; //feed.shape_points.floorEntry(new Fun.Tuple2(shapeId, Fun.HI));
-            ShapePoint lastShape = entry.getValue();
-
-            Coordinate firstStopCoord;
-            Coordinate lastStopCoord;
-            Coordinate firstShapeCoord;
-            Coordinate lastShapeCoord;
-
-            // if coordinate creation fails here, add trip_id to missing shapes list
-            try {
-                firstStopCoord = new Coordinate(feed.stops.get(firstStop.stop_id).stop_lat, feed.stops.get(firstStop.stop_id).stop_lon);
-                lastStopCoord = new Coordinate(feed.stops.get(lastStop.stop_id).stop_lat, feed.stops.get(lastStop.stop_id).stop_lon);
-
-                firstShapeCoord = new Coordinate(firstShape.shape_pt_lat, firstShape.shape_pt_lon);
-                lastShapeCoord = new Coordinate(lastShape.shape_pt_lat, lastShape.shape_pt_lon);
-
-            } catch (Exception any) {
-                isValid = false;
-                List<String> listOfTrips;
-                if (missingShapesMap.containsKey(firstShape)) {
-                    listOfTrips = missingShapesMap.get(firstShape);
+        }
+    }
+
+    /**
+     * Read the shape points in order, checking each shape used by a trip as soon as all of its points have been read.
+     */
+    private void scanShapes (PreparedStatement statement) throws SQLException {
+        try (ResultSet results = statement.executeQuery()) {
+            // The coordinates of the shape currently being read, packed as alternating latitudes and longitudes.
+            TDoubleList latLons = new TDoubleArrayList();
+            String currentShapeId = null;
+            boolean missingCoordinate = false;
+            int shapeCount = 0;
+            while (results.next()) {
+                countRowsScanned(1);
+                String shapeId = results.getString(1);
+                if (shapeId == null) continue;
+                if (!shapeId.equals(currentShapeId)) {
+                    if (currentShapeId != null) checkShape(currentShapeId, latLons.toArray(), missingCoordinate);
+                    if (++shapeCount % 10_000 == 0) LOG.info("Validating shape {}", shapeCount);
+                    currentShapeId = shapeId;
+                    latLons.clear();
+                    missingCoordinate = false;
                 }
-                else {
-                    listOfTrips = new ArrayList<String>();
+                // Points of shapes that are not used by any trip need not be kept.
+                if (!tripsForStopSequenceByShape.containsKey(shapeId)) continue;
+                double lat = results.getDouble(2);
+                boolean latMissing = results.wasNull();
+                double lon = results.getDouble(3);
+                if (latMissing || results.wasNull()) {
+                    missingCoordinate = true;
+                } else {
+                    latLons.add(lat);
+                    latLons.add(lon);
                 }
-                listOfTrips.add(tripId);
-                missingShapesMap.put(firstShape, listOfTrips);
-                missingCoordinatesErrorCount++;
-                continue;
             }
+            if (currentShapeId != null) checkShape(currentShapeId, latLons.toArray(), missingCoordinate);
+        }
+    }
 
-            Double distanceFirstStopToStart = Util.fastDistance(
-                firstStopCoord.y,
-                firstStopCoord.x,
-                firstShapeCoord.y,
-                firstShapeCoord.x
-            );
-            Double distanceFirstStopToEnd = Util.fastDistance(
-                firstStopCoord.y,
-                firstStopCoord.x,
-                lastShapeCoord.y,
-                lastShapeCoord.x
-            );
-
-            Double distanceLastStopToEnd = Util.fastDistance(
-                lastStopCoord.y,
-                lastStopCoord.x,
-                lastShapeCoord.y,
-                lastShapeCoord.x
-            );
-            Double distanceLastStopToStart = Util.fastDistance(
-                lastStopCoord.y,
-                lastStopCoord.x,
-                firstShapeCoord.y,
-                firstShapeCoord.x
-            );
-
-            // check if first stop is x times closer to end of shape than the beginning or last stop is x times closer to start than the end
-            if (distanceFirstStopToStart > (distanceFirstStopToEnd * distanceMultiplier) && distanceLastStopToEnd > (distanceLastStopToStart * distanceMultiplier)) {
-                if (reversedTripShapeErrorCount < errorLimit) {
-                    // FIXME store ReversedTripShape errors
-                    // feed.errors.add(new ReversedTripShapeError(trip));
+    /**
+     * Check all the stop sequences served on one shape against the coordinates of that shape.
+     * @param latLons the coordinates of the shape points that have them, as alternating latitudes and longitudes.
+     * @param missingCoordinate whether any of the shape points had no latitude or longitude.
+     */
+    private void checkShape (String shapeId, double[] latLons, boolean missingCoordinate) {
+        Map<TIntList, List<Trip>> tripsForStopSequence = tripsForStopSequenceByShape.get(shapeId);
+        if (tripsForStopSequence == null) return;
+        if (missingCoordinate) {
+            registerError(NewGTFSError.forTable(Table.SHAPES, SHAPE_MISSING_COORDINATE).setEntityId(shapeId));
+        }
+        // A shape needs at least two points with coordinates to have a direction or any segments to measure against.
+        if (latLons.length < 4) return;
+        List<Stop> stops = feed.getCache().getStops();
+        tripsForStopSequence.forEach((stopSequence, trips) -> {
+            Stop firstStop = stops.get(stopSequence.get(0));
+            Stop lastStop = stops.get(stopSequence.get(stopSequence.size() - 1));
+            boolean reversed = hasCoordinates(firstStop) && hasCoordinates(lastStop) &&
+                isReversed(firstStop, lastStop, latLons);
+            Set<String> farStopIds = new LinkedHashSet<>();
+            for (int i = 0; i < stopSequence.size(); i++) {
+                Stop stop = stops.get(stopSequence.get(i));
+                if (!hasCoordinates(stop)) continue;
+                if (distanceToShapeMeters(stop, latLons) > MAX_STOP_DISTANCE_FROM_SHAPE_METERS) {
+                    farStopIds.add(stop.stop_id);
                 }
-                reversedTripShapeErrorCount++;
-                isValid = false;
             }
-        }
-        if (missingCoordinatesErrorCount > 0) {
-            for (Map.Entry<ShapePoint, List<String>> shapeError : missingShapesMap.entrySet()) {
-                String[] tripIdList = shapeError.getValue().toArray(new String[shapeError.getValue().size()]);
-                // FIXME store ShapeMissingCoordinates errors
-                // feed.errors.add(new ShapeMissingCoordinatesError(shapeError.getKey(), tripIdList));
+            for (Trip trip : trips) {
+                if (reversed) registerError(trip, SHAPE_REVERSED);
+                if (!farStopIds.isEmpty()) registerError(trip, STOP_TOO_FAR_FROM_SHAPE, String.join(", ", farStopIds));
             }
+        });
+    }
+
+    /** Stop coordinates are optional for some location types, and missing coordinates are reported at load. */
+    private static boolean hasCoordinates (Stop stop) {
+        return stop.stop_lat != Entity.DOUBLE_MISSING && stop.stop_lon != Entity.DOUBLE_MISSING;
+    }
+
+    /**
+     * @return whether the first stop is closer to the end of the shape than the start, and the last stop is closer to
+     * the start of the shape than the end.
+     */
+    private static boolean isReversed (Stop firstStop, Stop lastStop, double[] latLons) {
+        double startLat = latLons[0];
+        double startLon = latLons[1];
+        double endLat = latLons[latLons.length - 2];
+        double endLon = latLons[latLons.length - 1];
+        double distanceFirstStopToStart = fastDistance(firstStop.stop_lat, firstStop.stop_lon, startLat, startLon);
+        double distanceFirstStopToEnd = fastDistance(firstStop.stop_lat, firstStop.stop_lon, endLat, endLon);
+        double distanceLastStopToEnd = fastDistance(lastStop.stop_lat, lastStop.stop_lon, endLat, endLon);
+        double distanceLastStopToStart = fastDistance(lastStop.stop_lat, lastStop.stop_lon, startLat, startLon);
+        return distanceFirstStopToStart > distanceFirstStopToEnd * DISTANCE_MULTIPLIER &&
+            distanceLastStopToEnd > distanceLastStopToStart * DISTANCE_MULTIPLIER;
+    }
+
+    /**
+     * @return the distance in meters from the stop to the nearest point on the shape, using the same equirectangular
+     * approximation as {@link com.conveyal.gtfs.util.Util#fastDistance} centered on the stop.
+     */
+    private static double distanceToShapeMeters (Stop stop, double[] latLons) {
+        double xScale = Math.cos(Math.toRadians(stop.stop_lat));
+        double minDistanceSquared = Double.POSITIVE_INFINITY;
+        // Coordinates of the previous shape point relative to the stop, in degrees of latitude.
+        double x0 = (latLons[1] - stop.stop_lon) * xScale;
+        double y0 = latLons[0] - stop.stop_lat;
+        for (int i = 2; i < latLons.length; i += 2) {
+            double x1 = (latLons[i + 1] - stop.stop_lon) * xScale;
+            double y1 = latLons[i] - stop.stop_lat;
+            // Find the point on the segment closest to the stop, which is at the origin.
+            double dx = x1 - x0;
+            double dy = y1 - y0;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(x0 * dx + y0 * dy) / lengthSquared));
+            double x = x0 + t * dx;
+            double y = y0 + t * dy;
+            minDistanceSquared = Math.min(minDistanceSquared, x * x + y * y);
+            x0 = x1;
+            y0 = y1;
         }
-        return isValid;
+        return Math.sqrt(minDistanceSquared) * METERS_PER_DEGREE_LATITUDE;
     }
+
 }
@@ -31,7 +31,7 @@ public class RouteTypeValidator extends FeedValidator {
 
     @Override
     public void validate() {
-        feed.routes.forEach(this::validateRouteType);
+        feed.getCache().getRoutes().forEach(this::validateRouteType);
     }
 
     /**
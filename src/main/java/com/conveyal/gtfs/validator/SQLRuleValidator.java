@@ -0,0 +1,62 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.error.SQLErrorStorage;
+import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.storage.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A feed validator whose checks are all declared as {@link SQLValidationRule}s. The rules are evaluated by the
+ * database in the order they were added, each one storing its errors with a single insert ... select, so validating a
+ * large feed does not transfer its rows over the network, which matters most when the database is remote.
+ */
+public abstract class SQLRuleValidator extends FeedValidator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SQLRuleValidator.class);
+
+    private final List<SQLValidationRule> rules = new ArrayList<>();
+
+    public SQLRuleValidator (Feed feed, SQLErrorStorage errorStorage) {
+        super(feed, errorStorage);
+    }
+
+    /** Add a rule to be evaluated by this validator, normally called from the subclass constructor. */
+    protected void addRule (SQLValidationRule rule) {
+        rules.add(rule);
+    }
+
+    /** @return the rules evaluated by this validator, in order. */
+    public List<SQLValidationRule> getRules () {
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * Evaluate the rules on a connection of this validator's own, so that several validators can query the database
+     * at the same time instead of waiting for each other on the connection shared by the error storage.
+     */
+    @Override
+    public void validate () {
+        try (Connection connection = feed.getConnection()) {
+            for (SQLValidationRule rule : rules) {
+                int errorCount = errorStorage.storeErrorsFromQuery(
+                    connection,
+                    rule.errorType,
+                    rule.table.getEntityClass(),
+                    rule.getViolationsSql(feed.tablePrefix)
+                );
+                countErrorsRegistered(errorCount);
+                if (errorCount > 0) LOG.info("Found {} {} errors in {}.", errorCount, rule.errorType, rule.table.name);
+            }
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.error.NewGTFSErrorType;
+import com.conveyal.gtfs.loader.Table;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A declarative validation check that is evaluated entirely by the database. Each rule selects the rows of one table
+ * (aliased as {@code t}) that violate it, optionally joined to other tables of the same feed, and one error is stored
+ * for every selected row by an {@code insert ... select} (see
+ * {@link com.conveyal.gtfs.error.SQLErrorStorage#storeErrorsFromQuery}). Only the errors are written, no rows are
+ * read into Java at all.
+ *
+ * Rules are built with a factory method and chained setters, in the same way as NewGTFSError:
+ * <pre>
+ * SQLValidationRule.forTable(Table.STOPS, STOP_NAME_MISSING, "t.stop_name is null")
+ * </pre>
+ * All the SQL fragments refer to columns through table aliases, and tables are only named through {@link #join} so
+ * that the feed's schema prefix can be added.
+ */
+public class SQLValidationRule {
+
+    /**
+     * An SQL string literal containing the characters removed by Java's String#trim(), i.e. every character up to and
+     * including the space (the nul character cannot be stored in a Postgres text column, so it is left out). Postgres'
+     * btrim only removes spaces by default, which would leave tabs and line breaks around names.
+     */
+    private static final String TRIMMED_CHARACTERS = trimmedCharacters();
+
+    public final Table table;
+    public final NewGTFSErrorType errorType;
+    private final String condition;
+    private final List<String[]> joins = new ArrayList<>();
+    private String entityIdExpression;
+    private String badValueExpression = "null";
+    private String orderExpression = "t.id";
+
+    private SQLValidationRule (Table table, NewGTFSErrorType errorType, String condition) {
+        this.table = table;
+        this.errorType = errorType;
+        this.condition = condition;
+        this.entityIdExpression = "t." + table.getKeyFieldName();
+    }
+
+    /**
+     * @param condition an SQL boolean expression that is true for the rows of the table (aliased as t) that have the
+     *                  given type of error.
+     */
+    public static SQLValidationRule forTable (Table table, NewGTFSErrorType errorType, String condition) {
+        return new SQLValidationRule(table, errorType, condition);
+    }
+
+    /** Builder to set an SQL expression for the bad value recorded with each error (null by default). */
+    public SQLValidationRule setBadValue (String expression) {
+        this.badValueExpression = expression;
+        return this;
+    }
+
+    /** Builder to set an SQL expression for the entity ID of each error (the table's key field by default). */
+    public SQLValidationRule setEntityId (String expression) {
+        this.entityIdExpression = expression;
+        return this;
+    }
+
+    /** Builder to set the order in which errors are stored (by line number, i.e. t.id, by default). */
+    public SQLValidationRule orderBy (String expression) {
+        this.orderExpression = expression;
+        return this;
+    }
+
+    /** Builder to join another table of the same feed to the rows being checked. */
+    public SQLValidationRule join (Table joinedTable, String alias, String onCondition) {
+        return addJoin("join", joinedTable, alias, onCondition);
+    }
+
+    /** Builder to left join another table of the same feed, e.g. to find rows that reference a missing entity. */
+    public SQLValidationRule leftJoin (Table joinedTable, String alias, String onCondition) {
+        return addJoin("left join", joinedTable, alias, onCondition);
+    }
+
+    private SQLValidationRule addJoin (String joinType, Table joinedTable, String alias, String onCondition) {
+        // The table name is qualified with the schema prefix when the SQL is generated.
+        joins.add(new String[] {joinType, joinedTable.name, alias, onCondition});
+        return this;
+    }
+
+    /**
+     * @return a select statement returning one row for each violation of this rule, with the columns expected by
+     * {@link com.conveyal.gtfs.error.SQLErrorStorage#storeErrorsFromQuery}: error_number (counting from one, in the
+     * order errors should be stored), line_number, entity_id, entity_sequence and bad_value.
+     */
+    public String getViolationsSql (String tablePrefix) {
+        StringBuilder joinClause = new StringBuilder();
+        for (String[] join : joins) {
+            joinClause.append(String.format(" %s %s%s as %s on %s", join[0], tablePrefix, join[1], join[2], join[3]));
+        }
+        return String.format(
+            "select row_number() over (order by %s) as error_number, t.id as line_number, " +
+                "(%s)::varchar as entity_id, null::integer as entity_sequence, (%s)::varchar as bad_value " +
+                "from %s%s as t%s where %s",
+            orderExpression, entityIdExpression, badValueExpression, tablePrefix, table.name, joinClause, condition
+        );
+    }
+
+    /**
+     * @return an SQL expression for the value of a text column normalized as the Java validators did: never null,
+     * lower case and without the leading or trailing characters removed by String#trim().
+     */
+    public static String normalized (String column) {
+        return String.format("lower(btrim(coalesce(%s, ''), %s))", column, TRIMMED_CHARACTERS);
+    }
+
+    private static String trimmedCharacters () {
+        StringBuilder literal = new StringBuilder("E'");
+        for (char c = 1; c <= ' '; c++) literal.append(String.format("\\x%02x", (int) c));
+        return literal.append("'").toString();
+    }
+
+}
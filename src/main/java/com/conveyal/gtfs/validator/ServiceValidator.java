@@ -3,10 +3,11 @@ package com.conveyal.gtfs.validator;
 import com.conveyal.gtfs.error.NewGTFSError;
 import com.conveyal.gtfs.error.NewGTFSErrorType;
 import com.conveyal.gtfs.error.SQLErrorStorage;
-import com.conveyal.gtfs.loader.BatchTracker;
 import com.conveyal.gtfs.loader.DateField;
+import com.conveyal.gtfs.loader.DerivedTableWriter;
 import com.conveyal.gtfs.loader.Feed;
 import com.conveyal.gtfs.loader.Table;
+import com.conveyal.gtfs.loader.TripStopTimes;
 import com.conveyal.gtfs.model.Calendar;
 import com.conveyal.gtfs.model.CalendarDate;
 import com.conveyal.gtfs.model.Entity;
@@ -14,26 +15,24 @@ import com.conveyal.gtfs.model.Route;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
-import com.conveyal.gtfs.storage.StorageException;
 import gnu.trove.map.hash.TIntIntHashMap;
 import org.apache.commons.dbutils.DbUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.time.DayOfWeek;
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.SERVICE_WITHOUT_DAYS_OF_WEEK;
@@ -60,7 +59,11 @@ public class ServiceValidator extends TripValidator {
     private HashMap<String, List<BlockInterval>> blockIntervals = new HashMap<>();
     private Map<String, ServiceInfo> serviceInfoForServiceId = new HashMap<>();
 
-    private Map<LocalDate, DateInfo> dateInfoForDate = new HashMap<>();
+    /**
+     * The date represented by bit zero of every {@link ServiceInfo#datesActive}, which is the earliest date mentioned
+     * in calendar.txt or calendar_dates.txt.
+     */
+    private LocalDate dateOrigin;
 
     public ServiceValidator(Feed feed, SQLErrorStorage errorStorage) {
         super(feed, errorStorage);
@@ -68,21 +71,26 @@ public class ServiceValidator extends TripValidator {
 
     @Override
     public void validateTrip(Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops) {
+        validateTrip(trip, route, TripStopTimes.fromStopTimes(stopTimes, stops));
+    }
+
+    @Override
+    public void validateTrip(Trip trip, Route route, TripStopTimes stopTimes) {
+        int last = stopTimes.size - 1;
         if (trip.block_id != null) {
             // If the trip has a block_id, add a new block interval to the map.
             BlockInterval blockInterval = new BlockInterval();
             blockInterval.trip = trip;
-            StopTime firstStopTime = stopTimes.get(0);
-            blockInterval.startTime = firstStopTime.departure_time;
-            blockInterval.firstStop = firstStopTime;
-            blockInterval.lastStop = stopTimes.get(stopTimes.size() - 1);
+            blockInterval.startTime = stopTimes.departureTimes[0];
+            blockInterval.firstArrival = stopTimes.arrivalTimes[0];
+            blockInterval.lastDeparture = stopTimes.departureTimes[last];
             // Construct new list of intervals if none exists for encountered block_id.
             blockIntervals
                 .computeIfAbsent(trip.block_id, k -> new ArrayList<>())
                 .add(blockInterval);
         }
-        int firstStopDeparture = stopTimes.get(0).departure_time;
-        int lastStopArrival = stopTimes.get(stopTimes.size() - 1).arrival_time;
+        int firstStopDeparture = stopTimes.departureTimes[0];
+        int lastStopArrival = stopTimes.arrivalTimes[last];
         if (firstStopDeparture == Entity.INT_MISSING || lastStopArrival == Entity.INT_MISSING) {
             // ERR
             return;
@@ -104,6 +112,26 @@ public class ServiceValidator extends TripValidator {
         // TODO validate mode codes
     }
 
+    @Override
+    public TripValidator newAccumulator () {
+        return new ServiceValidator(feed, errorStorage);
+    }
+
+    @Override
+    public void mergeAccumulator (TripValidator accumulator) {
+        ServiceValidator other = (ServiceValidator) accumulator;
+        other.blockIntervals.forEach((blockId, intervals) ->
+            blockIntervals.computeIfAbsent(blockId, k -> new ArrayList<>()).addAll(intervals));
+        other.serviceInfoForServiceId.forEach((serviceId, otherServiceInfo) -> {
+            ServiceInfo serviceInfo = serviceInfoForServiceId.computeIfAbsent(serviceId, ServiceInfo::new);
+            otherServiceInfo.durationByRouteType.forEachEntry((routeType, serviceDurationSeconds) -> {
+                serviceInfo.durationByRouteType.adjustOrPutValue(routeType, serviceDurationSeconds, serviceDurationSeconds);
+                return true; // Continue iteration.
+            });
+            serviceInfo.tripIds.addAll(otherServiceInfo.tripIds);
+        });
+    }
+
     /**
      * You'd think we'd want to do this during the loading phase. But during the loading phase we don't have a reading
      * connection to the entity tables in the database. Rather than make the Feed object read-write, we want to leave
@@ -120,28 +148,29 @@ public class ServiceValidator extends TripValidator {
     private void validateServiceInfo(ValidationResult validationResult) {
         LOG.info("Merging calendars and calendar_dates...");
 
+        // Read the calendar_dates once, as they are needed both to find the first date and to apply the exceptions.
+        List<Calendar> calendars = feed.getCache().getCalendars();
+        List<CalendarDate> calendarDates = new ArrayList<>();
+        for (CalendarDate calendarDate : feed.calendarDates) calendarDates.add(calendarDate);
+        countRowsScanned(calendars.size() + calendarDates.size());
+        // Dates are represented as bits in a BitSet, indexed by the number of days since the first date in the feed.
+        LocalDate firstDate = null;
+        for (Calendar calendar : calendars) firstDate = earliest(firstDate, calendar.start_date);
+        for (CalendarDate calendarDate : calendarDates) firstDate = earliest(firstDate, calendarDate.date);
+        dateOrigin = firstDate == null ? LocalDate.ofEpochDay(0) : firstDate;
+
         // First handle the calendar entries, which define repeating weekly schedules.
-        for (Calendar calendar : feed.calendars) {
+        for (Calendar calendar : calendars) {
             // Validate that calendars apply to at least one day of the week.
             if (!isCalendarUsedDuringWeek(calendar)) {
                 if (errorStorage != null) registerError(calendar, SERVICE_WITHOUT_DAYS_OF_WEEK);
             }
 
             try {
-                LocalDate endDate = calendar.end_date;
-                // Loop over all days in this calendar entry, recording on which ones it is active.
-                for (LocalDate date = calendar.start_date; date.isBefore(endDate) || date.isEqual(endDate); date = date.plusDays(1)) {
-                    DayOfWeek dayOfWeek = date.getDayOfWeek();
-                    if (    (dayOfWeek == DayOfWeek.MONDAY && calendar.monday > 0) ||
-                        (dayOfWeek == DayOfWeek.TUESDAY && calendar.tuesday > 0) ||
-                        (dayOfWeek == DayOfWeek.WEDNESDAY && calendar.wednesday > 0) ||
-                        (dayOfWeek == DayOfWeek.THURSDAY && calendar.thursday > 0) ||
-                        (dayOfWeek == DayOfWeek.FRIDAY && calendar.friday > 0) ||
-                        (dayOfWeek == DayOfWeek.SATURDAY && calendar.saturday > 0) ||
-                        (dayOfWeek == DayOfWeek.SUNDAY && calendar.sunday > 0)) {
-                        // Service is active on this date.
-                        serviceInfoForServiceId.computeIfAbsent(calendar.service_id, ServiceInfo::new).datesActive.add(date);
-                    }
+                BitSet datesActive = expandCalendar(calendar);
+                if (!datesActive.isEmpty()) {
+                    // Service is active on at least one date.
+                    serviceInfoForServiceId.computeIfAbsent(calendar.service_id, ServiceInfo::new).datesActive.or(datesActive);
                 }
             } catch (Exception ex) {
                 LOG.error("Error validating service entries (merging calendars and calendar_dates)", ex);
@@ -150,14 +179,16 @@ public class ServiceValidator extends TripValidator {
         }
 
         // Next handle the calendar_dates, which specify exceptions to the repeating weekly schedules.
-        for (CalendarDate calendarDate : feed.calendarDates) {
+        for (CalendarDate calendarDate : calendarDates) {
             ServiceInfo serviceInfo = serviceInfoForServiceId.computeIfAbsent(calendarDate.service_id, ServiceInfo::new);
+            // Unparseable dates have already been reported during the loading phase.
+            if (calendarDate.date == null) continue;
             if (calendarDate.exception_type == 1) {
-                // Service added, add to set for this date.
-                serviceInfo.datesActive.add(calendarDate.date);
+                // Service added, set the bit for this date.
+                serviceInfo.datesActive.set(dayIndex(calendarDate.date));
             } else if (calendarDate.exception_type == 2) {
-                // Service removed, remove from Set for this date.
-                serviceInfo.datesActive.remove(calendarDate.date);
+                // Service removed, clear the bit for this date.
+                serviceInfo.datesActive.clear(dayIndex(calendarDate.date));
             }
             // Otherwise exception_type is out of range. This should already have been caught during the loading phase.
         }
@@ -192,62 +223,54 @@ public class ServiceValidator extends TripValidator {
             }
         }
 
-        // Accumulate info about services into each date that they are active.
-        for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
-            for (LocalDate date : serviceInfo.datesActive) {
-                dateInfoForDate.computeIfAbsent(date, DateInfo::new).add(serviceInfo);
-            }
-        }
-
         // Check for dates that have no service within full range of dates with defined service.
         // Sum up service duration by mode for each day within that range.
-        if (dateInfoForDate.isEmpty()) {
+        BitSet anyServiceActive = new BitSet();
+        for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) anyServiceActive.or(serviceInfo.datesActive);
+        if (anyServiceActive.isEmpty()) {
             registerError(NewGTFSError.forFeed(NewGTFSErrorType.NO_SERVICE, null));
         } else {
-            LocalDate firstDate = LocalDate.MAX;
-            LocalDate lastDate = LocalDate.MIN;
-            for (LocalDate date : dateInfoForDate.keySet()) {
-                // If the date is invalid, skip.
-                if (date == null) {
-                    LOG.error("Encountered null date. Did something go wrong with computeIfAbsent?");
-                    continue;
-                }
-                if (date.isBefore(firstDate)) firstDate = date;
-                if (date.isAfter(lastDate)) lastDate = date;
-            }
+            int firstDay = anyServiceActive.nextSetBit(0);
+            int lastDay = anyServiceActive.length() - 1;
             // Copy some useful information into the ValidationResult object to return to the caller.
             // These variables are actually not directly tied to data in the calendar_dates.txt file.  Instead, they
             // represent the first and last date respectively of any entry in the calendar.txt and calendar_dates.txt
             // files.
-            validationResult.firstCalendarDate = firstDate;
-            validationResult.lastCalendarDate = lastDate;
-            // Is this any different? firstDate.until(lastDate, ChronoUnit.DAYS);
-            // If no days were found in the dateInfoForDate, nDays is a very large negative number, so we default to 0.
-            int nDays = Math.max(0, (int) ChronoUnit.DAYS.between(firstDate, lastDate) + 1);
+            validationResult.firstCalendarDate = dateForIndex(firstDay);
+            validationResult.lastCalendarDate = dateForIndex(lastDay);
+            int nDays = lastDay - firstDay + 1;
             validationResult.dailyBusSeconds = new int[nDays];
             validationResult.dailyTramSeconds = new int[nDays];
             validationResult.dailyMetroSeconds = new int[nDays];
             validationResult.dailyRailSeconds = new int[nDays];
             validationResult.dailyTotalSeconds = new int[nDays];
             validationResult.dailyTripCounts = new int[nDays];
-            for (int d = 0; d < nDays; d++) {
-                LocalDate date = firstDate.plusDays(d); // current date being processed
-                // Add one value per day. Trove map returns zero for missing keys.
-                DateInfo dateInfo = dateInfoForDate.get(date);
-                if (dateInfo == null) {
-                    dateInfo = new DateInfo(date); // new empty object to get empty durations map.
+            // Accumulate info about services into each date that they are active. The per-service totals are the same
+            // on every date, so they are computed once and then added to each active date.
+            for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
+                int busSeconds = serviceInfo.durationByRouteType.get(3);
+                int tramSeconds = serviceInfo.durationByRouteType.get(0);
+                int metroSeconds = serviceInfo.durationByRouteType.get(1);
+                int railSeconds = serviceInfo.durationByRouteType.get(2);
+                int totalSeconds = serviceInfo.getTotalServiceDurationSeconds();
+                int tripCount = serviceInfo.tripIds.size();
+                BitSet datesActive = serviceInfo.datesActive;
+                for (int day = datesActive.nextSetBit(0); day >= 0; day = datesActive.nextSetBit(day + 1)) {
+                    int d = day - firstDay;
+                    validationResult.dailyBusSeconds[d] += busSeconds;
+                    validationResult.dailyTramSeconds[d] += tramSeconds;
+                    validationResult.dailyMetroSeconds[d] += metroSeconds;
+                    validationResult.dailyRailSeconds[d] += railSeconds;
+                    validationResult.dailyTotalSeconds[d] += totalSeconds;
+                    validationResult.dailyTripCounts[d] += tripCount;
                 }
-                validationResult.dailyBusSeconds[d] = dateInfo.durationByRouteType.get(3);
-                validationResult.dailyTramSeconds[d] = dateInfo.durationByRouteType.get(0);
-                validationResult.dailyMetroSeconds[d] = dateInfo.durationByRouteType.get(1);
-                validationResult.dailyRailSeconds[d] = dateInfo.durationByRouteType.get(2);
-                validationResult.dailyTotalSeconds[d] = dateInfo.getTotalServiceDurationSeconds();
-                validationResult.dailyTripCounts[d] = dateInfo.tripCount;
-                if (dateInfo.getTotalServiceDurationSeconds() <= 0) {
+            }
+            for (int d = 0; d < nDays; d++) {
+                if (validationResult.dailyTotalSeconds[d] <= 0) {
                     // Check for low or zero service, which seems to happen even when services are defined.
-                    // This will also catch cases where dateInfo was null and the new instance contains no service.
+                    // This will also catch dates on which no service is active at all.
                     registerError(NewGTFSError.forFeed(NewGTFSErrorType.DATE_NO_SERVICE,
-                                                       DateField.GTFS_DATE_FORMATTER.format(date)));
+                                                       DateField.GTFS_DATE_FORMATTER.format(dateForIndex(firstDay + d))));
                 }
             }
         }
@@ -272,43 +295,40 @@ public class ServiceValidator extends TripValidator {
             String sql = String.format("create table %s (service_id varchar, n_days_active integer, duration_seconds integer, n_trips integer)", servicesTableName);
             LOG.info(sql);
             statement.execute(sql);
-            sql = String.format("insert into %s values (?, ?, ?, ?)", servicesTableName);
-            PreparedStatement serviceStatement = connection.prepareStatement(sql);
-            final BatchTracker serviceTracker = new BatchTracker("services", serviceStatement);
-            for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
-                serviceStatement.setString(1, serviceInfo.serviceId);
-                serviceStatement.setInt(2, serviceInfo.datesActive.size());
-                serviceStatement.setInt(3, serviceInfo.getTotalServiceDurationSeconds());
-                serviceStatement.setInt(4, serviceInfo.tripIds.size());
-                serviceTracker.addBatch();
+            try (DerivedTableWriter serviceWriter = new DerivedTableWriter(connection, servicesTableName, 4)) {
+                for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
+                    serviceWriter.writeRow(
+                        serviceInfo.serviceId,
+                        serviceInfo.datesActive.cardinality(),
+                        serviceInfo.getTotalServiceDurationSeconds(),
+                        serviceInfo.tripIds.size()
+                    );
+                }
+                serviceWriter.finish();
             }
-            serviceTracker.executeRemaining();
 
-            // Create a table that shows on which dates each service is active.
+            // Create a table that shows on which dates each service is active. Dates are stored with the SQL date type
+            // rather than as GTFS date strings, so they are compact and can be compared and ranged over directly.
             String serviceDatesTableName = feed.tablePrefix + "service_dates";
-            sql = String.format("create table %s (service_date varchar, service_id varchar)", serviceDatesTableName);
+            sql = String.format("create table %s (service_date date, service_id varchar)", serviceDatesTableName);
             LOG.info(sql);
             statement.execute(sql);
-            sql = String.format("insert into %s values (?, ?)", serviceDatesTableName);
-            PreparedStatement serviceDateStatement = connection.prepareStatement(sql);
-            final BatchTracker serviceDateTracker = new BatchTracker("service_dates", serviceDateStatement);
-            for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
-                for (LocalDate date : serviceInfo.datesActive) {
-                    if (date == null) continue; // TODO ERR? Can happen with bad data (unparseable dates).
-                    try {
-                        serviceDateStatement.setString(1, date.format(DateField.GTFS_DATE_FORMATTER));
-                        serviceDateStatement.setString(2, serviceInfo.serviceId);
-                        serviceDateTracker.addBatch();
-                    } catch (SQLException ex) {
-                        throw new StorageException(ex);
+            try (DerivedTableWriter serviceDateWriter = new DerivedTableWriter(connection, serviceDatesTableName, 2)) {
+                // Many services are active on the same dates, so only create one LocalDate for each date.
+                LocalDate[] datesForIndex = new LocalDate[anyServiceActive.length()];
+                for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
+                    BitSet datesActive = serviceInfo.datesActive;
+                    for (int day = datesActive.nextSetBit(0); day >= 0; day = datesActive.nextSetBit(day + 1)) {
+                        if (datesForIndex[day] == null) datesForIndex[day] = dateForIndex(day);
+                        serviceDateWriter.writeRow(datesForIndex[day], serviceInfo.serviceId);
                     }
                 }
-
+                serviceDateWriter.finish();
             }
-            serviceDateTracker.executeRemaining();
 
             LOG.info("Indexing...");
-            statement.execute(String.format("create index service_dates_service_date on %s (service_date)", serviceDatesTableName));
+            // The composite index lets the services running on a given date be found with an index-only scan.
+            statement.execute(String.format("create index service_dates_service_date on %s (service_date, service_id)", serviceDatesTableName));
             statement.execute(String.format("create index service_dates_service_id on %s (service_id)", serviceDatesTableName));
 
             // Create a table containing the total trip durations per service_id and per transit mode.
@@ -323,26 +343,18 @@ public class ServiceValidator extends TripValidator {
                                     "duration_seconds integer, primary key (service_id, route_type))", serviceDurationsTableName);
             LOG.info(sql);
             statement.execute(sql);
-            sql = String.format("insert into %s values (?, ?, ?)", serviceDurationsTableName);
-            PreparedStatement serviceDurationStatement = connection.prepareStatement(sql);
-            final BatchTracker serviceDurationTracker = new BatchTracker(
-                "service_durations",
-                serviceDurationStatement
-            );
-            for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
-                serviceInfo.durationByRouteType.forEachEntry((routeType, serviceDurationSeconds) -> {
-                    try {
-                        serviceDurationStatement.setString(1, serviceInfo.serviceId);
-                        serviceDurationStatement.setInt(2, routeType);
-                        serviceDurationStatement.setInt(3, serviceDurationSeconds);
-                        serviceDurationTracker.addBatch();
-                    } catch (SQLException ex) {
-                        throw new StorageException(ex);
+            try (DerivedTableWriter serviceDurationWriter = new DerivedTableWriter(connection, serviceDurationsTableName, 3)) {
+                for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
+                    for (int routeType : serviceInfo.durationByRouteType.keys()) {
+                        serviceDurationWriter.writeRow(
+                            serviceInfo.serviceId,
+                            routeType,
+                            serviceInfo.durationByRouteType.get(routeType)
+                        );
                     }
-                    return true; // Iteration continues
-                });
+                }
+                serviceDurationWriter.finish();
             }
-            serviceDurationTracker.executeRemaining();
             // No need to build indexes because (service_id, route_type) is already the primary key of this table.
 
             connection.commit();
@@ -355,46 +367,65 @@ public class ServiceValidator extends TripValidator {
         LOG.info("Done.");
     }
 
-    static class ServiceInfo {
+    /**
+     * @return the earlier of the two dates, ignoring nulls.
+     */
+    private static LocalDate earliest (LocalDate a, LocalDate b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return b.isBefore(a) ? b : a;
+    }
 
-        final String serviceId;
-        TIntIntHashMap durationByRouteType = new TIntIntHashMap();
-        Set<LocalDate> datesActive = new HashSet<>();
-        Set<String> tripIds = new HashSet<>();
+    /** @return the index of the bit representing the given date in {@link ServiceInfo#datesActive}. */
+    private int dayIndex (LocalDate date) {
+        return (int) (date.toEpochDay() - dateOrigin.toEpochDay());
+    }
 
-        public ServiceInfo(String serviceId) {
-            this.serviceId = serviceId;
-        }
+    /** @return the date represented by the given bit index in {@link ServiceInfo#datesActive}. */
+    private LocalDate dateForIndex (int dayIndex) {
+        return dateOrigin.plusDays(dayIndex);
+    }
 
-        public int getTotalServiceDurationSeconds() {
-            return Arrays.stream(durationByRouteType.values()).sum();
+    /**
+     * Find all the dates on which a calendar entry is active. Rather than visiting every date in the range and checking
+     * its day of the week, this works through the first week of the calendar and, for each day of the week on which
+     * service runs, sets the bits for that day in every week of the range.
+     * @return the active dates as bits indexed by {@link #dayIndex(LocalDate)}.
+     */
+    private BitSet expandCalendar (Calendar calendar) {
+        int[] serviceByDayOfWeek = {
+            calendar.monday, calendar.tuesday, calendar.wednesday, calendar.thursday,
+            calendar.friday, calendar.saturday, calendar.sunday
+        };
+        int startDay = dayIndex(calendar.start_date);
+        int endDay = dayIndex(calendar.end_date);
+        BitSet datesActive = new BitSet();
+        // DayOfWeek values run from 1 (Monday) to 7 (Sunday).
+        int startDayOfWeek = calendar.start_date.getDayOfWeek().getValue() - 1;
+        for (int d = 0; d < 7 && startDay + d <= endDay; d++) {
+            if (serviceByDayOfWeek[(startDayOfWeek + d) % 7] > 0) {
+                for (int day = startDay + d; day <= endDay; day += 7) datesActive.set(day);
+            }
         }
-
+        return datesActive;
     }
 
-    static class DateInfo {
+    static class ServiceInfo {
 
-        final LocalDate date;
+        final String serviceId;
         TIntIntHashMap durationByRouteType = new TIntIntHashMap();
-        int tripCount = 0; // Trip count could also in theory be broken down by route type.
-        Set<String> servicesActive = new HashSet<>();
+        /** Dates on which this service is active, as bits indexed by {@link ServiceValidator#dayIndex(LocalDate)}. */
+        BitSet datesActive = new BitSet();
+        Set<String> tripIds = new HashSet<>();
 
-        public DateInfo(LocalDate date) {
-            this.date = date;
+        public ServiceInfo(String serviceId) {
+            this.serviceId = serviceId;
         }
 
         public int getTotalServiceDurationSeconds() {
             return Arrays.stream(durationByRouteType.values()).sum();
         }
 
-        public void add (ServiceInfo serviceInfo) {
-            servicesActive.add(serviceInfo.serviceId);
-            serviceInfo.durationByRouteType.forEachEntry((routeType, serviceDurationSeconds) -> {
-                durationByRouteType.adjustOrPutValue(routeType, serviceDurationSeconds, serviceDurationSeconds);
-                return true; // Continue iteration.
-            });
-            tripCount += serviceInfo.tripIds.size();
-        }
     }
 
     /**
@@ -406,50 +437,94 @@ public class ServiceValidator extends TripValidator {
      * about which service calendars operate on which feed dates ({@link #serviceInfoForServiceId}).
      */
     private void validateBlocks () {
-        // Iterate over each block and determine if there are any trips that overlap one another.
+        // Whether two services are active on any of the same dates, cached because many trip pairs share services.
+        Map<String, Map<String, Boolean>> servicesOverlap = new HashMap<>();
         for (String blockId : blockIntervals.keySet()) {
             List<BlockInterval> intervals = blockIntervals.get(blockId);
+            // Errors are attributed to the trip that starts first, with the stable sort keeping ties in the order that
+            // the trips were read.
             intervals.sort(Comparator.comparingInt(i -> i.startTime));
-            // Iterate over each interval (except for the last) comparing it to every other interval (so the last interval
-            // is handled through the course of iteration).
-            // FIXME this has complexity of n^2, there has to be a better way.
-            for (int n = 0; n < intervals.size() - 1; n++) {
-                BlockInterval interval1 = intervals.get(n);
-                // Compare the interval at position N with all other intervals at position N+1 to the end of the list.
-                for (BlockInterval interval2 : intervals.subList(n + 1, intervals.size())) {
-                    if (interval1.lastStop.departure_time <= interval2.firstStop.arrival_time || interval2.lastStop.departure_time <= interval1.firstStop.arrival_time) {
-                        continue;
-                    }
-                    // If either trip's last departure occurs after the other's first arrival, they overlap. We still
-                    // need to determine if they operate on the same day though.
-                    if (interval1.trip.service_id.equals(interval2.trip.service_id)) {
-                        // If the overlapping trips share a service_id, record an error.
-                        registerError(interval1.trip, TRIP_OVERLAP_IN_BLOCK, interval2.trip.trip_id);
-                    } else {
-                        // Trips overlap but don't have the same service_id.
-                        // Check to see if service days fall on the same days of the week.
-                        ServiceValidator.ServiceInfo info1 = serviceInfoForServiceId.get(interval1.trip.service_id);
-                        ServiceValidator.ServiceInfo info2 = serviceInfoForServiceId.get(interval2.trip.service_id);
-                        Set<LocalDate> overlappingDates = new HashSet<>(info1.datesActive); // use the copy constructor
-                        overlappingDates.retainAll(info2.datesActive);
-                        if (overlappingDates.size() > 0) {
-                            registerError(interval1.trip, TRIP_OVERLAP_IN_BLOCK, interval2.trip.trip_id);
-                        }
-                    }
+            for (int n = 0; n < intervals.size(); n++) intervals.get(n).rank = n;
+            List<BlockInterval[]> overlappingPairs = findOverlappingIntervals(intervals);
+            // Report overlaps in the same order as a pairwise scan of the sorted intervals would find them.
+            overlappingPairs.sort(Comparator.<BlockInterval[]>comparingInt(pair -> pair[0].rank)
+                .thenComparingInt(pair -> pair[1].rank));
+            for (BlockInterval[] pair : overlappingPairs) {
+                BlockInterval interval1 = pair[0];
+                BlockInterval interval2 = pair[1];
+                // The trips overlap in time of day. We still need to determine if they operate on the same day though.
+                String serviceId1 = interval1.trip.service_id;
+                String serviceId2 = interval2.trip.service_id;
+                boolean sameDays;
+                if (serviceId1.equals(serviceId2)) {
+                    // The overlapping trips share a service_id.
+                    sameDays = true;
+                } else {
+                    // Trips don't have the same service_id. Check whether their services are active on any of the
+                    // same dates, keying the cache by the lesser service ID first so each pair is only checked once.
+                    boolean firstIsLesser = serviceId1.compareTo(serviceId2) < 0;
+                    String lesser = firstIsLesser ? serviceId1 : serviceId2;
+                    String greater = firstIsLesser ? serviceId2 : serviceId1;
+                    sameDays = servicesOverlap
+                        .computeIfAbsent(lesser, k -> new HashMap<>())
+                        .computeIfAbsent(greater, k -> servicesShareDates(lesser, greater));
                 }
+                if (sameDays) registerError(interval1.trip, TRIP_OVERLAP_IN_BLOCK, interval2.trip.trip_id);
             }
         }
     }
 
+    /**
+     * Find all pairs of intervals within one block whose times of day overlap, i.e. where each trip's last departure
+     * is after the other trip's first arrival. Rather than comparing every pair of trips, this sweeps through the
+     * intervals in order of first arrival, keeping a set of active intervals ordered by last departure. An interval
+     * leaves the active set as soon as the sweep passes its last departure, so each interval is only compared with those
+     * that are still running when it begins. This is O(n log n + k) for n trips with k overlapping pairs.
+     *
+     * @return overlapping pairs, each ordered so the interval ranked first in the block comes first.
+     */
+    private static List<BlockInterval[]> findOverlappingIntervals (List<BlockInterval> intervals) {
+        List<BlockInterval> byFirstArrival = new ArrayList<>(intervals);
+        byFirstArrival.sort(Comparator.comparingInt(i -> i.firstArrival));
+        PriorityQueue<BlockInterval> active = new PriorityQueue<>(Comparator.comparingInt(i -> i.lastDeparture));
+        List<BlockInterval[]> overlappingPairs = new ArrayList<>();
+        for (BlockInterval interval : byFirstArrival) {
+            // Drop intervals that ended before (or exactly when) this one begins. Neither they nor any interval later
+            // in the sweep can overlap them.
+            while (!active.isEmpty() && active.peek().lastDeparture <= interval.firstArrival) active.poll();
+            for (BlockInterval other : active) {
+                // All active intervals begin no later than this one and end after it begins. Check the converse too,
+                // in case this interval's times are inconsistent (e.g. it ends before it begins).
+                if (interval.lastDeparture <= other.firstArrival) continue;
+                if (other.rank < interval.rank) overlappingPairs.add(new BlockInterval[] {other, interval});
+                else overlappingPairs.add(new BlockInterval[] {interval, other});
+            }
+            active.add(interval);
+        }
+        return overlappingPairs;
+    }
+
+    /**
+     * @return whether the two services are active on at least one of the same dates. A service that no trip with a
+     * positive duration refers to has no dates recorded, so it is considered never active.
+     */
+    private boolean servicesShareDates (String serviceId1, String serviceId2) {
+        ServiceInfo info1 = serviceInfoForServiceId.get(serviceId1);
+        ServiceInfo info2 = serviceInfoForServiceId.get(serviceId2);
+        if (info1 == null || info2 == null) return false;
+        return info1.datesActive.intersects(info2.datesActive);
+    }
 
     /**
      * A simple class used during validation to store details the run interval for a block trip.
      */
     private class BlockInterval {
         Trip trip;
-        Integer startTime;
-        StopTime firstStop;
-        StopTime lastStop;
+        int startTime;
+        int firstArrival;
+        int lastDeparture;
+        // Position of this interval within its block when sorted by start time.
+        int rank;
     }
 
     /**
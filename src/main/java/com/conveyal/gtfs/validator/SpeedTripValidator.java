@@ -4,19 +4,28 @@ import com.conveyal.gtfs.error.NewGTFSError;
 import com.conveyal.gtfs.error.NewGTFSErrorType;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.HopDistanceCache;
+import com.conveyal.gtfs.loader.TripStopTimes;
 import com.conveyal.gtfs.model.Entity;
 import com.conveyal.gtfs.model.Route;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.*;
 import static com.conveyal.gtfs.util.Util.fastDistance;
-import static com.conveyal.gtfs.validator.NewTripTimesValidator.missingBothTimes;
 
 /**
  * Created by abyrd on 2017-04-18
@@ -24,79 +33,219 @@ import static com.conveyal.gtfs.validator.NewTripTimesValidator.missingBothTimes
 public class SpeedTripValidator extends TripValidator {
 
     public static final double MIN_SPEED_KPH = 0.5;
+
+    /** The types of error this validator registers on individual stop times, identified by their trip ID. */
+    public static final Set<NewGTFSErrorType> TRIP_LEVEL_ERROR_TYPES = Collections.unmodifiableSet(EnumSet.of(
+        STOP_TIME_UNUSED, TIMEPOINT_MISSING_TIMES, DEPARTURE_BEFORE_ARRIVAL, TRAVEL_TOO_SLOW, TRAVEL_TOO_FAST,
+        TRAVEL_DISTANCE_ZERO, TRAVEL_TIME_NEGATIVE, TRAVEL_TIME_ZERO, SHAPE_DIST_TRAVELED_NOT_INCREASING
+    ));
+
+    /**
+     * The maximum number of distinct timetables whose check results are remembered, which bounds the memory used when
+     * most trips in a feed have a timetable of their own.
+     */
+    private static final int MAX_REMEMBERED_TIMETABLES = 100_000;
+
     private boolean allTravelTimesAreRounded = true;
     private Set<NewGTFSError> travelTimeZeroErrors = new HashSet<>();
 
+    /**
+     * The outcome of checking each distinct timetable (see {@link #hashTimetable}), replayed on every other trip with
+     * the same timetable instead of checking it again. Many trips typically share a timetable, differing only in their
+     * start time by a multiple of a minute. Shared with the accumulators, which may be working on other threads.
+     */
+    private final ConcurrentMap<HashCode, List<CheckEvent>> checkEventsForTimetable;
+
+    // Whether the trip currently being checked has already been found to have travel times not rounded to the minute.
+    private boolean tripHasUnroundedTimes;
+
+    // Whether this validator is only revalidating some of the feed's trips, and if so whether the last full validation
+    // found all the feed's travel times to be rounded.
+    private final boolean revalidatingSubset;
+    private final boolean feedTravelTimesRounded;
+
+    // The distances between the cached stops of the feed, shared with the accumulators. Null until supplied.
+    private HopDistanceCache hopDistances;
+
     public SpeedTripValidator(Feed feed, SQLErrorStorage errorStorage) {
         super(feed, errorStorage);
+        revalidatingSubset = false;
+        feedTravelTimesRounded = false;
+        checkEventsForTimetable = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Create a validator that will only see some of the feed's trips (e.g. those changed in an editor), so must take
+     * the rest of the feed into account when deciding whether to report zero travel times.
+     * @param feedTravelTimesRounded whether the feed as a whole was found to have all its travel times rounded to the
+     *                               minute (i.e. a FEED_TRAVEL_TIMES_ROUNDED error is stored).
+     */
+    public SpeedTripValidator(Feed feed, SQLErrorStorage errorStorage, boolean feedTravelTimesRounded) {
+        super(feed, errorStorage);
+        revalidatingSubset = true;
+        this.feedTravelTimesRounded = feedTravelTimesRounded;
+        allTravelTimesAreRounded = feedTravelTimesRounded;
+        checkEventsForTimetable = new ConcurrentHashMap<>();
+    }
+
+    /** Create an accumulator for a batch of trips, sharing the remembered check results of the given validator. */
+    private SpeedTripValidator(SpeedTripValidator parent) {
+        super(parent.feed, parent.errorStorage);
+        revalidatingSubset = parent.revalidatingSubset;
+        feedTravelTimesRounded = parent.feedTravelTimesRounded;
+        allTravelTimesAreRounded = !revalidatingSubset || feedTravelTimesRounded;
+        checkEventsForTimetable = parent.checkEventsForTimetable;
+        hopDistances = parent.hopDistances;
+    }
+
+    /**
+     * Supply the distances between the stops that the columnar stop times of each trip refer to by index, which are
+     * fetched once rather than for every trip. Without them, the distance of every hop is computed.
+     */
+    void setHopDistances (HopDistanceCache hopDistances) {
+        this.hopDistances = hopDistances;
+    }
+
+    /**
+     * Something found while checking a trip, identified by the position of the stop time in the trip rather than by
+     * its line number, so that it can be applied to any trip with the same timetable.
+     */
+    private static class CheckEvent {
+        /** The type of error found, or null if the trip was found to have travel times not rounded to the minute. */
+        final NewGTFSErrorType errorType;
+        final int position;
+        final String badValue;
+
+        CheckEvent (NewGTFSErrorType errorType, int position, String badValue) {
+            this.errorType = errorType;
+            this.position = position;
+            this.badValue = badValue;
+        }
     }
 
     @Override
     public void validateTrip(Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops) {
+        validateTrip(trip, route, TripStopTimes.fromStopTimes(stopTimes, stops), null);
+    }
+
+    @Override
+    public void validateTrip(Trip trip, Route route, TripStopTimes stopTimes) {
+        // Hop distances are remembered by stop index, so can only be reused if the indexes refer to the cached stops.
+        boolean useHopDistances = hopDistances != null && stopTimes.usesStopTable(hopDistances.getStops());
+        validateTrip(trip, route, stopTimes, useHopDistances ? hopDistances : null);
+    }
+
+    /**
+     * @param hopDistances the cache of distances between the stops referred to by stopTimes, or null to compute the
+     *                     distance of every hop.
+     */
+    private void validateTrip(Trip trip, Route route, TripStopTimes stopTimes, HopDistanceCache hopDistances) {
         // The specific maximum speed for this trip's route's mode of travel.
         double maxSpeedKph = getMaxSpeedKph(route);
+        if (hopDistances == null) {
+            // The stop indexes are not comparable across trips, so neither are their timetables.
+            checkTrip(stopTimes, maxSpeedKph, null, null);
+            return;
+        }
+        HashCode timetable = hashTimetable(stopTimes, maxSpeedKph);
+        List<CheckEvent> events = checkEventsForTimetable.get(timetable);
+        if (events != null) {
+            for (CheckEvent event : events) applyEvent(stopTimes, event);
+            return;
+        }
+        events = new ArrayList<>();
+        checkTrip(stopTimes, maxSpeedKph, hopDistances, events);
+        if (checkEventsForTimetable.size() < MAX_REMEMBERED_TIMETABLES) {
+            checkEventsForTimetable.putIfAbsent(timetable, events);
+        }
+    }
+
+    /**
+     * Check the travel speeds and times of a single trip.
+     * @param events if not null, everything found is also recorded in this list so it can be replayed on other trips.
+     */
+    private void checkTrip (
+        TripStopTimes stopTimes,
+        double maxSpeedKph,
+        HopDistanceCache hopDistances,
+        List<CheckEvent> events
+    ) {
+        tripHasUnroundedTimes = false;
         // Skip over any initial stop times that won't allow calculating speeds.
         int beginIndex = 0;
-        while (missingBothTimes(stopTimes.get(beginIndex))) {
+        while (stopTimes.missingBothTimes(beginIndex)) {
             beginIndex++;
-            if (beginIndex == stopTimes.size()) return;
+            if (beginIndex == stopTimes.size) return;
         }
         // Unfortunately we can't work on each stop pair in isolation,
         // because we want to accumulate distance when stop times are missing.
-        StopTime prevStopTime = stopTimes.get(beginIndex);
-        Stop prevStop = stops.get(beginIndex);
+        int prev = beginIndex;
+        int prevStop = beginIndex;
         double distanceMeters = 0;
-        for (int i = beginIndex + 1; i < stopTimes.size(); i++) {
-            StopTime currStopTime = stopTimes.get(i);
-            if (currStopTime.pickup_type == 1 && currStopTime.drop_off_type == 1 && currStopTime.timepoint == 0) {
+        for (int i = beginIndex + 1; i < stopTimes.size; i++) {
+            if (stopTimes.pickupTypes[i] == 1 && stopTimes.dropOffTypes[i] == 1 && stopTimes.timepoints[i] == 0) {
                 // stop_time allows neither pickup or drop off and is not a timepoint, so it serves no purpose.
-                registerError(currStopTime, NewGTFSErrorType.STOP_TIME_UNUSED);
+                report(stopTimes, events, STOP_TIME_UNUSED, i, null);
             }
-            Stop currStop = stops.get(i);
             // Distance is accumulated in case times are not provided for some StopTimes.
-            distanceMeters += fastDistance(currStop.stop_lat, currStop.stop_lon, prevStop.stop_lat, prevStop.stop_lon);
+            distanceMeters += hopDistanceMeters(stopTimes, hopDistances, prevStop, i);
             // Redefine previous stop for next iteration (doing so here ensures the reassignment is not skipped if both
             // stop times for the stop are missing).
-            prevStop = currStop;
+            prevStop = i;
             // Check that shape_dist_traveled is increasing. Note: we skip checking the first index because it appears
             // to be a common practice for agencies to omit a 0.0 value during export. Because most feed consumers
             // likely will just default a missing value to 0.0, we skip this check because it causes excessive noise in
             // validation results.
-            if (beginIndex > 0) checkShapeDistTraveled(prevStopTime, currStopTime);
-            if (missingBothTimes(currStopTime)) {
+            if (beginIndex > 0) checkShapeDistTraveled(stopTimes, events, prev, i);
+            if (stopTimes.missingBothTimes(i)) {
                 // FixMissingTimes has already been called, so both arrival and departure time are missing.
                 // The spec allows this. Other than accumulating distance, skip this StopTime. If this stop_time serves
                 // as a timepoint; however, this is considered an error.
-                if (currStopTime.timepoint == 1) registerError(currStopTime, NewGTFSErrorType.TIMEPOINT_MISSING_TIMES);
+                if (stopTimes.timepoints[i] == 1) {
+                    report(stopTimes, events, TIMEPOINT_MISSING_TIMES, i, null);
+                }
                 continue;
             }
-            if (currStopTime.departure_time < currStopTime.arrival_time) {
-                registerError(currStopTime, DEPARTURE_BEFORE_ARRIVAL);
+            if (stopTimes.departureTimes[i] < stopTimes.arrivalTimes[i]) {
+                report(stopTimes, events, DEPARTURE_BEFORE_ARRIVAL, i, null);
             }
             // Detect if travel times are rounded off to minutes.
-            boolean bothTravelTimesRounded = areTravelTimesRounded(prevStopTime) && areTravelTimesRounded(currStopTime);
-            double travelTimeSeconds = currStopTime.arrival_time - prevStopTime.departure_time;
+            boolean bothTravelTimesRounded =
+                areTravelTimesRounded(stopTimes, events, prev) && areTravelTimesRounded(stopTimes, events, i);
+            double travelTimeSeconds = stopTimes.arrivalTimes[i] - stopTimes.departureTimes[prev];
             // If travel times are rounded and travel time is zero, determine the maximum and minimum possible speed
             // by adding/removing one minute of slack.
             if (bothTravelTimesRounded && travelTimeSeconds == 0) {
                 travelTimeSeconds += 60;
             }
-            if (checkDistanceAndTime(distanceMeters, travelTimeSeconds, currStopTime)) {
+            if (checkDistanceAndTime(distanceMeters, travelTimeSeconds, stopTimes, events, i)) {
                 // If distance and time are OK, we've got valid numbers to calculate a travel speed.
                 double kph = (distanceMeters / 1000D) / (travelTimeSeconds / 60D / 60D);
                 if (kph < MIN_SPEED_KPH) {
-                    registerError(currStopTime, TRAVEL_TOO_SLOW, String.format("%2.1f km/h", kph));
+                    report(stopTimes, events, TRAVEL_TOO_SLOW, i, String.format("%2.1f km/h", kph));
                 } else if (kph > maxSpeedKph) {
-                    registerError(currStopTime, TRAVEL_TOO_FAST, String.format("%2.1f km/h", kph));
+                    report(stopTimes, events, TRAVEL_TOO_FAST, i, String.format("%2.1f km/h", kph));
                 }
             }
             // Reset accumulated distance, we've processed a stop time with arrival or departure time specified.
             distanceMeters = 0;
             // Redefine current stopTime for the next iteration.
-            prevStopTime = currStopTime;
+            prev = i;
         }
     }
 
+    /**
+     * @return the distance between the stops visited by two stop times of a trip, from the cache if one is supplied.
+     */
+    private static double hopDistanceMeters (TripStopTimes stopTimes, HopDistanceCache hopDistances, int from, int to) {
+        if (hopDistances != null) {
+            return hopDistances.getDistanceMeters(stopTimes.stopIndexes[from], stopTimes.stopIndexes[to]);
+        }
+        Stop fromStop = stopTimes.getStop(from);
+        Stop toStop = stopTimes.getStop(to);
+        return fastDistance(toStop.stop_lat, toStop.stop_lon, fromStop.stop_lat, fromStop.stop_lon);
+    }
+
     /**
      * Register shape dist traveled error if current stop time has a value AND either the previous value is
      * missing (if at least one stop time has a value, all stop times for the trip should) OR if current value
@@ -104,35 +253,131 @@ public class SpeedTripValidator extends TripValidator {
      * current value is missing, the previous value will be greater than the current stop time's value because
      * {@link Entity#DOUBLE_MISSING} is the lowest possible double value. This in turn will register an error.
      */
-    private void checkShapeDistTraveled(StopTime previous, StopTime current) {
+    private void checkShapeDistTraveled(TripStopTimes stopTimes, List<CheckEvent> events, int previous, int current) {
+        double currentDistance = stopTimes.shapeDistTraveled[current];
+        double previousDistance = stopTimes.shapeDistTraveled[previous];
         if (
-            current.shape_dist_traveled != Entity.DOUBLE_MISSING &&
+            currentDistance != Entity.DOUBLE_MISSING &&
             (
-                previous.shape_dist_traveled == Entity.DOUBLE_MISSING ||
-                current.shape_dist_traveled <= previous.shape_dist_traveled
+                previousDistance == Entity.DOUBLE_MISSING ||
+                currentDistance <= previousDistance
             )
         ) {
-            registerError(current, SHAPE_DIST_TRAVELED_NOT_INCREASING, current.shape_dist_traveled);
+            report(stopTimes, events, SHAPE_DIST_TRAVELED_NOT_INCREASING, current, Double.toString(currentDistance));
         }
     }
 
+    /**
+     * Report something found about the stop time at the given position in the trip, recording it for replay if needed.
+     */
+    private void report (
+        TripStopTimes stopTimes,
+        List<CheckEvent> events,
+        NewGTFSErrorType errorType,
+        int position,
+        String badValue
+    ) {
+        CheckEvent event = new CheckEvent(errorType, position, badValue);
+        if (events != null) events.add(event);
+        applyEvent(stopTimes, event);
+    }
+
+    /**
+     * Register the error described by the event on the stop time at the event's position in the given trip, or record
+     * that the feed's travel times are not all rounded. This has the same effect whether the event was just found on
+     * this trip or is being replayed from another trip with the same timetable.
+     */
+    private void applyEvent (TripStopTimes stopTimes, CheckEvent event) {
+        if (event.errorType == null) {
+            allTravelTimesAreRounded = false;
+            return;
+        }
+        NewGTFSError error = stopTimes.errorFor(event.position, event.errorType);
+        if (event.badValue != null) error.setBadValue(event.badValue);
+        // Only register the travel time zero error if not all travel times are rounded. Otherwise, hold onto the
+        // error in the travelTimeZeroErrors collection until the completion of this validator.
+        if (event.errorType == TRAVEL_TIME_ZERO && allTravelTimesAreRounded) travelTimeZeroErrors.add(error);
+        else registerError(error);
+    }
+
+    /**
+     * Hash everything about a trip that affects the outcome of checking it: the stops visited, the times relative to
+     * the first time in the trip (and that time modulo one minute, which determines whether the times are rounded), the
+     * other stop time fields that are checked and the maximum speed for the route's mode of travel. Trips with the same
+     * hash yield the same errors, on the stop times at the same positions. The 128-bit hash makes a collision between
+     * different timetables vanishingly unlikely.
+     */
+    private static HashCode hashTimetable (TripStopTimes stopTimes, double maxSpeedKph) {
+        int baseTime = Entity.INT_MISSING;
+        for (int i = 0; i < stopTimes.size && baseTime == Entity.INT_MISSING; i++) {
+            baseTime = stopTimes.arrivalTimes[i] != Entity.INT_MISSING
+                ? stopTimes.arrivalTimes[i]
+                : stopTimes.departureTimes[i];
+        }
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+            .putInt(stopTimes.size)
+            .putDouble(maxSpeedKph)
+            .putInt(baseTime == Entity.INT_MISSING ? 0 : baseTime % 60);
+        for (int i = 0; i < stopTimes.size; i++) {
+            hasher.putInt(stopTimes.stopIndexes[i])
+                .putInt(relativeTime(stopTimes.arrivalTimes[i], baseTime))
+                .putInt(relativeTime(stopTimes.departureTimes[i], baseTime))
+                .putInt(stopTimes.pickupTypes[i])
+                .putInt(stopTimes.dropOffTypes[i])
+                .putInt(stopTimes.timepoints[i])
+                .putDouble(stopTimes.shapeDistTraveled[i]);
+        }
+        return hasher.hash();
+    }
+
+    private static int relativeTime (int time, int baseTime) {
+        return time == Entity.INT_MISSING ? Entity.INT_MISSING : time - baseTime;
+    }
+
+    @Override
+    public TripValidator newAccumulator () {
+        return new SpeedTripValidator(this);
+    }
+
+    @Override
+    public void mergeAccumulator (TripValidator accumulator) {
+        SpeedTripValidator other = (SpeedTripValidator) accumulator;
+        if (!other.allTravelTimesAreRounded) allTravelTimesAreRounded = false;
+        travelTimeZeroErrors.addAll(other.travelTimeZeroErrors);
+    }
+
     /**
      * Completing this feed validator means checking if there were any unrounded travel times in the feed and (if so)
      * registering any zero travel time errors that were passed over before the first unrounded travel time was
      * encountered. If in fact all travel times are rounded to the minute, store a special feed-wide error in this case.
      */
     public void complete (ValidationResult validationResult) {
+        if (revalidatingSubset) {
+            // Zero travel times were reported immediately unless the rest of the feed is rounded, and the feed-wide
+            // error is already stored if it still applies.
+            if (feedTravelTimesRounded && !allTravelTimesAreRounded) {
+                // The revalidated trips are no longer rounded, so neither is the feed. Zero travel times on the other
+                // trips in the feed will only be reported when the whole feed is next validated.
+                errorStorage.deleteErrors(EnumSet.of(FEED_TRAVEL_TIMES_ROUNDED), null);
+                storeErrors(travelTimeZeroErrors);
+            }
+            return;
+        }
         if (!allTravelTimesAreRounded) storeErrors(travelTimeZeroErrors);
         else registerError(NewGTFSError.forFeed(FEED_TRAVEL_TIMES_ROUNDED, null));
     }
 
     /**
      * Check that arrival and departure time for a stop time are rounded to the minute and update
-     * {@link #allTravelTimesAreRounded} accordingly.
+     * {@link #allTravelTimesAreRounded} accordingly (via an event, so that the update is replayed with the errors).
      */
-    private boolean areTravelTimesRounded(StopTime stopTime) {
-        boolean bothTravelTimesAreRounded = stopTime.departure_time % 60 == 0 && stopTime.arrival_time % 60 == 0;
-        if (!bothTravelTimesAreRounded) this.allTravelTimesAreRounded = false;
+    private boolean areTravelTimesRounded(TripStopTimes stopTimes, List<CheckEvent> events, int i) {
+        boolean bothTravelTimesAreRounded = stopTimes.departureTimes[i] % 60 == 0 && stopTimes.arrivalTimes[i] % 60 == 0;
+        if (!bothTravelTimesAreRounded && !tripHasUnroundedTimes) {
+            // Only the first unrounded time in a trip changes anything, so only that one is recorded.
+            tripHasUnroundedTimes = true;
+            report(stopTimes, events, null, i, null);
+        }
         return bothTravelTimesAreRounded;
     }
 
@@ -140,21 +385,25 @@ public class SpeedTripValidator extends TripValidator {
      * This just pulls some of the range checking logic out of the main trip checking loop so it's more readable.
      * @return true if all values are OK
      */
-    private boolean checkDistanceAndTime (double distanceMeters, double travelTimeSeconds, StopTime stopTime) {
+    private boolean checkDistanceAndTime (
+        double distanceMeters,
+        double travelTimeSeconds,
+        TripStopTimes stopTimes,
+        List<CheckEvent> events,
+        int i
+    ) {
         boolean good = true;
         // TODO Use Epsilon for very tiny travel e.g. < 5 meters
         if (distanceMeters == 0) {
-            registerError(stopTime, TRAVEL_DISTANCE_ZERO);
+            report(stopTimes, events, TRAVEL_DISTANCE_ZERO, i, null);
             good = false;
         }
         if (travelTimeSeconds < 0) {
-            registerError(stopTime, TRAVEL_TIME_NEGATIVE, travelTimeSeconds);
+            report(stopTimes, events, TRAVEL_TIME_NEGATIVE, i, Double.toString(travelTimeSeconds));
             good = false;
         } else if (travelTimeSeconds == 0) {
-            // Only register the travel time zero error if not all travel times are rounded. Otherwise, hold onto the
-            // error in the travelTimeZeroErrors collection until the completion of this validator.
-            if (!allTravelTimesAreRounded) registerError(stopTime, TRAVEL_TIME_ZERO);
-            else travelTimeZeroErrors.add(createUnregisteredError(stopTime, TRAVEL_TIME_ZERO));
+            // Held until this validator completes if all travel times seen so far are rounded (see applyEvent).
+            report(stopTimes, events, TRAVEL_TIME_ZERO, i, null);
             good = false;
         }
         return good;
@@ -2,6 +2,7 @@ package com.conveyal.gtfs.validator;
 
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.TripStopTimes;
 import com.conveyal.gtfs.model.Route;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
@@ -26,4 +27,31 @@ public abstract class TripValidator extends Validator {
      */
     public abstract void validateTrip (Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops);
 
+    /**
+     * This method will be called on each trip in the feed by NewTripTimesValidator, which reads stop_times in columnar
+     * form. The default implementation converts the columns to objects and calls the list-based method, so validators
+     * that are not performance critical need not override it. The arrays in stopTimes are reused for the next trip, so
+     * implementations must not retain references to them.
+     * @param stopTimes all the stop times in the given trip, in order of increasing stop_sequence.
+     */
+    public void validateTrip (Trip trip, Route route, TripStopTimes stopTimes) {
+        validateTrip(trip, route, stopTimes.getStopTimeObjects(), stopTimes.getStopObjects());
+    }
+
+    /**
+     * Create an empty instance of this validator that accumulates state for a separate batch of trips, allowing batches
+     * to be validated on worker threads. The state is later folded back into this instance by
+     * {@link #mergeAccumulator(TripValidator)}. The default implementation returns this same instance, which is only
+     * appropriate for validators that keep no state from one trip to the next.
+     */
+    public TripValidator newAccumulator () {
+        return this;
+    }
+
+    /**
+     * Merge the state held by an accumulator created with {@link #newAccumulator()} into this instance. Accumulators are
+     * merged on a single thread in the order their batches of trips were read, so results are deterministic.
+     */
+    public void mergeAccumulator (TripValidator accumulator) { }
+
 }
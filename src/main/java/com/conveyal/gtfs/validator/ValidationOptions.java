@@ -0,0 +1,53 @@
+package com.conveyal.gtfs.validator;
+
+/**
+ * The options for validating a feed with {@link com.conveyal.gtfs.loader.Feed#validate(ValidationOptions,
+ * FeedValidatorCreator...)}. The defaults (the full profile, run serially, without reusing cached results) are those
+ * of {@link com.conveyal.gtfs.loader.Feed#validate(FeedValidatorCreator...)}. Setters can be chained, e.g.
+ * {@code new ValidationOptions().profile(ValidationProfile.FAST).runInParallel(true)}.
+ */
+public class ValidationOptions {
+
+    private ValidationProfile profile = ValidationProfile.FULL;
+    private boolean runInParallel = false;
+    private boolean reuseCachedResults = false;
+
+    /** Run only the checks in the given profile. The profile is recorded in the validation result. */
+    public ValidationOptions profile (ValidationProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    /**
+     * Run the validate() phase of the feed validators concurrently, and validate the trips within
+     * {@link NewTripTimesValidator} in batches on a pool of worker threads.
+     */
+    public ValidationOptions runInParallel (boolean runInParallel) {
+        this.runInParallel = runInParallel;
+        return this;
+    }
+
+    /**
+     * Reuse the results of validating another copy of the same feed file with the same validators, if there are any
+     * (see {@link com.conveyal.gtfs.loader.ValidationResultCache}). This must only be set if the feed's tables have not
+     * been modified since it was loaded, because cached results are matched on the hash of the file the feed was
+     * loaded from.
+     */
+    public ValidationOptions reuseCachedResults (boolean reuseCachedResults) {
+        this.reuseCachedResults = reuseCachedResults;
+        return this;
+    }
+
+    public ValidationProfile getProfile () {
+        return profile;
+    }
+
+    public boolean isRunInParallel () {
+        return runInParallel;
+    }
+
+    public boolean isReuseCachedResults () {
+        return reuseCachedResults;
+    }
+
+}
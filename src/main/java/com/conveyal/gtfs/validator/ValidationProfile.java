@@ -0,0 +1,43 @@
+package com.conveyal.gtfs.validator;
+
+/**
+ * Named sets of checks that can be run when validating a feed (see {@link ValidationOptions#profile}), trading
+ * completeness for speed. Any additional validators supplied by the caller are run with every profile.
+ */
+public enum ValidationProfile {
+
+    /**
+     * Only the checks that read the smaller tables (agencies, stops, routes, trips, fares and frequencies). Stop times
+     * and shapes are not read at all and the derived tables are left as they are, so this finishes in seconds even on
+     * large feeds. Intended for interactive use, e.g. after publishing a feed from the editor.
+     */
+    FAST(false, false, false),
+
+    /**
+     * All checks except those comparing trips with their shapes, which stream the whole shapes table. The derived
+     * tables (services, service_dates, patterns etc.) are rebuilt.
+     */
+    STANDARD(true, false, true),
+
+    /** Every check, rebuilding the derived tables. This is the default. */
+    FULL(true, true, true);
+
+    /** Whether the stop times of every trip are scanned and checked, see {@link NewTripTimesValidator}. */
+    public final boolean checkStopTimes;
+
+    /** Whether trips are compared with their shapes, see {@link ReversedTripValidator}. */
+    public final boolean checkShapes;
+
+    /**
+     * Whether the tables derived from the trips (services, service_dates, service_durations, patterns, pattern_stops
+     * and pattern_hop_stats) are rebuilt, see {@link ServiceValidator} and {@link PatternFinderValidator}.
+     */
+    public final boolean rebuildDerivedTables;
+
+    ValidationProfile (boolean checkStopTimes, boolean checkShapes, boolean rebuildDerivedTables) {
+        this.checkStopTimes = checkStopTimes;
+        this.checkShapes = checkShapes;
+        this.rebuildDerivedTables = rebuildDerivedTables;
+    }
+
+}
@@ -5,6 +5,8 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import java.awt.geom.Rectangle2D;
 import java.io.Serializable;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * An instance of this class is returned by the validator.
@@ -20,6 +22,9 @@ public class ValidationResult implements Serializable {
     private static final long serialVersionUID = 1L;
     public String fatalException = null;
 
+    /** The set of checks that produced this result. */
+    public ValidationProfile profile;
+
     public int errorCount;
     public LocalDate declaredStartDate;
     public LocalDate declaredEndDate;
@@ -42,6 +47,13 @@ public class ValidationResult implements Serializable {
     public GeographicBounds boundsWithoutOutliers = new GeographicBounds();
     public long validationTime;
 
+    /**
+     * Measurements for each validator that was run, in the order they were run. When the result was reused from
+     * another copy of the same feed (see {@link com.conveyal.gtfs.loader.ValidationResultCache}), these describe the
+     * validation that produced it.
+     */
+    public List<ValidatorMetrics> validatorMetrics = new ArrayList<>();
+
     public static class GeographicBounds implements Serializable {
         private static final long serialVersionUID = 1L;
         public double minLon;
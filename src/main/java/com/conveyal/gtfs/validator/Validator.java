@@ -7,6 +7,8 @@ import com.conveyal.gtfs.loader.Feed;
 import com.conveyal.gtfs.model.Entity;
 
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A Validator examines a whole GTFS feed or a single trip within a GTFS feed. It accumulates error messages for
@@ -18,11 +20,50 @@ public abstract class Validator {
 
     SQLErrorStorage errorStorage;
 
+    // The number of rows read and errors stored by this validator, reported in its ValidatorMetrics. These are atomic
+    // because stateless trip validators are shared by all the threads validating trips in parallel.
+    private final AtomicLong rowsScanned = new AtomicLong();
+    private final AtomicInteger errorsRegistered = new AtomicInteger();
+
     public Validator(Feed feed, SQLErrorStorage errorStorage) {
         this.feed = feed;
         this.errorStorage = errorStorage;
     }
 
+    /**
+     * Record that this validator has read the given number of rows from the feed's tables (or from the feed's cache).
+     */
+    protected void countRowsScanned (long rowCount) {
+        rowsScanned.addAndGet(rowCount);
+    }
+
+    /**
+     * Record that errors have been stored on behalf of this validator without passing through its registerError
+     * methods, e.g. by an insert ... select.
+     */
+    protected void countErrorsRegistered (int errorCount) {
+        errorsRegistered.addAndGet(errorCount);
+    }
+
+    /** @return the number of rows this validator has read so far. */
+    public long getRowsScanned () {
+        return rowsScanned.get();
+    }
+
+    /** @return the number of errors this validator has stored so far. */
+    public int getErrorsRegistered () {
+        return errorsRegistered.get();
+    }
+
+    /**
+     * Add the rows read and errors stored by another validator to those of this one, e.g. when it is an accumulator
+     * that validated a batch of trips on behalf of this validator.
+     */
+    void addCounts (Validator other) {
+        rowsScanned.addAndGet(other.getRowsScanned());
+        errorsRegistered.addAndGet(other.getErrorsRegistered());
+    }
+
     /**
      * Store an error that affects the entire feed or an entire file. Wraps the underlying error constructor.
      */
@@ -35,6 +76,7 @@ public abstract class Validator {
      */
     public void registerError(Entity entity, NewGTFSErrorType errorType) {
         errorStorage.storeError(NewGTFSError.forEntity(entity, errorType));
+        errorsRegistered.incrementAndGet();
     }
 
     /**
@@ -42,6 +84,7 @@ public abstract class Validator {
      */
     public void storeErrors(Set<NewGTFSError> errors) {
         errorStorage.storeErrors(errors);
+        errorsRegistered.addAndGet(errors.size());
     }
 
     /**
@@ -67,6 +110,7 @@ public abstract class Validator {
      */
     public void registerError(Entity entity, NewGTFSErrorType errorType, Object badValue) {
         errorStorage.storeError(NewGTFSError.forEntity(entity, errorType).setBadValue(badValue.toString()));
+        errorsRegistered.incrementAndGet();
     }
 
     /**
@@ -74,6 +118,7 @@ public abstract class Validator {
      */
     public void registerError (NewGTFSError error) {
         errorStorage.storeError(error);
+        errorsRegistered.incrementAndGet();
     }
 
     /**
@@ -0,0 +1,99 @@
+package com.conveyal.gtfs.validator;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Measurements of the work done by one feed validator while validating a feed, stored in
+ * {@link ValidationResult#validatorMetrics} so that the performance of validators can be tracked across many feeds.
+ * Validators that run others on their behalf (e.g. {@link NewTripTimesValidator} and {@link EntityScanValidator})
+ * include the rows and errors of those validators in their own, and each of the validators they run is also reported
+ * in a separate instance naming the validator that ran it (see {@link FeedValidator#getComponentMetrics()}).
+ */
+public class ValidatorMetrics implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The simple class name of the validator. */
+    public String validatorName;
+
+    /**
+     * The simple class name of the validator that ran this one on its behalf, or null if it was run by the feed. The
+     * work done by such validators is already included in the metrics of the validator that ran them, so it must not
+     * be added to the totals again.
+     */
+    public String parentValidatorName;
+
+    /**
+     * Wall clock time spent in the validate() and complete() phases, in milliseconds. When the trip validators run by
+     * {@link NewTripTimesValidator} are run on several threads, their validate() time is summed over all the threads.
+     */
+    public long validateMillis;
+    public long completeMillis;
+
+    /** The number of rows read by the validator from the feed's tables or from the feed's cache, in both phases. */
+    public long rowsScanned;
+
+    /** The number of errors stored by the validator, in both phases. */
+    public int errorCount;
+
+    /**
+     * The growth in the long-lived part of the heap (the old or tenured generation) during each phase: its highest use
+     * during the phase, relative to its use when the phase began, in bytes. Short-lived allocations that are collected
+     * from the young generation are not counted, so this reflects the memory a validator holds on to (e.g. its caches
+     * and accumulated results). These are only measured when no other validators are running at the same time, and
+     * are null otherwise.
+     */
+    public Long validatePeakHeapDeltaBytes;
+    public Long completePeakHeapDeltaBytes;
+
+    public ValidatorMetrics () { }
+
+    public ValidatorMetrics (Validator validator) {
+        this.validatorName = validator.getClass().getSimpleName();
+    }
+
+    public ValidatorMetrics (Validator validator, Validator parentValidator) {
+        this(validator);
+        this.parentValidatorName = parentValidator.getClass().getSimpleName();
+    }
+
+    /**
+     * Reset the recorded peak use of the long-lived heap memory pools, ready to measure the peak use of the next phase.
+     * @return the long-lived heap currently in use, in bytes.
+     */
+    public static long resetPeakHeapUsage () {
+        long usedBytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (!isLongLivedHeapPool(pool)) continue;
+            pool.resetPeakUsage();
+            usedBytes += pool.getUsage().getUsed();
+        }
+        return usedBytes;
+    }
+
+    /**
+     * @return the sum of the peak use of each long-lived heap memory pool since {@link #resetPeakHeapUsage()} was
+     * called, in bytes.
+     */
+    public static long getPeakHeapUsage () {
+        long peakBytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (!isLongLivedHeapPool(pool)) continue;
+            peakBytes += pool.getPeakUsage().getUsed();
+        }
+        return peakBytes;
+    }
+
+    /**
+     * Adding up the peaks of the young generation pools would count every short-lived allocation made between
+     * collections, so only the pools holding objects that survived collection are measured. Eden and survivor spaces
+     * are the pools that do not support a usage threshold, because their use says nothing about live objects.
+     */
+    private static boolean isLongLivedHeapPool (MemoryPoolMXBean pool) {
+        return pool.getType() == MemoryType.HEAP && pool.isValid() && pool.isUsageThresholdSupported();
+    }
+
+}
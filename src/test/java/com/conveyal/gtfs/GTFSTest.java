@@ -2,9 +2,13 @@ package com.conveyal.gtfs;
 
 
 import com.conveyal.gtfs.error.NewGTFSErrorType;
+import com.conveyal.gtfs.loader.Feed;
 import com.conveyal.gtfs.loader.FeedLoadResult;
 import com.conveyal.gtfs.loader.JdbcGtfsExporter;
+import com.conveyal.gtfs.loader.JdbcGtfsLoader;
+import com.conveyal.gtfs.loader.JdbcTableWriter;
 import com.conveyal.gtfs.loader.SnapshotResult;
+import com.conveyal.gtfs.loader.Table;
 import com.conveyal.gtfs.storage.ErrorExpectation;
 import com.conveyal.gtfs.storage.ExpectedFieldType;
 import com.conveyal.gtfs.storage.PersistenceExpectation;
@@ -12,7 +16,10 @@ import com.conveyal.gtfs.storage.RecordExpectation;
 import com.conveyal.gtfs.util.InvalidNamespaceException;
 import com.conveyal.gtfs.validator.FeedValidatorCreator;
 import com.conveyal.gtfs.validator.MTCValidator;
+import com.conveyal.gtfs.validator.ValidationOptions;
+import com.conveyal.gtfs.validator.ValidationProfile;
 import com.conveyal.gtfs.validator.ValidationResult;
+import com.conveyal.gtfs.validator.ValidatorMetrics;
 import com.csvreader.CsvReader;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
@@ -37,14 +44,22 @@ import java.nio.charset.Charset;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+import static com.conveyal.gtfs.TestUtils.getSortedRows;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.core.IsNull.nullValue;
@@ -112,6 +127,7 @@ public class GTFSTest {
             new ErrorExpectation(NewGTFSErrorType.ROUTE_LONG_NAME_CONTAINS_SHORT_NAME),
             new ErrorExpectation(NewGTFSErrorType.FEED_TRAVEL_TIMES_ROUNDED),
             new ErrorExpectation(NewGTFSErrorType.STOP_UNUSED, equalTo("1234567")),
+            new ErrorExpectation(NewGTFSErrorType.STOP_TOO_FAR_FROM_SHAPE, equalTo("frequency-trip")),
             new ErrorExpectation(NewGTFSErrorType.DATE_NO_SERVICE)
         );
         assertThat(
@@ -283,6 +299,7 @@ public class GTFSTest {
             new ErrorExpectation(NewGTFSErrorType.ROUTE_LONG_NAME_CONTAINS_SHORT_NAME),
             new ErrorExpectation(NewGTFSErrorType.FEED_TRAVEL_TIMES_ROUNDED),
             new ErrorExpectation(NewGTFSErrorType.STOP_UNUSED),
+            new ErrorExpectation(NewGTFSErrorType.STOP_TOO_FAR_FROM_SHAPE),
             new ErrorExpectation(NewGTFSErrorType.DATE_NO_SERVICE)
         );
         assertThat(
@@ -539,7 +556,10 @@ public class GTFSTest {
             new ErrorExpectation(NewGTFSErrorType.FIELD_VALUE_TOO_LONG),
             new ErrorExpectation(NewGTFSErrorType.FIELD_VALUE_TOO_LONG),
             new ErrorExpectation(NewGTFSErrorType.FIELD_VALUE_TOO_LONG),
-            new ErrorExpectation(NewGTFSErrorType.FEED_TRAVEL_TIMES_ROUNDED) // Not related, not worrying about this one.
+            new ErrorExpectation(NewGTFSErrorType.FEED_TRAVEL_TIMES_ROUNDED), // Not related, not worrying about this one.
+            // Stop 1234 is several kilometers from the shape used by these trips.
+            new ErrorExpectation(NewGTFSErrorType.STOP_TOO_FAR_FROM_SHAPE, equalTo("frequency-trip")),
+            new ErrorExpectation(NewGTFSErrorType.STOP_TOO_FAR_FROM_SHAPE, equalTo("trip-with-long-shortname"))
         );
         assertThat(
             "Long-field-value test passes",
@@ -578,6 +598,286 @@ public class GTFSTest {
         );
     }
 
+    /**
+     * Load the same feed twice and confirm that validating the second copy reuses the results of validating the first,
+     * copying the same errors and derived tables into its namespace.
+     */
+    @Test
+    void canReuseCachedValidationResults() throws IOException, SQLException, InvalidNamespaceException {
+        String testDBName = TestUtils.generateNewDB();
+        try {
+            String zipFileName = TestUtils.zipFolderFiles("fake-agency", true);
+            String dbConnectionUrl = String.join("/", JDBC_URL, testDBName);
+            DataSource dataSource = TestUtils.createTestDataSource(dbConnectionUrl);
+            String firstNamespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            String secondNamespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            ValidationResult firstResult = new Feed(dataSource, firstNamespace)
+                .validate(new ValidationOptions().reuseCachedResults(true));
+            ValidationResult secondResult = new Feed(dataSource, secondNamespace)
+                .validate(new ValidationOptions().reuseCachedResults(true));
+            // The cached result is read back from JSON.
+            assertThat(secondResult.profile, equalTo(firstResult.profile));
+            assertThat(secondResult.errorCount, equalTo(firstResult.errorCount));
+            assertThat(secondResult.firstCalendarDate, equalTo(firstResult.firstCalendarDate));
+            assertThat(secondResult.dailyTripCounts, equalTo(firstResult.dailyTripCounts));
+            // A cached result carries the metrics recorded when the first copy was validated. Running the validators
+            // again would have measured them afresh.
+            assertThat(secondResult.validatorMetrics.size(), equalTo(firstResult.validatorMetrics.size()));
+            for (int i = 0; i < firstResult.validatorMetrics.size(); i++) {
+                ValidatorMetrics firstMetrics = firstResult.validatorMetrics.get(i);
+                ValidatorMetrics secondMetrics = secondResult.validatorMetrics.get(i);
+                assertThat(secondMetrics.validatorName, equalTo(firstMetrics.validatorName));
+                assertThat(secondMetrics.validateMillis, equalTo(firstMetrics.validateMillis));
+                assertThat(secondMetrics.validatePeakHeapDeltaBytes, equalTo(firstMetrics.validatePeakHeapDeltaBytes));
+                assertThat(secondMetrics.completePeakHeapDeltaBytes, equalTo(firstMetrics.completePeakHeapDeltaBytes));
+            }
+            try (Connection connection = dataSource.getConnection()) {
+                // Validating the second copy without a hit would have replaced the cache entry with one for itself.
+                ResultSet cacheEntries =
+                    connection.createStatement().executeQuery("select namespace from validation_results");
+                assertThat(cacheEntries.next(), is(true));
+                assertThat(cacheEntries.getString(1), equalTo(firstNamespace));
+                assertThat(cacheEntries.next(), is(false));
+                String[] queries = {
+                    "select count(*) from %s.errors",
+                    "select count(*) from %s.error_info",
+                    "select count(*) from %s.service_dates",
+                    "select count(*) from %s.patterns",
+                    "select count(*) from %s.pattern_stops",
+                    "select count(pattern_id) from %s.trips"
+                };
+                for (String query : queries) {
+                    int firstCount = getCount(connection, String.format(query, firstNamespace));
+                    assertThat(getCount(connection, String.format(query, secondNamespace)), equalTo(firstCount));
+                }
+                // Trips in the copy are assigned to the copied patterns.
+                assertThat(getCount(connection, String.format("select count(*) from %s.trips as trips " +
+                    "join %s.patterns as patterns on trips.pattern_id = patterns.pattern_id",
+                    secondNamespace, secondNamespace)) > 0, is(true));
+            }
+            // Once the first copy is edited its results no longer describe the file, so they must not be reused.
+            int frequencyId;
+            try (Connection connection = dataSource.getConnection()) {
+                frequencyId = getCount(connection, String.format("select min(id) from %s.frequencies", firstNamespace));
+            }
+            new JdbcTableWriter(Table.FREQUENCIES, dataSource, firstNamespace).delete(frequencyId, true);
+            try (Connection connection = dataSource.getConnection()) {
+                assertThat(getCount(connection, "select count(*) from validation_results"), equalTo(0));
+            }
+        } finally {
+            TestUtils.dropDB(testDBName);
+        }
+    }
+
+    /**
+     * Validate three copies of the same feed with the fast, standard and full profiles, and confirm which checks each
+     * profile skips: the fast profile does not scan stop times, and only the full profile compares trips with shapes.
+     * The errors found while loading and by the checks on the smaller tables are the same for every profile.
+     */
+    @Test
+    void canValidateWithFastProfile() throws IOException, SQLException {
+        String testDBName = TestUtils.generateNewDB();
+        try {
+            String zipFileName = TestUtils.zipFolderFiles("fake-agency", true);
+            String dbConnectionUrl = String.join("/", JDBC_URL, testDBName);
+            DataSource dataSource = TestUtils.createTestDataSource(dbConnectionUrl);
+            String fastNamespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            String standardNamespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            String fullNamespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            ValidationResult fastResult = GTFS.validate(fastNamespace, dataSource, ValidationProfile.FAST);
+            ValidationResult standardResult = GTFS.validate(standardNamespace, dataSource, ValidationProfile.STANDARD);
+            ValidationResult fullResult = GTFS.validate(fullNamespace, dataSource, ValidationProfile.FULL);
+            assertThat(fastResult.profile, equalTo(ValidationProfile.FAST));
+            assertThat(standardResult.profile, equalTo(ValidationProfile.STANDARD));
+            assertThat(fullResult.profile, equalTo(ValidationProfile.FULL));
+            // Only the standard and full validations scan stop times, and their metrics record the rows read. The
+            // validators run on behalf of the trip times and entity scan validators are each reported separately.
+            assertThat(fastResult.validatorMetrics.size() < fullResult.validatorMetrics.size(), is(true));
+            Map<String, ValidatorMetrics> fastMetrics = getMetricsByValidatorName(fastResult);
+            Map<String, ValidatorMetrics> fullMetrics = getMetricsByValidatorName(fullResult);
+            String[] entityValidatorNames = {"FaresValidator", "TimeZoneValidator"};
+            String[] tripValidatorNames = {
+                "SpeedTripValidator", "ReferencesTripValidator", "ReversedTripValidator", "ServiceValidator",
+                "PatternFinderValidator"
+            };
+            assertThat(fastMetrics.keySet(), hasItems("EntityScanValidator", "NamesValidator"));
+            assertThat(fastMetrics.keySet(), hasItems(entityValidatorNames));
+            assertThat(fastMetrics.keySet(), not(hasItem("NewTripTimesValidator")));
+            assertThat(fastMetrics.keySet(), not(hasItem("SpeedTripValidator")));
+            assertThat(fullMetrics.keySet(),
+                hasItems("EntityScanValidator", "NamesValidator", "NewTripTimesValidator"));
+            assertThat(fullMetrics.keySet(), hasItems(entityValidatorNames));
+            assertThat(fullMetrics.keySet(), hasItems(tripValidatorNames));
+            for (String name : entityValidatorNames) {
+                assertThat(fullMetrics.get(name).parentValidatorName, equalTo("EntityScanValidator"));
+            }
+            for (String name : tripValidatorNames) {
+                assertThat(fullMetrics.get(name).parentValidatorName, equalTo("NewTripTimesValidator"));
+            }
+            assertThat(fullMetrics.get("NewTripTimesValidator").parentValidatorName, nullValue());
+            assertThat(fullMetrics.get("NewTripTimesValidator").rowsScanned > 0, is(true));
+            assertThat(fullMetrics.get("NewTripTimesValidator").errorCount > 0, is(true));
+            // The time zone validator is handed every agency and stop, the reversed trip validator reads the shapes.
+            assertThat(fullMetrics.get("TimeZoneValidator").rowsScanned > 0, is(true));
+            assertThat(fullMetrics.get("ReversedTripValidator").rowsScanned > 0, is(true));
+            // Load errors and the route name check on the smaller tables.
+            String[] keptByFastProfile = {
+                "MISSING_FIELD", "REFERENTIAL_INTEGRITY", "ROUTE_LONG_NAME_CONTAINS_SHORT_NAME"
+            };
+            // Checks made while scanning stop times, and on the services derived from them.
+            String[] skippedByFastProfile = {"DATE_NO_SERVICE", "FEED_TRAVEL_TIMES_ROUNDED", "STOP_UNUSED"};
+            // Checks comparing trips with their shapes.
+            String[] skippedByStandardProfile = {"STOP_TOO_FAR_FROM_SHAPE"};
+            try (Connection connection = dataSource.getConnection()) {
+                assertThat(getErrorTypes(connection, fastNamespace), equalTo(sortedUnion(keptByFastProfile)));
+                assertThat(getErrorTypes(connection, standardNamespace),
+                    equalTo(sortedUnion(keptByFastProfile, skippedByFastProfile)));
+                assertThat(getErrorTypes(connection, fullNamespace),
+                    equalTo(sortedUnion(keptByFastProfile, skippedByFastProfile, skippedByStandardProfile)));
+            }
+            assertThat(fastResult.errorCount, equalTo(keptByFastProfile.length));
+            assertThat(fullResult.errorCount,
+                equalTo(keptByFastProfile.length + skippedByFastProfile.length + skippedByStandardProfile.length));
+        } finally {
+            TestUtils.dropDB(testDBName);
+        }
+    }
+
+    /** @return the metrics of each validator run, keyed on the validator name. */
+    private static Map<String, ValidatorMetrics> getMetricsByValidatorName (ValidationResult result) {
+        Map<String, ValidatorMetrics> metricsByName = new HashMap<>();
+        for (ValidatorMetrics metrics : result.validatorMetrics) metricsByName.put(metrics.validatorName, metrics);
+        return metricsByName;
+    }
+
+    /** @return the type of every error stored for the namespace, in alphabetical order. */
+    private List<String> getErrorTypes (Connection connection, String namespace) throws SQLException {
+        List<String> errorTypes = new ArrayList<>();
+        ResultSet resultSet = connection.createStatement()
+            .executeQuery(String.format("select error_type from %s.errors order by error_type", namespace));
+        while (resultSet.next()) errorTypes.add(resultSet.getString(1));
+        return errorTypes;
+    }
+
+    private static List<String> sortedUnion (String[]... arrays) {
+        List<String> union = new ArrayList<>();
+        for (String[] array : arrays) union.addAll(Arrays.asList(array));
+        union.sort(null);
+        return union;
+    }
+
+    /**
+     * Tests that validating the stop times of each trip while they are loaded finds the same errors as validating the
+     * loaded feed, whether or not the stop times are grouped by trip. In fake-agency-ungrouped-stop-times the first
+     * trips are grouped (and some have errors), then two trips are interleaved and some stop sequences are out of
+     * order, so the errors found while loading have to be discarded and the trips validated again from the database.
+     * Validating with a different profile from the one used while loading must also discard them, without dropping
+     * the errors found by the loader itself.
+     */
+    @Test
+    void canValidateTripsWhileLoading() throws IOException, SQLException {
+        String testDBName = TestUtils.generateNewDB();
+        try {
+            String dbConnectionUrl = String.join("/", JDBC_URL, testDBName);
+            DataSource dataSource = TestUtils.createTestDataSource(dbConnectionUrl);
+            String[] folderNames = {"fake-agency", "fake-agency-multiple-routes", "fake-agency-ungrouped-stop-times"};
+            for (String folderName : folderNames) {
+                String zipFileName = TestUtils.zipFolderFiles(folderName, true);
+                ValidationProfile[] profiles = {ValidationProfile.FULL, ValidationProfile.STANDARD};
+                for (ValidationProfile profile : profiles) {
+                    JdbcGtfsLoader loader = new JdbcGtfsLoader(zipFileName, dataSource)
+                        .validateTripsWhileLoading(ValidationProfile.FULL);
+                    String fusedNamespace = loader.loadTables().uniqueIdentifier;
+                    ValidationResult fusedResult = loader.getFeed().validate(new ValidationOptions().profile(profile));
+                    String separateNamespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+                    ValidationResult separateResult = GTFS.validate(separateNamespace, dataSource, profile);
+                    String description = String.join(" ", folderName, profile.name());
+                    assertThat(description, fusedResult.fatalException, is(nullValue()));
+                    assertThat(description, fusedResult.errorCount, equalTo(separateResult.errorCount));
+                    try (Connection connection = dataSource.getConnection()) {
+                        assertSameErrorCountsByType(connection, fusedNamespace, separateNamespace);
+                        String[] queries = {
+                            "select error_type, entity_type, entity_id, entity_sequence, bad_value from %s.errors",
+                            // Trips are seen in a different order while loading, so pattern IDs may differ.
+                            "select route_id, count(*) from %s.patterns group by route_id"
+                        };
+                        for (String query : queries) {
+                            assertThat(
+                                description,
+                                getSortedRows(connection, String.format(query, fusedNamespace)),
+                                equalTo(getSortedRows(connection, String.format(query, separateNamespace)))
+                            );
+                        }
+                    }
+                }
+            }
+        } finally {
+            TestUtils.dropDB(testDBName);
+        }
+    }
+
+    /**
+     * Validate two copies of a feed with several routes serially and in parallel, and confirm that parallel validation
+     * stores the same errors and derived tables.
+     */
+    @Test
+    void canValidateInParallel() throws IOException, SQLException {
+        String testDBName = TestUtils.generateNewDB();
+        try {
+            String zipFileName = TestUtils.zipFolderFiles("fake-agency-multiple-routes", true);
+            String dbConnectionUrl = String.join("/", JDBC_URL, testDBName);
+            DataSource dataSource = TestUtils.createTestDataSource(dbConnectionUrl);
+            String serialNamespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            String parallelNamespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            ValidationResult serialResult = new Feed(dataSource, serialNamespace).validate(new ValidationOptions());
+            ValidationResult parallelResult = new Feed(dataSource, parallelNamespace)
+                .validate(new ValidationOptions().runInParallel(true));
+            assertThat(parallelResult.errorCount, equalTo(serialResult.errorCount));
+            assertThat(parallelResult.errorCount > 0, is(true));
+            assertThat(parallelResult.dailyTripCounts, equalTo(serialResult.dailyTripCounts));
+            try (Connection connection = dataSource.getConnection()) {
+                assertSameErrorCountsByType(connection, serialNamespace, parallelNamespace);
+                String[] queries = {
+                    "select count(*) from %s.services",
+                    "select count(*) from %s.service_dates",
+                    "select count(*) from %s.patterns",
+                    "select count(*) from %s.pattern_stops",
+                    "select count(*) from %s.pattern_hop_stats",
+                    "select count(pattern_id) from %s.trips"
+                };
+                for (String query : queries) {
+                    assertThat(
+                        query,
+                        getCount(connection, String.format(query, parallelNamespace)),
+                        equalTo(getCount(connection, String.format(query, serialNamespace)))
+                    );
+                }
+            }
+        } finally {
+            TestUtils.dropDB(testDBName);
+        }
+    }
+
+    /** Assert that the two namespaces have the same number of errors of each type. */
+    private void assertSameErrorCountsByType(Connection connection, String namespace, String otherNamespace)
+        throws SQLException {
+        String query = "select count(*) from %s.errors where error_type = '%s'";
+        for (NewGTFSErrorType errorType : NewGTFSErrorType.values()) {
+            assertThat(
+                errorType.name(),
+                getCount(connection, String.format(query, otherNamespace, errorType)),
+                equalTo(getCount(connection, String.format(query, namespace, errorType)))
+            );
+        }
+    }
+
+    private int getCount(Connection connection, String sql) throws SQLException {
+        LOG.info(sql);
+        ResultSet resultSet = connection.prepareStatement(sql).executeQuery();
+        resultSet.next();
+        return resultSet.getInt(1);
+    }
+
     /**
      * A helper method that will zip a specified folder in test/main/resources and call
      * {@link #runIntegrationTestOnZipFile} on that file.
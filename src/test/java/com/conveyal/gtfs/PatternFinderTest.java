@@ -0,0 +1,89 @@
+package com.conveyal.gtfs;
+
+import com.conveyal.gtfs.model.Pattern;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.model.Trip;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PatternFinderTest {
+
+    /** Sequences of stops for the trips on each route, several with the same first and last stops to exercise naming. */
+    private static final String[][] STOP_SEQUENCES = {
+        {"A", "B", "C", "D"},
+        {"A", "C", "D"},
+        {"D", "C", "B", "A"},
+        {"A", "E", "D"},
+        {"A", "B", "F", "C", "D"},
+        {"B", "C"}
+    };
+
+    /**
+     * Finding patterns route by route in parallel should give exactly the same patterns as processing every trip in
+     * turn on a single finder: the same IDs, names, trips and stops, in the same order. The trips of several routes
+     * are interleaved, so that the order of the patterns depends on merging the routes by their first trips.
+     */
+    @Test
+    void canFindPatternsByRouteInParallel() {
+        Map<String, Stop> stopById = new HashMap<>();
+        for (String stopId : new String[] {"A", "B", "C", "D", "E", "F"}) {
+            Stop stop = new Stop();
+            stop.stop_id = stopId;
+            stop.stop_name = "Stop " + stopId;
+            stopById.put(stopId, stop);
+        }
+        List<Trip> trips = new ArrayList<>();
+        Map<String, List<StopTime>> stopTimesForTrip = new HashMap<>();
+        Random random = new Random(42);
+        for (int t = 0; t < 500; t++) {
+            Trip trip = new Trip();
+            trip.trip_id = "trip" + t;
+            trip.route_id = "route" + random.nextInt(8);
+            trips.add(trip);
+            String[] stopIds = STOP_SEQUENCES[random.nextInt(STOP_SEQUENCES.length)];
+            List<StopTime> stopTimes = new ArrayList<>();
+            int time = 6 * 3600 + t * 60;
+            for (int s = 0; s < stopIds.length; s++) {
+                StopTime stopTime = new StopTime();
+                stopTime.trip_id = trip.trip_id;
+                stopTime.stop_id = stopIds[s];
+                stopTime.stop_sequence = s + 1;
+                stopTime.arrival_time = time;
+                stopTime.departure_time = time;
+                stopTimes.add(stopTime);
+                time += 120;
+            }
+            stopTimesForTrip.put(trip.trip_id, stopTimes);
+        }
+
+        PatternFinder sequentialFinder = new PatternFinder();
+        for (Trip trip : trips) sequentialFinder.processTrip(trip, stopTimesForTrip.get(trip.trip_id));
+        PatternFinder parallelFinder = PatternFinder.findPatternsByRoute(trips, stopTimesForTrip::get);
+
+        List<String> sequentialPatterns = describePatterns(sequentialFinder.createPatternObjects(stopById, null));
+        List<String> parallelPatterns = describePatterns(parallelFinder.createPatternObjects(stopById, null));
+        assertEquals(sequentialPatterns, parallelPatterns);
+        // Most of the routes should have a pattern for each sequence of stops.
+        assertTrue(sequentialPatterns.size() > 30);
+    }
+
+    /** @return the ID, route, name, trips and stops of each pattern, in order. */
+    private static List<String> describePatterns (Map<TripPatternKey, Pattern> patterns) {
+        List<String> descriptions = new ArrayList<>();
+        for (Pattern pattern : patterns.values()) {
+            descriptions.add(String.join("|", pattern.pattern_id, pattern.route_id, pattern.name,
+                pattern.associatedTrips.toString(), pattern.orderedStops.toString()));
+        }
+        return descriptions;
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.conveyal.gtfs;
+
+import com.conveyal.gtfs.PatternHopStats.TimeDistribution;
+import com.conveyal.gtfs.model.StopTime;
+import org.junit.jupiter.api.Test;
+
+import static com.conveyal.gtfs.model.Entity.INT_MISSING;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PatternHopStatsTest {
+
+    /**
+     * A single trip with unusual times should not change the median travel and dwell times of a pattern, and merging
+     * the statistics of two batches of trips should give the same result as recording all the trips in one.
+     */
+    @Test
+    void shouldIgnoreOutlierTripAndMerge() {
+        PatternHopStats allTrips = new PatternHopStats(3);
+        PatternHopStats firstBatch = new PatternHopStats(3);
+        PatternHopStats secondBatch = new PatternHopStats(3);
+        for (int t = 0; t < 9; t++) {
+            TripPatternKey trip = createTrip(t * 600, 60, 30);
+            allTrips.addTrip(trip);
+            (t < 4 ? firstBatch : secondBatch).addTrip(trip);
+        }
+        TripPatternKey outlierTrip = createTrip(10000, 600, 300);
+        allTrips.addTrip(outlierTrip);
+        secondBatch.addTrip(outlierTrip);
+        firstBatch.merge(secondBatch);
+
+        for (PatternHopStats stats : new PatternHopStats[] {allTrips, firstBatch}) {
+            TimeDistribution[] travelTimes = stats.getTravelTimes();
+            TimeDistribution[] dwellTimes = stats.getDwellTimes();
+            assertEquals(0, travelTimes[0].count);
+            assertEquals(INT_MISSING, travelTimes[0].median);
+            assertEquals(10, travelTimes[1].count);
+            assertEquals(60, travelTimes[1].p10);
+            assertEquals(60, travelTimes[1].median);
+            assertEquals(60, travelTimes[1].p90);
+            assertEquals(10, dwellTimes[1].count);
+            assertEquals(30, dwellTimes[1].median);
+            // The travel time to the last stop is measured from the departure at the second stop.
+            assertEquals(60, travelTimes[2].median);
+        }
+    }
+
+    /** Create a trip on a three stop pattern, with the given travel time between stops and dwell at the middle stop. */
+    private static TripPatternKey createTrip(int startTime, int travelTime, int dwellTime) {
+        TripPatternKey trip = new TripPatternKey("route");
+        int time = startTime;
+        for (int i = 0; i < 3; i++) {
+            StopTime stopTime = new StopTime();
+            stopTime.stop_id = "stop" + i;
+            stopTime.arrival_time = time;
+            stopTime.departure_time = i == 1 ? time + dwellTime : time;
+            trip.addStopTime(stopTime);
+            time = stopTime.departure_time + travelTime;
+        }
+        return trip;
+    }
+
+}
@@ -14,6 +14,8 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -211,5 +213,24 @@ public class TestUtils {
         assertThatSqlCountQueryYieldsExpectedCount(testDataSource, sql, expectedNumberOfErrors);
     }
 
+    /** @return the rows returned by the query, each with its values joined into a single string, in order. */
+    public static List<String> getRows(Connection connection, String sql) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        ResultSet resultSet = connection.createStatement().executeQuery(sql);
+        int nColumns = resultSet.getMetaData().getColumnCount();
+        while (resultSet.next()) {
+            List<String> values = new ArrayList<>();
+            for (int c = 1; c <= nColumns; c++) values.add(resultSet.getString(c));
+            rows.add(String.join("|", values));
+        }
+        return rows;
+    }
+
+    /** @return the rows returned by the query, each with its values joined into a single string, in sorted order. */
+    public static List<String> getSortedRows(Connection connection, String sql) throws SQLException {
+        List<String> rows = getRows(connection, sql);
+        rows.sort(null);
+        return rows;
+    }
 
 }
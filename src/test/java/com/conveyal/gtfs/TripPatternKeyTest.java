@@ -1,6 +1,7 @@
 package com.conveyal.gtfs;
 
 import com.conveyal.gtfs.model.StopTime;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -9,6 +10,7 @@ import java.util.stream.Stream;
 
 import static com.conveyal.gtfs.model.Entity.INT_MISSING;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
 class TripPatternKeyTest {
     /**
@@ -39,6 +41,42 @@ class TripPatternKeyTest {
         assertEquals(referenceKey, otherKey, "TripPatternKey did not correctly interpret missing value for" + omittedField);
     }
 
+    /**
+     * Keys built by different grouping processes (e.g. on different threads) intern their stop IDs separately, but
+     * must still be equal with the same hash code and signature when they describe the same pattern, including when a
+     * reused key is copied.
+     */
+    @Test
+    void shouldCompareKeysWithSeparatelyInternedStopIds() {
+        TripPatternKey.StopIds stopIds = new TripPatternKey.StopIds();
+        TripPatternKey reusedKey = new TripPatternKey("other-route", stopIds);
+        reusedKey.addStopTime(createStopTime("stop2"));
+        reusedKey.reset("test-route");
+        reusedKey.addStopTime(createStopTime("stop1"));
+        reusedKey.addStopTime(createStopTime("stop2"));
+
+        TripPatternKey otherKey = new TripPatternKey("test-route");
+        otherKey.addStopTime(createStopTime("stop1"));
+        otherKey.addStopTime(createStopTime("stop2"));
+
+        TripPatternKey copiedKey = reusedKey.copy(new TripPatternKey.StopIds());
+        assertEquals(reusedKey, otherKey);
+        assertEquals(reusedKey.hashCode(), otherKey.hashCode());
+        assertEquals(copiedKey, otherKey);
+        assertEquals(copiedKey.hashCode(), otherKey.hashCode());
+        assertEquals(reusedKey.getSignature(), otherKey.getSignature());
+
+        otherKey.addStopTime(createStopTime("stop3"));
+        assertNotEquals(reusedKey, otherKey);
+        assertNotEquals(reusedKey.getSignature(), otherKey.getSignature());
+    }
+
+    private static StopTime createStopTime(String stopId) {
+        StopTime stopTime = new StopTime();
+        stopTime.stop_id = stopId;
+        return stopTime;
+    }
+
     private static Stream<Arguments> createStopTimesForPickupAndDropOffChecks() {
         StopTime st1 = new StopTime();
         st1.pickup_type = INT_MISSING;
@@ -13,6 +13,7 @@ import javax.sql.DataSource;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -23,6 +24,8 @@ import static com.conveyal.gtfs.GTFS.load;
 import static com.conveyal.gtfs.GTFS.validate;
 import static com.conveyal.gtfs.TestUtils.getResourceFileName;
 import static com.zenika.snapshotmatcher.SnapshotMatcher.matchesSnapshot;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertTimeout;
 
 
@@ -40,10 +43,11 @@ public class GTFSGraphQLTest {
     private static DataSource testInjectionDataSource;
     private static String testInjectionNamespace;
     private static String badCalendarDateNamespace;
+    private static String legacyServiceDatesNamespace;
     private static final int TEST_TIMEOUT = 5000;
 
     @BeforeAll
-    public static void setUpClass() throws IOException {
+    public static void setUpClass() throws IOException, SQLException {
         // create a new database
         testDBName = TestUtils.generateNewDB();
         String dbConnectionUrl = String.format("jdbc:postgresql://localhost/%s", testDBName);
@@ -65,6 +69,19 @@ public class GTFSGraphQLTest {
         // validate feed to create additional tables
         validate(badCalendarDateNamespace, testDataSource);
 
+        // Load the feed again and store its service dates as YYYYMMDD strings, as in namespaces validated before the
+        // service_date column was given the SQL date type.
+        legacyServiceDatesNamespace = load(zipFileName, testDataSource).uniqueIdentifier;
+        validate(legacyServiceDatesNamespace, testDataSource);
+        try (Connection connection = testDataSource.getConnection()) {
+            connection.createStatement().execute(String.format(
+                "alter table %s.service_dates alter column service_date type varchar " +
+                    "using to_char(service_date, 'YYYYMMDD')",
+                legacyServiceDatesNamespace
+            ));
+            connection.commit();
+        }
+
         // create a separate injection database to use in injection tests
         // create a new database
         testInjectionDBName = TestUtils.generateNewDB();
@@ -246,6 +263,32 @@ public class GTFSGraphQLTest {
         });
     }
 
+    /** Tests that the service dates of a namespace that stores them as strings are fetched in the same format. */
+    @Test
+    public void canFetchServicesWithLegacyServiceDates() throws IOException {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("namespace", legacyServiceDatesNamespace);
+        MatcherAssert.assertThat(
+            queryGraphQL("feedServices.txt", variables, testDataSource),
+            equalTo(queryGraphQL("feedServices.txt"))
+        );
+    }
+
+    /** Tests that trips can be filtered by date in a namespace that stores service dates as strings. */
+    @Test
+    public void canFilterTripsByDateWithLegacyServiceDates() throws IOException {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("namespace", testNamespace);
+        variables.put("date", "20170915");
+        variables.put("from", 24000);
+        variables.put("to", 28000);
+        Map<String, Object> expectedResult = queryGraphQL("feedRoutesAndTripsByTime.txt", variables, testDataSource);
+        variables.put("namespace", legacyServiceDatesNamespace);
+        Map<String, Object> legacyResult = queryGraphQL("feedRoutesAndTripsByTime.txt", variables, testDataSource);
+        MatcherAssert.assertThat(legacyResult.get("errors"), nullValue());
+        MatcherAssert.assertThat(legacyResult, equalTo(expectedResult));
+    }
+
     /** Tests that the limit argument applies properly to a fetcher defined with autolimit set to false. */
     @Test
     public void canFetchNestedEntityWithLimit() {
@@ -0,0 +1,180 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.TestUtils;
+import com.conveyal.gtfs.model.Stop;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.conveyal.gtfs.GTFS.load;
+import static com.conveyal.gtfs.GTFS.validate;
+import static com.conveyal.gtfs.TestUtils.getSortedRows;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for {@link Feed}, mostly run against a feed with errors registered both when it was loaded and when it was
+ * validated.
+ */
+public class FeedTest {
+
+    private static String testDBName;
+    private static DataSource testDataSource;
+    private static String testNamespace;
+
+    @BeforeAll
+    public static void setUpClass() throws IOException {
+        testDBName = TestUtils.generateNewDB();
+        testDataSource = TestUtils.createTestDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName));
+        String zipFileName =
+            TestUtils.zipFolderFiles("real-world-gtfs-feeds/VTA-gtfs-conditionally-required-checks", true);
+        testNamespace = load(zipFileName, testDataSource).uniqueIdentifier;
+        validate(testNamespace, testDataSource);
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    /**
+     * Revalidating a changed trip must replace only the errors registered on trips and stop times. Errors of the same
+     * types registered on other tables when the feed was loaded (e.g. CONDITIONALLY_REQUIRED on stops and translations)
+     * must survive, even though their entity IDs do not match any trip.
+     */
+    @Test
+    void canValidateChangesWithoutDeletingLoadErrors() throws SQLException {
+        String countsQuery = String.format(
+            "select error_type, entity_type, entity_id, count(*) from %s.errors " +
+                "group by error_type, entity_type, entity_id",
+            testNamespace
+        );
+        String loadErrorsQuery = String.format(
+            "select count(*) from %s.errors where error_type = 'CONDITIONALLY_REQUIRED' " +
+                "and entity_type in ('Stop', 'Translation')",
+            testNamespace
+        );
+        List<String> countsBefore;
+        int loadErrorsBefore;
+        try (Connection connection = testDataSource.getConnection()) {
+            countsBefore = getSortedRows(connection, countsQuery);
+            loadErrorsBefore = getCount(connection, loadErrorsQuery);
+        }
+        assertThat(loadErrorsBefore, greaterThan(0));
+
+        // Trip 1 has a CONDITIONALLY_REQUIRED error of its own, which should be replaced by an identical one.
+        ChangedEntities changes = new ChangedEntities();
+        changes.record("trip_id", "1");
+        Feed feed = new Feed(testDataSource, testNamespace);
+        assertThat(feed.validateChanges(changes), equalTo(true));
+
+        try (Connection connection = testDataSource.getConnection()) {
+            assertThat(getCount(connection, loadErrorsQuery), equalTo(loadErrorsBefore));
+            assertThat(getSortedRows(connection, countsQuery), equalTo(countsBefore));
+        }
+    }
+
+    /**
+     * A trip's maximum speed depends on the type of its route, so changing the route type must revalidate the route's
+     * trips. The first trip of the fake agency feed is made to travel about 220 km/h, which is too fast for a bus but
+     * not for a train.
+     */
+    @Test
+    void canRevalidateTripsOfChangedRoute() throws IOException, SQLException {
+        String namespace = load(TestUtils.zipFolderFiles("fake-agency", true), testDataSource).uniqueIdentifier;
+        String tripId = "a30277f8-e50a-4a85-9141-b1e0da9d429d";
+        try (Connection connection = testDataSource.getConnection()) {
+            // The two stops of the trip are about 310 meters apart. Arrive at the second at 07:00:05, five seconds
+            // after leaving the first.
+            connection.createStatement().execute(String.format(
+                "update %s.stop_times set arrival_time = 25205, departure_time = 25205 " +
+                    "where trip_id = '%s' and stop_sequence = 2",
+                namespace, tripId
+            ));
+            connection.commit();
+        }
+        validate(namespace, testDataSource);
+        String tooFastQuery = String.format(
+            "select count(*) from %s.errors where error_type = 'TRAVEL_TOO_FAST' and entity_id = '%s'",
+            namespace, tripId
+        );
+        try (Connection connection = testDataSource.getConnection()) {
+            assertThat(getCount(connection, tooFastQuery), equalTo(1));
+            // Make route 1 a rail route.
+            connection.createStatement().execute(
+                String.format("update %s.routes set route_type = 2 where route_id = '1'", namespace));
+            connection.commit();
+        }
+
+        ChangedEntities changes = new ChangedEntities();
+        changes.record("route_id", "1");
+        assertThat(changes.requireFullValidation(), equalTo(false));
+        Feed feed = new Feed(testDataSource, namespace);
+        assertThat(feed.validateChanges(changes), equalTo(true));
+
+        try (Connection connection = testDataSource.getConnection()) {
+            assertThat(getCount(connection, tooFastQuery), equalTo(0));
+        }
+    }
+
+    /**
+     * Checks that a feed's entities can be looked up by ID one at a time and in batches, that a feed created with a
+     * cache keeps returning the entities it has cached until its caches are cleared, and that a feed created without
+     * one always reads the current rows.
+     */
+    @Test
+    void canLookUpEntitiesById() throws SQLException {
+        Feed feed = new Feed(testDataSource, testNamespace, 100);
+        Feed uncachedFeed = new Feed(testDataSource, testNamespace);
+        Map<String, Stop> stopsById = ((JDBCTableReader<Stop>) feed.stops).getMany(
+            Arrays.asList("692", "missing-stop", "691", "692")
+        );
+        assertThat(new ArrayList<>(stopsById.keySet()), equalTo(Arrays.asList("692", "691")));
+        assertThat(stopsById.get("692").stop_name, equalTo("San Antonio & Miller"));
+        assertThat(feed.stops.get("692"), sameInstance(stopsById.get("692")));
+        assertNull(feed.stops.get("missing-stop"));
+
+        String renameSql = String.format("update %s.stops set stop_name = ? where stop_id = '692'", testNamespace);
+        try {
+            try (Connection connection = testDataSource.getConnection()) {
+                PreparedStatement statement = connection.prepareStatement(renameSql);
+                statement.setString(1, "Renamed Stop");
+                statement.executeUpdate();
+                connection.commit();
+            }
+            // The cached stop is returned until the caches are cleared.
+            assertThat(feed.stops.get("692").stop_name, equalTo("San Antonio & Miller"));
+            assertThat(uncachedFeed.stops.get("692").stop_name, equalTo("Renamed Stop"));
+            feed.clearEntityCaches();
+            assertThat(feed.stops.get("692").stop_name, equalTo("Renamed Stop"));
+        } finally {
+            try (Connection connection = testDataSource.getConnection()) {
+                PreparedStatement statement = connection.prepareStatement(renameSql);
+                statement.setString(1, "San Antonio & Miller");
+                statement.executeUpdate();
+                connection.commit();
+            }
+        }
+    }
+
+    private static int getCount (Connection connection, String sql) throws SQLException {
+        ResultSet resultSet = connection.createStatement().executeQuery(sql);
+        resultSet.next();
+        return resultSet.getInt(1);
+    }
+
+}
@@ -33,6 +33,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.UUID;
 
 import static com.conveyal.gtfs.GTFS.load;
@@ -812,6 +814,8 @@ public class JDBCTableWriterTest {
         String createTripOutput = createTripWriter.create(mapper.writeValueAsString(tripInput), true);
         LOG.info(createTripOutput);
         TripDTO createdTrip = mapper.readValue(createTripOutput, TripDTO.class);
+        // The created trip should be recorded for revalidation.
+        assertThat(createTripWriter.getChangedEntities().tripIds.contains(createdTrip.trip_id), equalTo(true));
         // Update pattern stop with new travel time.
         JdbcTableWriter patternUpdater = createTestTableWriter(Table.PATTERNS);
         int updatedTravelTime = 3600; // one hour
@@ -821,6 +825,8 @@ public class JDBCTableWriterTest {
         // Normalize stop times.
         JdbcTableWriter updateTripWriter = createTestTableWriter(tripsTable);
         updateTripWriter.normalizeStopTimesForPattern(pattern.id, 0);
+        // The pattern whose stop times were normalized should be recorded for revalidation.
+        assertThat(updateTripWriter.getChangedEntities().patternIds.contains(patternId), equalTo(true));
         // Read pattern stops from database and check that the arrivals/departures have been updated.
         JDBCTableReader<StopTime> stopTimesTable = new JDBCTableReader(Table.STOP_TIMES,
                                                                        testDataSource,
@@ -836,6 +842,121 @@ public class JDBCTableWriterTest {
         assertThat(index, equalTo(patternStops.length));
     }
 
+    /**
+     * Checks that the pattern signatures computed by the database from pattern stops match those computed in Java from
+     * the stops of a trip, both for a pattern with stops (including a pickup type) and for one without.
+     */
+    @Test
+    public void canComputePatternSignaturesInJavaAndSql() throws IOException, SQLException, InvalidNamespaceException {
+        String patternId = "signature-pattern";
+        PatternStopDTO[] patternStops = new PatternStopDTO[]{
+            new PatternStopDTO(patternId, firstStopId, 0),
+            new PatternStopDTO(patternId, lastStopId, 1)
+        };
+        patternStops[0].pickup_type = 1;
+        PatternDTO pattern = createRouteAndPattern(newUUID(), patternId, "Signature Pattern", null,
+            new ShapePointDTO[]{}, patternStops, 0);
+        PatternDTO emptyPattern = createRouteAndSimplePattern(newUUID(), "signature-empty-pattern", "Empty Pattern");
+        String stopsSignature = PatternSignatures.signature(
+            pattern.route_id, Arrays.asList(firstStopId, lastStopId), new int[]{1, 0}, new int[]{0, 0}
+        );
+        String emptySignature =
+            PatternSignatures.signature(emptyPattern.route_id, new ArrayList<>(), new int[0], new int[0]);
+        try (Connection connection = testDataSource.getConnection()) {
+            // Recompute every signature in SQL, rather than relying on those kept up to date by the writer.
+            PatternSignatures.ensureSignatures(connection, testNamespace + ".");
+            PatternSignatures.updateSignatures(connection, testNamespace + ".", null);
+            connection.commit();
+            ResultSet resultSet = connection.createStatement().executeQuery(String.format(
+                "select pattern_id, %s from %s.patterns where pattern_id in ('%s', '%s')",
+                PatternSignatures.COLUMN_NAME, testNamespace, pattern.pattern_id, emptyPattern.pattern_id
+            ));
+            int patternCount = 0;
+            while (resultSet.next()) {
+                String expectedSignature = pattern.pattern_id.equals(resultSet.getString(1))
+                    ? stopsSignature
+                    : emptySignature;
+                assertThat(resultSet.getString(2), equalTo(expectedSignature));
+                patternCount++;
+            }
+            assertThat(patternCount, equalTo(2));
+        }
+        assertNotEquals(stopsSignature, PatternSignatures.signature(
+            pattern.route_id, Arrays.asList(firstStopId, lastStopId), new int[]{0, 0}, new int[]{0, 0}
+        ));
+    }
+
+    /**
+     * Checks that a trip created without a pattern_id is assigned to the existing pattern with the same route, stops
+     * and pickup and drop-off types.
+     */
+    @Test
+    public void canAssignPatternToTripWithoutPatternId() throws IOException, SQLException, InvalidNamespaceException {
+        String patternId = "assigned-pattern";
+        PatternStopDTO[] patternStops = new PatternStopDTO[]{
+            new PatternStopDTO(patternId, firstStopId, 0),
+            new PatternStopDTO(patternId, lastStopId, 1)
+        };
+        PatternDTO pattern = createRouteAndPattern(newUUID(), patternId, "Assigned Pattern", null,
+            new ShapePointDTO[]{}, patternStops, 0);
+        int startTime = 7 * 60 * 60;
+        TripDTO tripInput = constructTimetableTrip(null, pattern.route_id, startTime, 60);
+        JdbcTableWriter createTripWriter = createTestTableWriter(Table.TRIPS);
+        String createTripOutput = createTripWriter.create(mapper.writeValueAsString(tripInput), true);
+        TripDTO createdTrip = mapper.readValue(createTripOutput, TripDTO.class);
+        assertThat(createdTrip.pattern_id, equalTo(patternId));
+        ResultSet resultSet = getResultSetForId(createdTrip.id, Table.TRIPS, "pattern_id");
+        while (resultSet.next()) assertResultValue(resultSet, "pattern_id", equalTo(patternId));
+    }
+
+    /**
+     * Checks that a trip whose stop times are edited so that they no longer match its pattern is moved to a new pattern
+     * with the trip's stops, and back to its original pattern when its stop times match that pattern again.
+     */
+    @Test
+    public void canReassignPatternWhenTripStopTimesChange()
+        throws IOException, SQLException, InvalidNamespaceException {
+        String patternId = "reassigned-pattern";
+        PatternStopDTO[] patternStops = new PatternStopDTO[]{
+            new PatternStopDTO(patternId, firstStopId, 0),
+            new PatternStopDTO(patternId, lastStopId, 1)
+        };
+        PatternDTO pattern = createRouteAndPattern(newUUID(), patternId, "Reassigned Pattern", null,
+            new ShapePointDTO[]{}, patternStops, 0);
+        int startTime = 8 * 60 * 60;
+        TripDTO tripInput = constructTimetableTrip(pattern.pattern_id, pattern.route_id, startTime, 60);
+        String createTripOutput = createTestTableWriter(Table.TRIPS).create(mapper.writeValueAsString(tripInput), true);
+        TripDTO trip = mapper.readValue(createTripOutput, TripDTO.class);
+        assertThat(trip.pattern_id, equalTo(patternId));
+        // Serve the stops in the opposite order, which no pattern does yet.
+        trip.stop_times = new StopTimeDTO[]{
+            new StopTimeDTO(lastStopId, startTime, startTime, 0),
+            new StopTimeDTO(firstStopId, startTime + 120, startTime + 120, 1)
+        };
+        JdbcTableWriter reverseTripWriter = createTestTableWriter(Table.TRIPS);
+        TripDTO reversedTrip = mapper.readValue(
+            reverseTripWriter.update(trip.id, mapper.writeValueAsString(trip), true), TripDTO.class);
+        String newPatternId = reversedTrip.pattern_id;
+        assertThat(newPatternId, not(equalTo(patternId)));
+        assertThat(reverseTripWriter.getChangedEntities().patternIds.contains(newPatternId), equalTo(true));
+        assertThatSqlQueryYieldsRowCount(String.format(
+            "select * from %s.patterns where pattern_id = '%s' and route_id = '%s'",
+            testNamespace, newPatternId, pattern.route_id
+        ), 1);
+        assertThatSqlQueryYieldsRowCount(String.format(
+            "select * from %s.pattern_stops where pattern_id = '%s' and ((stop_sequence = 0 and stop_id = '%s') " +
+                "or (stop_sequence = 1 and stop_id = '%s' and default_travel_time = 120))",
+            testNamespace, newPatternId, lastStopId, firstStopId
+        ), 2);
+        // Serve the original stops again, while still naming the new pattern.
+        reversedTrip.stop_times = tripInput.stop_times;
+        TripDTO restoredTrip = mapper.readValue(createTestTableWriter(Table.TRIPS)
+            .update(reversedTrip.id, mapper.writeValueAsString(reversedTrip), true), TripDTO.class);
+        assertThat(restoredTrip.pattern_id, equalTo(patternId));
+        ResultSet resultSet = getResultSetForId(restoredTrip.id, Table.TRIPS, "pattern_id");
+        while (resultSet.next()) assertResultValue(resultSet, "pattern_id", equalTo(patternId));
+    }
+
     /**
      * This test makes sure that updated the service_id will properly update affected referenced entities properly.
      * This test case was initially developed to prove that https://github.com/conveyal/gtfs-lib/issues/203 is
@@ -850,6 +971,11 @@ public class JDBCTableWriterTest {
             "{\"id\":2,\"service_id\":\"test\",\"description\":\"MoTuWeThFrSaSu\",\"monday\":1,\"tuesday\":1,\"wednesday\":1,\"thursday\":1,\"friday\":1,\"saturday\":1,\"sunday\":1,\"start_date\":\"20180526\",\"end_date\":\"20201231\"}",
             true
         );
+        // Both the old and the new service ID should be recorded for revalidation.
+        ChangedEntities changedEntities = tableWriter.getChangedEntities();
+        assertThat(changedEntities.serviceIds.contains("test"), equalTo(true));
+        assertThat(changedEntities.serviceIds.size(), equalTo(2));
+        assertThat(changedEntities.requireFullValidation(), equalTo(true));
 
         // assert that the amount of stop times equals the original amount of stop times in the feed
         assertThatSqlQueryYieldsRowCount(
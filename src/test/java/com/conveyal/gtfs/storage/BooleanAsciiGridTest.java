@@ -2,7 +2,13 @@ package com.conveyal.gtfs.storage;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class BooleanAsciiGridTest {
@@ -25,4 +31,47 @@ public class BooleanAsciiGridTest {
         assertTrue(asciiGrid.getValueForCoords(-156.4915454, 20.8751302), "Maui has significant population density.");
         assertFalse(asciiGrid.getValueForCoords(-149.7023417, -44.7672362), "The South Pacific Ocean has low population density.");
     }
-}
\ No newline at end of file
+
+    /**
+     * Check that the binary earth population grid matches the ASCII grid it was converted from, in every cell.
+     */
+    @Test
+    public void testBinaryGridMatchesAsciiGrid() throws Exception {
+        BooleanAsciiGrid binaryGrid = BooleanAsciiGrid.forEarthPopulation();
+        assertSame(binaryGrid, BooleanAsciiGrid.forEarthPopulation(), "The grid is only loaded once.");
+        BooleanAsciiGrid asciiGrid;
+        try (InputStream gridStream = BooleanAsciiGrid.class.getResourceAsStream("gpwv3-quarter-boolean.asc")) {
+            asciiGrid = new BooleanAsciiGrid(gridStream, false);
+        }
+        assertEquals(asciiGrid.ncols, binaryGrid.ncols);
+        assertEquals(asciiGrid.nrows, binaryGrid.nrows);
+        for (int row = 0; row < asciiGrid.nrows; row++) {
+            for (int col = 0; col < asciiGrid.ncols; col++) {
+                // Look up the center of each cell.
+                double x = asciiGrid.xllcorner + (col + 0.5) * asciiGrid.cellsize;
+                double y = asciiGrid.yllcorner + (row + 0.5) * asciiGrid.cellsize;
+                assertEquals(asciiGrid.getValueForCoords(x, y), binaryGrid.getValueForCoords(x, y));
+            }
+        }
+    }
+
+    /**
+     * Check that coordinates just outside the edges of a grid whose cells are all true are reported as outside the
+     * grid, rather than being rounded into its first or last row or column.
+     */
+    @Test
+    public void testCoordsOutsideGrid() {
+        String ascii = "ncols 2\nnrows 2\nxllcorner 10\nyllcorner 20\ncellsize 0.5\n1 1\n1 1\n";
+        BooleanAsciiGrid grid = new BooleanAsciiGrid(
+            new ByteArrayInputStream(ascii.getBytes(StandardCharsets.UTF_8)), false);
+        assertTrue(grid.getValueForCoords(10.01, 20.01), "Just inside the lower left corner.");
+        assertTrue(grid.getValueForCoords(10.99, 20.99), "Just inside the upper right corner.");
+        assertFalse(grid.getValueForCoords(9.99, 20.01), "Just left of the grid.");
+        assertFalse(grid.getValueForCoords(10.01, 19.99), "Just below the grid.");
+        assertFalse(grid.getValueForCoords(9.99, 19.99), "Just outside the lower left corner.");
+        assertFalse(grid.getValueForCoords(11.01, 20.99), "Just right of the grid.");
+        assertFalse(grid.getValueForCoords(10.99, 21.01), "Just above the grid.");
+        assertFalse(grid.getValueForCoords(Double.NaN, 20.01), "NaN longitude.");
+        assertFalse(grid.getValueForCoords(10.01, Double.NaN), "NaN latitude.");
+    }
+}
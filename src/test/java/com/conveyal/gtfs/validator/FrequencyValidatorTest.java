@@ -0,0 +1,77 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.GTFS;
+import com.conveyal.gtfs.TestUtils;
+import com.conveyal.gtfs.error.SQLErrorStorage;
+import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.util.InvalidNamespaceException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class FrequencyValidatorTest {
+
+    private static String testDBName;
+    private static DataSource testDataSource;
+
+    @BeforeAll
+    public static void setUpClass() {
+        testDBName = TestUtils.generateNewDB();
+        testDataSource = TestUtils.createTestDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName));
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    /**
+     * The fake agency feed has a single frequency for frequency-trip. Frequencies for other trips that come after it
+     * must still be checked: the Java version of this validator used to stop at the first trip with only one
+     * frequency. Each overlapping pair is reported once, against the first frequency of the pair.
+     */
+    @Test
+    void canFindOverlapsAfterTripWithSingleFrequency() throws IOException, SQLException, InvalidNamespaceException {
+        String zipFileName = TestUtils.zipFolderFiles("fake-agency", true);
+        String namespace = GTFS.load(zipFileName, testDataSource).uniqueIdentifier;
+        Feed feed = new Feed(testDataSource, namespace);
+        try (Connection connection = testDataSource.getConnection()) {
+            // 08:00-09:00 overlaps 08:30-09:30, which ends before 09:30-10:00 starts.
+            connection.createStatement().execute(String.format(
+                "insert into %sfrequencies (id, trip_id, start_time, end_time, headway_secs, exact_times) values " +
+                    "(100, 'later-trip', 28800, 32400, 600, 0), " +
+                    "(101, 'later-trip', 30600, 34200, 900, 1), " +
+                    "(102, 'later-trip', 34200, 36000, 600, 0)",
+                feed.tablePrefix
+            ));
+            connection.commit();
+        }
+        SQLErrorStorage errorStorage = new SQLErrorStorage(testDataSource.getConnection(), feed.tablePrefix, false);
+        new FrequencyValidator(feed, errorStorage).validate();
+        errorStorage.commitAndClose();
+
+        try (Connection connection = testDataSource.getConnection()) {
+            ResultSet resultSet = connection.createStatement().executeQuery(String.format(
+                "select entity_type, entity_id from %serrors where error_type = 'FREQUENCY_PERIOD_OVERLAP' " +
+                    "order by error_id",
+                feed.tablePrefix
+            ));
+            List<String> errors = new ArrayList<>();
+            while (resultSet.next()) errors.add(resultSet.getString(1) + "|" + resultSet.getString(2));
+            assertThat(errors, equalTo(Arrays.asList("Frequency|later-trip_08:00:00_to_09:00:00_every_10m00s")));
+        }
+    }
+
+}
@@ -1,28 +1,85 @@
 package com.conveyal.gtfs.validator;
 
+import com.conveyal.gtfs.GTFS;
+import com.conveyal.gtfs.TestUtils;
+import com.conveyal.gtfs.error.SQLErrorStorage;
+import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.util.InvalidNamespaceException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
-import java.net.MalformedURLException;
-import java.net.URL;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
 
-import static org.hamcrest.CoreMatchers.is;
+import static com.conveyal.gtfs.TestUtils.getRows;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
 
+/**
+ * Checks the field length rules of {@link MTCValidator} as they are evaluated by the database.
+ */
 public class MTCValidatorTest {
-    @Test
-    public void canValidateFieldLength() {
-        MTCValidator validator = new MTCValidator(null, null);
-        assertThat(validator.validateFieldLength(null, "abcdefghijklmnopqrstwxyz1234567890", 20), is(false));
-        assertThat(validator.validateFieldLength(null, "abcdef", 20), is(true));
+
+    private static String testDBName;
+    private static DataSource testDataSource;
+
+    @BeforeAll
+    public static void setUpClass() {
+        testDBName = TestUtils.generateNewDB();
+        testDataSource = TestUtils.createTestDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName));
     }
 
+    @AfterAll
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    /**
+     * Each field that is longer than the MTC guidelines allow should be reported once, against the entity holding it,
+     * with the maximum length and the whole value as the bad value. Fields within the limits are not reported. Errors
+     * are stored in the order the rules were added, then by line number.
+     */
     @Test
-    public void canValidateFieldLength_usingObject() throws MalformedURLException {
-        MTCValidator validator = new MTCValidator(null, null);
+    void canValidateFieldLengths() throws IOException, SQLException, InvalidNamespaceException {
+        String zipFileName = TestUtils.zipFolderFiles("fake-agency-mtc-long-fields", true);
+        String namespace = GTFS.load(zipFileName, testDataSource).uniqueIdentifier;
+        Feed feed = new Feed(testDataSource, namespace);
+        SQLErrorStorage errorStorage = new SQLErrorStorage(testDataSource.getConnection(), feed.tablePrefix, false);
+        new MTCValidator(feed, errorStorage).validate();
+        errorStorage.commitAndClose();
 
-        // You can also pass objects, in that case it will use toString().
-        URL url = new URL("http://www.gtfs.org");
-        assertThat(validator.validateFieldLength(null, url, 10), is(false));
-        assertThat(validator.validateFieldLength(null, url, 30), is(true));
+        List<String> expectedErrors = Arrays.asList(
+            "Agency|Agency_id_with_more_than_50_characters_that_does_not_meet_MTC_guidelines|[over 50 characters] " +
+                "Agency_id_with_more_than_50_characters_that_does_not_meet_MTC_guidelines",
+            "Agency|2|[over 50 characters] Agency name with more than fifty 50 characters that does not meet MTC " +
+                "guidelines",
+            "Stop|1234|[over 100 characters] Long Stop Name of more than 100 characters that exceeds MTC guidelines " +
+                "regarding the length of this field",
+            "Trip|frequency-trip|[over 120 characters] This is a trip headsign of more than 120 characters that " +
+                "exceeds the MTC guidelines on the number of characters for the trip headsign",
+            "Trip|trip-with-long-shortname|[over 50 characters] This is a trip short name of more than 50 characters " +
+                "beyond MTC guidelines"
+        );
+        try (Connection connection = testDataSource.getConnection()) {
+            List<String> errors = getRows(connection, String.format(
+                "select entity_type, entity_id, bad_value from %serrors " +
+                    "where error_type = 'FIELD_VALUE_TOO_LONG' and entity_id <> '4' order by error_id",
+                feed.tablePrefix
+            ));
+            assertThat(errors, equalTo(expectedErrors));
+            // The agency URL is too long to spell out here, so only its prefix is checked.
+            List<String> urlErrors = getRows(connection, String.format(
+                "select entity_type, left(bad_value, 43) from %serrors " +
+                    "where error_type = 'FIELD_VALUE_TOO_LONG' and entity_id = '4'",
+                feed.tablePrefix
+            ));
+            assertThat(urlErrors, equalTo(Arrays.asList("Agency|[over 500 characters] http://www.agency.com")));
+        }
     }
+
 }
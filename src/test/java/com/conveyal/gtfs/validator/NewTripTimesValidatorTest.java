@@ -0,0 +1,89 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.GTFS;
+import com.conveyal.gtfs.TestUtils;
+import com.conveyal.gtfs.error.SQLErrorStorage;
+import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.util.InvalidNamespaceException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import static com.conveyal.gtfs.TestUtils.getSortedRows;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+public class NewTripTimesValidatorTest {
+
+    private static String testDBName;
+    private static DataSource testDataSource;
+
+    @BeforeAll
+    public static void setUpClass() {
+        testDBName = TestUtils.generateNewDB();
+        testDataSource = TestUtils.createTestDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName));
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    /**
+     * Validating trips in parallel batches must store exactly the same errors and derived tables as validating them on
+     * a single thread, including the results of validators that depend on the order in which trips are seen (pattern
+     * IDs and names, the feed-wide check for rounded travel times and overlapping trips in blocks). Each trip is put
+     * in its own batch so that every batch has to be merged.
+     */
+    @Test
+    void canValidateTripsInParallelBatches() throws IOException, SQLException, InvalidNamespaceException {
+        String zipFileName = TestUtils.zipFolderFiles("fake-agency-multiple-routes", true);
+        String serialNamespace = validateTrips(zipFileName, false);
+        String parallelNamespace = validateTrips(zipFileName, true);
+        String[] queries = {
+            "select error_type, entity_type, entity_id, entity_sequence, bad_value from %s.errors",
+            "select error_type, entity_id, key, value from %s.errors as errors join %s.error_info as info " +
+                "on errors.error_id = info.error_id",
+            "select pattern_id, route_id, name, direction_id, shape_id from %s.patterns",
+            "select pattern_id, stop_sequence, stop_id, default_travel_time, default_dwell_time from %s.pattern_stops",
+            "select trip_id, pattern_id from %s.trips",
+            "select service_date, service_id from %s.service_dates"
+        };
+        try (Connection connection = testDataSource.getConnection()) {
+            for (String query : queries) {
+                List<String> serialRows = getSortedRows(connection, String.format(query, serialNamespace, serialNamespace));
+                List<String> parallelRows =
+                    getSortedRows(connection, String.format(query, parallelNamespace, parallelNamespace));
+                assertThat(query, serialRows.size(), greaterThan(0));
+                assertThat(query, parallelRows, equalTo(serialRows));
+            }
+        }
+    }
+
+    /**
+     * Load a feed and run only the trip validators on it.
+     * @return the namespace of the feed.
+     */
+    private static String validateTrips (String zipFileName, boolean inParallel)
+        throws SQLException, InvalidNamespaceException {
+        String namespace = GTFS.load(zipFileName, testDataSource).uniqueIdentifier;
+        Feed feed = new Feed(testDataSource, namespace);
+        SQLErrorStorage errorStorage = new SQLErrorStorage(testDataSource.getConnection(), feed.tablePrefix, false);
+        NewTripTimesValidator validator =
+            new NewTripTimesValidator(feed, errorStorage, inParallel, ValidationProfile.FULL);
+        validator.setTripBatchSize(1);
+        validator.validate();
+        validator.complete(new ValidationResult());
+        errorStorage.commitAndClose();
+        feed.releaseCache();
+        return namespace;
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.GTFS;
+import com.conveyal.gtfs.TestUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import static com.conveyal.gtfs.TestUtils.getRows;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Checks the shape errors reported by {@link ReversedTripValidator} on small feeds with one trip and one bad shape.
+ */
+public class ReversedTripValidatorTest {
+
+    private static final String SHAPE_ERRORS_SQL = "select error_type, entity_type, entity_id from %s.errors " +
+        "where error_type in ('SHAPE_REVERSED', 'SHAPE_MISSING_COORDINATE', 'STOP_TOO_FAR_FROM_SHAPE')";
+
+    private static String testDBName;
+    private static DataSource testDataSource;
+
+    @BeforeAll
+    public static void setUpClass() {
+        testDBName = TestUtils.generateNewDB();
+        testDataSource = TestUtils.createTestDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName));
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    /** The shape is drawn from the last stop of the trip to the first. */
+    @Test
+    void canDetectReversedShape() throws IOException, SQLException {
+        assertThat(
+            getShapeErrors("fake-agency-reversed-shape"),
+            equalTo(Collections.singletonList("SHAPE_REVERSED|Trip|trip-1"))
+        );
+    }
+
+    /**
+     * One point of the shape has no latitude. The shape is still checked using the remaining points, which run in the
+     * same direction as the trip and pass close to both stops.
+     */
+    @Test
+    void canDetectShapeMissingCoordinate() throws IOException, SQLException {
+        assertThat(
+            getShapeErrors("fake-agency-shape-missing-coordinate"),
+            equalTo(Collections.singletonList("SHAPE_MISSING_COORDINATE|ShapePoint|shape-1"))
+        );
+    }
+
+    /**
+     * Load and validate the feed in the given test resources folder.
+     * @return the shape errors stored for the feed.
+     */
+    private static List<String> getShapeErrors (String folderName) throws IOException, SQLException {
+        String zipFileName = TestUtils.zipFolderFiles(folderName, true);
+        String namespace = GTFS.load(zipFileName, testDataSource).uniqueIdentifier;
+        GTFS.validate(namespace, testDataSource);
+        try (Connection connection = testDataSource.getConnection()) {
+            return getRows(connection, String.format(SHAPE_ERRORS_SQL, namespace));
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.TestUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class SQLValidationRuleTest {
+
+    private static String testDBName;
+    private static DataSource testDataSource;
+
+    @BeforeAll
+    public static void setUpClass() {
+        testDBName = TestUtils.generateNewDB();
+        testDataSource = TestUtils.createTestDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName));
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    /**
+     * The normalized value computed by the database should match the value the Java validators computed with
+     * toLowerCase() and trim(), which also removes tabs, line breaks and other control characters.
+     */
+    @Test
+    void canNormalizeLikeJava() throws SQLException {
+        String[] values = {"Main St", "  Main St  ", "\tMain St\r\n", "\u000BMain\tSt\u001F", " \t ", "", null};
+        try (Connection connection = testDataSource.getConnection()) {
+            PreparedStatement statement =
+                connection.prepareStatement("select " + SQLValidationRule.normalized("?::varchar"));
+            for (String value : values) {
+                statement.setString(1, value);
+                ResultSet resultSet = statement.executeQuery();
+                resultSet.next();
+                String expected = value == null ? "" : value.toLowerCase().trim();
+                assertThat(String.valueOf(value), resultSet.getString(1), equalTo(expected));
+            }
+        }
+    }
+
+}
@@ -112,6 +112,16 @@ public class SpeedTripValidatorTest {
         checkFeedHasError(TRAVEL_TOO_SLOW, "6", 3);
     }
 
+    /**
+     * Trip 7
+     * Same stops and relative times as trip 3, one hour later. The results of checking trip 3 are reused, but must be
+     * reported against trip 7's own stop time.
+     */
+    @Test
+    public void tripWithSameTimetableAsAnotherTripHasOwnError() {
+        checkFeedHasError(TRAVEL_TOO_FAST, "7", 2);
+    }
+
     /**
      * Check that the test feed has exactly one error for the given type, entityId, and entitySequence.
      */